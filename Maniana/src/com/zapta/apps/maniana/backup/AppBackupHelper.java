@@ -65,6 +65,9 @@ public class AppBackupHelper extends BackupAgentHelper {
             ParcelFileDescriptor newState) throws IOException {
         LogUtil.info("Google backup agent: onBackup()");
         // TODO: do we need a lock also for the shared preferences?
+        // Write pending changes and fold the journal so the backed up data file is complete.
+        // NOTE: this waits for the model writer so it must be called without the lock.
+        ModelPersistence.compactDataFile(this);
         synchronized (ModelPersistence.sDataFileLock) {
             // Synchronized access to the data file to avoid corruption.
             super.onBackup(oldState, data, newState);
@@ -79,6 +82,8 @@ public class AppBackupHelper extends BackupAgentHelper {
         synchronized (ModelPersistence.sDataFileLock) {
             // Synchronized access to the data file to avoid corruption.
             super.onRestore(data, appVersionCode, newState);
+            // The journal does not match the restored data file.
+            ModelPersistence.onDataFileReplaced(this);
         }
     }
 }
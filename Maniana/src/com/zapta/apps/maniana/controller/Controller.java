@@ -14,14 +14,15 @@
 
 package com.zapta.apps.maniana.controller;
 
-import static com.zapta.apps.maniana.util.Assertions.check;
-
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Date;
 
 import javax.annotation.Nullable;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.media.AudioManager;
 import android.net.Uri;
@@ -47,6 +48,7 @@ import com.zapta.apps.maniana.main.MainActivityState;
 import com.zapta.apps.maniana.menus.ItemMenuEntry;
 import com.zapta.apps.maniana.menus.MainMenuEntry;
 import com.zapta.apps.maniana.model.AppModel;
+import com.zapta.apps.maniana.model.ImportStatsCounter;
 import com.zapta.apps.maniana.model.ItemColor;
 import com.zapta.apps.maniana.model.ItemModel;
 import com.zapta.apps.maniana.model.ItemModelReadOnly;
@@ -55,8 +57,11 @@ import com.zapta.apps.maniana.model.PageKind;
 import com.zapta.apps.maniana.model.PushScope;
 import com.zapta.apps.maniana.notifications.NotificationUtil;
 import com.zapta.apps.maniana.persistence.ModelDeserialization;
+import com.zapta.apps.maniana.persistence.ModelDeserialization.ItemListener;
 import com.zapta.apps.maniana.persistence.ModelPersistence;
+import com.zapta.apps.maniana.persistence.ModelWriter;
 import com.zapta.apps.maniana.persistence.PersistenceMetadata;
+import com.zapta.apps.maniana.services.DueTimeAlarm;
 import com.zapta.apps.maniana.services.MidnightTicker;
 import com.zapta.apps.maniana.services.ShakeImpl;
 import com.zapta.apps.maniana.services.Shaker;
@@ -67,7 +72,6 @@ import com.zapta.apps.maniana.settings.SettingsActivity;
 import com.zapta.apps.maniana.settings.ShakerAction;
 import com.zapta.apps.maniana.util.CalendarUtil;
 import com.zapta.apps.maniana.util.FileUtil;
-import com.zapta.apps.maniana.util.FileUtil.FileReadResult;
 import com.zapta.apps.maniana.util.IdGenerator;
 import com.zapta.apps.maniana.util.LogUtil;
 import com.zapta.apps.maniana.view.AppView;
@@ -93,6 +97,9 @@ public class Controller implements ShakerListener {
 
     private static final int VOICE_RECOGNITION_REQUEST_CODE = 1001;
 
+    /** Private copy of the backup file that is being restored. */
+    private static final String RESTORE_FILE_NAME = "maniana_restore.tmp";
+
     /** The app context. Provide access to the model, view and services. */
     private final MainActivityState mMainActivityState;
 
@@ -110,6 +117,9 @@ public class Controller implements ShakerListener {
      */
     private boolean mInSubActivity = false;
 
+    /** The model mutation count of the last write request. Used to avoid redundant writes. */
+    private int mLastWriteRequestMutationCount = -1;
+
     @Nullable
     private Shaker mOptionalShaker = null;
 
@@ -137,8 +147,8 @@ public class Controller implements ShakerListener {
         
         final ItemColor newItemColor = itemColorsSet.colorAfter(item.getColor());
         if (newItemColor != item.getColor()) {
+            // The item view is updated by the model change event.
             item.setColor(newItemColor);
-            mMainActivityState.view().updatePage(pageKind);
         } else {
             // No color change. Give a novice user a hing.
             if (mMainActivityState.prefTracker().getVerboseMessagesEnabledPreference()) {
@@ -193,12 +203,10 @@ public class Controller implements ShakerListener {
     /** Called by the view when the user drag an item within the page */
     public final void onItemMoveInPage(final PageKind pageKind, final int sourceItemIndex,
             final int destinationItemIndex) {
-        final ItemModel itemModel = mMainActivityState.model()
-                .removeItem(pageKind, sourceItemIndex);
-        // NOTE(tal): if source index < destination index, the item removal above affect the index
+        // NOTE(tal): if source index < destination index, the item removal affect the index
         // of the destination by 1. Despite that, we don't compensate for it as this acieve a more
         // intuitive behavior and allow to move an item to the end of the list.
-        mMainActivityState.model().insertItem(pageKind, destinationItemIndex, itemModel);
+        mMainActivityState.model().moveItem(pageKind, sourceItemIndex, destinationItemIndex);
         mMainActivityState.view().updatePage(pageKind);
         mMainActivityState.view().getRootView().post(new Runnable() {
             @Override
@@ -219,23 +227,53 @@ public class Controller implements ShakerListener {
         flushModelChanges(false);
     }
 
-    /** If model is dirty then persist and update widgets. */
+    /**
+     * If model is dirty then persist it. If the Today page is dirty also update the widgets. The
+     * model is written in the background and its dirty bit is cleared when the write is done.
+     */
     private final void flushModelChanges(boolean alwaysUpdateAllWidgets) {
         // If state is dirty persist data so we don't lose it if the app will not resumed.
-        final boolean modelWasDirty = mMainActivityState.model().isDirty();
-        if (modelWasDirty) {
+        final AppModel model = mMainActivityState.model();
+        final boolean modelWasDirty = model.isDirty();
+        // NOTE: the widgets show only the Today page.
+        final boolean todayPageWasDirty = model.isPageDirty(PageKind.TODAY);
+        final int mutationCount = model.getMutationCount();
+        // NOTE: no need to request again if the model did not change since the last request.
+        if (modelWasDirty && mutationCount != mLastWriteRequestMutationCount) {
             final PersistenceMetadata metadata = new PersistenceMetadata(mMainActivityState
                     .services().getAppVersionCode(), mMainActivityState.services()
                     .getAppVersionName());
-            // NOTE(tal): this clears the dirty bit.
-            ModelPersistence.writeModelFile(mMainActivityState, mMainActivityState.model(),
-                    metadata);
-            check(!mMainActivityState.model().isDirty());
-            onBackupDataChange();
+            mLastWriteRequestMutationCount = mutationCount;
+            ModelPersistence.writeModelFile(mMainActivityState, model, metadata,
+                    new ModelWriter.WriteListener() {
+                        @Override
+                        public void onWriteDone(boolean ok) {
+                            onModelWriteDone(mutationCount, ok);
+                        }
+                    });
         }
-        if (modelWasDirty || alwaysUpdateAllWidgets) {
+        if (todayPageWasDirty || alwaysUpdateAllWidgets) {
             updateAllWidgets();
         }
+        // Scheduled times may have changed or items with them added, deleted or completed.
+        if (modelWasDirty) {
+            DueTimeAlarm.scheduleNextAlarm(mMainActivityState.context(), model);
+        }
+    }
+
+    /** Called on the main thread when a model write requested by flushModelChanges() is done. */
+    private final void onModelWriteDone(int mutationCount, boolean ok) {
+        final AppModel model = mMainActivityState.model();
+        if (!ok) {
+            LogUtil.error("Model write failed, will retry on next flush");
+            mLastWriteRequestMutationCount = -1;
+            return;
+        }
+        // The written state matches the model only if it was not mutated since the request.
+        if (model.getMutationCount() == mutationCount) {
+            model.setClean();
+        }
+        onBackupDataChange();
     }
 
     /** Called when the main activity is resumed, including after app creation. */
@@ -249,6 +287,9 @@ public class Controller implements ShakerListener {
         // Keep the midnight ticker going, just in case.
         MidnightTicker.scheduleMidnightTicker(mMainActivityState.context());
 
+        // Alarms do not survive a reboot so re-arm the due time alarm, just in case.
+        DueTimeAlarm.scheduleNextAlarm(mMainActivityState.context(), mMainActivityState.model());
+
         ++mOnAppResumeCount;
 
         // We suppress the population of new user sample tasks if the first resume is with certain
@@ -479,7 +520,6 @@ public class Controller implements ShakerListener {
                 // matter, we set to NONE regardless.
                 item.setColor(ItemColor.NONE);
                 
-                mMainActivityState.view().updatePage(pageKind);
                 maybeAutosortPageWithItemOfInterest(pageKind, itemIndex);
                 return;
             }
@@ -489,8 +529,6 @@ public class Controller implements ShakerListener {
                 final ItemModel item = mMainActivityState.model().getItemForMutation(pageKind,
                         itemIndex);
                 item.setIsCompleted(false);
-                // mApp.view().updateSingleItemView(pageKind, itemIndex);
-                mMainActivityState.view().updatePage(pageKind);
                 maybeAutosortPageWithItemOfInterest(pageKind, itemIndex);
                 return;
             }
@@ -518,7 +556,6 @@ public class Controller implements ShakerListener {
                                     item.setText(finalString);
                                     item.setColor(finalColor);
                                     mMainActivityState.model().setDirty();
-                                    mMainActivityState.view().updatePage(pageKind);
                                     // Highlight the modified item for a short time, to provide
                                     // the user with an indication of the modified item.
                                     briefItemHighlight(pageKind, itemIndex, 700);
@@ -536,11 +573,10 @@ public class Controller implements ShakerListener {
 					@Override
 					public void onDismiss(Date finalDate) {
 						item.setScheduledTime(finalDate.getTime());
-						// FIXME: reschedule the alarm to earliest Tomorrow item's scheduled time
-						MidnightTicker.scheduleMidnightTicker(mMainActivityState.context());
+						DueTimeAlarm.scheduleNextAlarm(mMainActivityState.context(),
+								mMainActivityState.model());
 						
 						mMainActivityState.model().setDirty();
-						mMainActivityState.view().updatePage(pageKind);
 						// Highlight the modified item for a short time, to provide
 						// the user with an indication of the modified item.
 						briefItemHighlight(pageKind, itemIndex, 700);
@@ -556,8 +592,6 @@ public class Controller implements ShakerListener {
                 final ItemModel item = mMainActivityState.model().getItemForMutation(pageKind,
                         itemIndex);
                 item.setIsLocked(actionId == ItemMenuCache.LOCK_ACTION_ID);
-                // mApp.view().updateSingleItemView(pageKind, itemIndex);
-                mMainActivityState.view().updatePage(pageKind);
                 // If lock and in Today page, we also move it to the Tomorrow page, with an
                 // animation.
                 if (pageKind == PageKind.TODAY && actionId == ItemMenuCache.LOCK_ACTION_ID) {
@@ -719,55 +753,123 @@ public class Controller implements ShakerListener {
     /** Handle the case where the app is responding to a restore from file action. */
     private final void onRestoreBackupFromFileClick(Intent resumeIntent) {
         // NOTE: main activity already qualified this to have the expected content type.
-        final AppModel newModel;
-        try {
-            final Uri uri = resumeIntent.getData();
-            final InputStream in = mMainActivityState.context().getContentResolver()
-                    .openInputStream(uri);
-            FileReadResult readResult = FileUtil.readFileToString(in, uri.toString());
-            if (!readResult.outcome.isOk()) {
-                mMainActivityState.services().toast(
-                        R.string.backup_restore_Failed_to_read_backup_file);
-                return;
-            }
-            // TODO: test that the file size is reasonable
-            // TODO: test that the file looks like maniana file
-            PersistenceMetadata resultMetadata = new PersistenceMetadata();
-            newModel = new AppModel();
-            ModelDeserialization.deserializeModel(newModel, resultMetadata, readResult.content);
-        } catch (Throwable e) {
-            LogUtil.error(e, "Error while trying to restore data");
-            mMainActivityState.services().toast(
-                    R.string.backup_restore_Error_loading_the_backup_file);
+        final Uri uri = resumeIntent.getData();
+
+        // The backup is copied once and the copy is kept until the user selects, so the restored
+        // content is the one the stats were computed for.
+        if (!copyBackupFile(uri)) {
+            return;
+        }
+
+        // The stats are computed in a streaming pass. The backup is loaded into a model only if
+        // the user selects to merge or replace.
+        final ImportStatsCounter statsCounter = new ImportStatsCounter(mMainActivityState.model());
+        if (!readBackupCopy(null, statsCounter)) {
+            mMainActivityState.context().deleteFile(RESTORE_FILE_NAME);
             return;
         }
 
         final RestoreBackupDialogListener listener = new RestoreBackupDialogListener() {
             @Override
             public void onSelection(Action action) {
-                onRestoreBackupFromFileConfirm(action, newModel);
+                onRestoreBackupFromFileConfirm(action);
             }
         };
 
-        RestoreBackupDialog.startDialog(mMainActivityState, listener, mMainActivityState.model()
-                .projectedImportStats(newModel));
+        RestoreBackupDialog.startDialog(mMainActivityState, listener, statsCounter.getStats());
     }
 
-    private final void onRestoreBackupFromFileConfirm(Action action, AppModel newModel) {
-        switch (action) {
-            case REPLACE:
-                mMainActivityState.model().restoreBackup(newModel);
-                mMainActivityState.services().toast(R.string.backup_restore_Task_list_replaced);
-                break;
-            case MERGE:
-                mMainActivityState.model().mergeFrom(newModel);
-                mMainActivityState.services().toast(R.string.backup_restore_Task_list_merged);
-                break;
-            case CANCEL:
-            default:
-                mMainActivityState.services().toast(R.string.backup_restore_Task_list_not_changed);
-                // Do nothing
-                return;
+    /**
+     * Stream the content of a backup file into a private copy. Toasts a message on failure.
+     * 
+     * @return true if ok.
+     */
+    private final boolean copyBackupFile(Uri uri) {
+        final Context context = mMainActivityState.context();
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = context.getContentResolver().openInputStream(uri);
+            out = FileUtil.openPrivateFileForWrite(context, RESTORE_FILE_NAME,
+                    Context.MODE_PRIVATE, 0, false);
+            FileUtil.copy(in, out);
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            LogUtil.error(e, "Error reading backup file %s", uri);
+            mMainActivityState.services().toast(R.string.backup_restore_Failed_to_read_backup_file);
+            return false;
+        } finally {
+            if (in != null) {
+                FileUtil.closeQuietly(in, uri.toString());
+            }
+            if (out != null) {
+                FileUtil.closeQuietly(out, RESTORE_FILE_NAME);
+                context.deleteFile(RESTORE_FILE_NAME);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the private copy of the backup, in either the JSON or the binary format. Toasts a
+     * message on failure.
+     * 
+     * @param resultModel if not null, loaded with the backup.
+     * @param statsCounter if not null, counts the backup items without loading them.
+     * @return true if ok.
+     */
+    private final boolean readBackupCopy(@Nullable AppModel resultModel,
+            @Nullable final ImportStatsCounter statsCounter) {
+        try {
+            final InputStream in = FileUtil.openPrivateFileForRead(mMainActivityState.context(),
+                    RESTORE_FILE_NAME);
+            // TODO: test that the file looks like maniana file
+            try {
+                if (resultModel != null) {
+                    ModelDeserialization.deserializeModel(resultModel, new PersistenceMetadata(),
+                            in);
+                }
+                if (statsCounter != null) {
+                    ModelDeserialization.scanItems(in, new ItemListener() {
+                        @Override
+                        public void onItem(PageKind pageKind, ItemModel item) {
+                            statsCounter.addBackupItem(item.getText());
+                        }
+                    });
+                }
+            } finally {
+                FileUtil.closeQuietly(in, RESTORE_FILE_NAME);
+            }
+        } catch (Throwable e) {
+            LogUtil.error(e, "Error while trying to restore data");
+            mMainActivityState.services().toast(
+                    R.string.backup_restore_Error_loading_the_backup_file);
+            return false;
+        }
+        return true;
+    }
+
+    private final void onRestoreBackupFromFileConfirm(Action action) {
+        if (action != Action.REPLACE && action != Action.MERGE) {
+            mMainActivityState.context().deleteFile(RESTORE_FILE_NAME);
+            mMainActivityState.services().toast(R.string.backup_restore_Task_list_not_changed);
+            return;
+        }
+
+        final AppModel newModel = new AppModel();
+        final boolean ok = readBackupCopy(newModel, null);
+        mMainActivityState.context().deleteFile(RESTORE_FILE_NAME);
+        if (!ok) {
+            return;
+        }
+
+        if (action == Action.REPLACE) {
+            mMainActivityState.model().restoreBackup(newModel);
+            mMainActivityState.services().toast(R.string.backup_restore_Task_list_replaced);
+        } else {
+            mMainActivityState.model().mergeFrom(newModel);
+            mMainActivityState.services().toast(R.string.backup_restore_Task_list_merged);
         }
 
         maybeAutoSortPages(false, false);
@@ -920,6 +1022,12 @@ public class Controller implements ShakerListener {
         return true;
     }
 
+    /** Called when the device search button is pressed. */
+    public final boolean onSearchButton() {
+        mMainActivityState.view().showSearch();
+        return true;
+    }
+
     /** Called to launch calendar */
     public final void onCalendarLaunchClick() {
         if (!mMainActivityState.prefReader().getCalendarLaunchPreference()) {
@@ -957,6 +1065,15 @@ public class Controller implements ShakerListener {
             case SETTINGS:
                 startSubActivity(SettingsActivity.class);
                 break;
+            case SEARCH:
+                mMainActivityState.view().showSearch();
+                break;
+            case UNDO:
+                onPageHistoryRestore(false);
+                break;
+            case REDO:
+                onPageHistoryRestore(true);
+                break;
             case ABOUT:
                 startPopupMessageSubActivity(MessageKind.ABOUT);
                 break;
@@ -968,8 +1085,26 @@ public class Controller implements ShakerListener {
         }
     }
 
+    /**
+     * Restore the current page to its previous version in the page history, or to the version
+     * undone last if isRedo.
+     */
+    private final void onPageHistoryRestore(boolean isRedo) {
+        final PageKind pageKind = mMainActivityState.view().getCurrentPageKind();
+        final boolean restored = isRedo ? mMainActivityState.model().redoPageChange(pageKind)
+                : mMainActivityState.model().undoPageChange(pageKind);
+        if (restored) {
+            mMainActivityState.view().updatePage(pageKind);
+        }
+    }
+
     /** Handle back button event or return false if not used. */
     public final boolean onBackButton() {
+        // Back first closes the search of the current page.
+        if (mMainActivityState.view().hideSearch()) {
+            return true;
+        }
+
         // If the current page is not today, we still the back key event and switch back to the
         // today page. Otherwise we use the default back behavior.
         final PageKind currentPage = mMainActivityState.view().getCurrentPageKind();
@@ -1144,6 +1279,8 @@ public class Controller implements ShakerListener {
 
     /** Called by the main activity when it is destroyed. */
     public final void onMainActivityDestroy() {
+        // Make sure pending model writes are completed before the process may be killed.
+        ModelWriter.drain();
     }
 
     /** Clear undo buffer of given model page. */
@@ -28,6 +28,7 @@ import com.zapta.apps.maniana.main.MainActivityState;
 import com.zapta.apps.maniana.services.MainActivityServices;
 import com.zapta.apps.maniana.settings.DateOrder;
 import com.zapta.apps.maniana.util.CalendarUtil;
+import com.zapta.apps.maniana.util.FileIoStats;
 import com.zapta.apps.maniana.util.LanguageUtil;
 import com.zapta.apps.maniana.util.PopupsTracker.TrackablePopup;
 
@@ -87,6 +88,9 @@ public class DebugInfoDialog extends Dialog implements TrackablePopup {
         sb.append("Date order: " + DateOrder.localDateOrder(context) + " ("
                 + String.valueOf(DateFormat.getDateFormatOrder(context)) + ")\n");
 
+        sb.append("</pre>\n");
+        sb.append("FILE I/O\n<pre>\n");
+        sb.append(FileIoStats.summary());
         sb.append("</pre>\n</body>\n</html>\n");
 
         final String html = sb.toString();
@@ -74,7 +74,7 @@ public class MainActivity extends Activity {
 
         // Load model from file
         final ModelReadingResult modelLoadResult = ModelPersistence.readModelFile(mState.context(),
-                mState.model());
+                mState.model(), mState.modelJournal());
 
         final MainActivityStartupKind startupKind;
         switch (modelLoadResult.outcome) {
@@ -108,6 +108,10 @@ public class MainActivity extends Activity {
         // Inform the view about the model data change
         mState.view().updatePages();
 
+        // From now on, readers on other threads use the snapshots of the loaded model.
+        mState.model().publishSnapshot();
+        mState.app().setMainActivityModel(mState.model());
+
         // Set top view of this activity
         setContentView(mState.view().getRootView());
 
@@ -134,6 +138,10 @@ public class MainActivity extends Activity {
         super.onDestroy();
         // Tell the controller the app is being destroyed.
         mState.controller().onMainActivityDestroy();
+        // Readers fall back to the files, which are up to date once the writes were drained.
+        if (mState.app().mainActivityModel() == mState.model()) {
+            mState.app().setMainActivityModel(null);
+        }
         // Make sure we release the preferences listener.
         mState.prefTracker().release();
     }
@@ -195,6 +203,9 @@ public class MainActivity extends Activity {
                 case KeyEvent.KEYCODE_MENU:
                     eventHandled = mState.controller().onMenuButton();
                     break;
+                case KeyEvent.KEYCODE_SEARCH:
+                    eventHandled = mState.controller().onSearchButton();
+                    break;
             }
         }
 
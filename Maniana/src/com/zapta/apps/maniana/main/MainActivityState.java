@@ -16,11 +16,13 @@ package com.zapta.apps.maniana.main;
 
 import static com.zapta.apps.maniana.util.Assertions.checkNotNull;
 import android.content.Context;
+import android.os.Handler;
 
 import com.zapta.apps.maniana.annotations.MainActivityScope;
 import com.zapta.apps.maniana.controller.Controller;
 import com.zapta.apps.maniana.debug.DebugController;
 import com.zapta.apps.maniana.model.AppModel;
+import com.zapta.apps.maniana.persistence.ModelJournal;
 import com.zapta.apps.maniana.services.MainActivityServices;
 import com.zapta.apps.maniana.services.DateTracker;
 import com.zapta.apps.maniana.settings.DateOrder;
@@ -54,6 +56,9 @@ public class MainActivityState {
     /** Task data. */
     private AppModel mModel;
 
+    /** Records the model changes for incremental persistence. */
+    private final ModelJournal mModelJournal = new ModelJournal();
+
     /** The app controller. Contains the main app logic. */
     private Controller mController;
 
@@ -70,6 +75,7 @@ public class MainActivityState {
         mDateTracker = new DateTracker(DateOrder.localDateOrder(mainActivity));
         mMainActivity = checkNotNull(mainActivity);
         mModel = new AppModel();
+        mModel.setMutationLog(mModelJournal);
         mApp = (MyApp) mainActivity.getApplication();
         mPreferencesReader = mApp.preferencesReader();
         mPreferencesTracker = new PreferencesTracker(mApp.preferencesReader(),
@@ -85,6 +91,21 @@ public class MainActivityState {
         mDebugController = new DebugController(this);
         mController = new Controller(this);
         mView = new AppView(this);
+
+        // Deliver the model changes once per UI frame, after the current event is handled.
+        final Handler handler = new Handler();
+        final Runnable changesDispatcher = new Runnable() {
+            @Override
+            public void run() {
+                mModel.dispatchChanges();
+            }
+        };
+        mModel.setChangeScheduler(new Runnable() {
+            @Override
+            public void run() {
+                handler.post(changesDispatcher);
+            }
+        });
     }
     
     public final MyApp app() {
@@ -134,6 +155,10 @@ public class MainActivityState {
         return mModel;
     }
 
+    public final ModelJournal modelJournal() {
+        return mModelJournal;
+    }
+
     public final Controller controller() {
         return mController;
     }
@@ -14,10 +14,13 @@
 
 package com.zapta.apps.maniana.main;
 
+import javax.annotation.Nullable;
+
 import android.app.Application;
 import android.preference.PreferenceManager;
 
 import com.zapta.apps.maniana.annotations.ApplicationScope;
+import com.zapta.apps.maniana.model.AppModel;
 import com.zapta.apps.maniana.settings.PreferencesReader;
 import com.zapta.apps.maniana.util.LogUtil;
 
@@ -29,6 +32,13 @@ public class MyApp extends Application {
 
     private PreferencesReader mPreferencesReader;
 
+    /**
+     * The model of the main activity while it is loaded, otherwise null. Readers on other threads
+     * use the snapshots it publishes.
+     */
+    @Nullable
+    private volatile AppModel mMainActivityModel = null;
+
     public MyApp() {
         this.objectId = System.identityHashCode(this);    
     }
@@ -45,4 +55,15 @@ public class MyApp extends Application {
     public final PreferencesReader preferencesReader() {
         return mPreferencesReader;
     }
+
+    /** Thread safe. */
+    @Nullable
+    public final AppModel mainActivityModel() {
+        return mMainActivityModel;
+    }
+
+    /** Called on the main thread with the loaded model of the main activity or null to clear. */
+    public final void setMainActivityModel(@Nullable AppModel model) {
+        mMainActivityModel = model;
+    }
 }
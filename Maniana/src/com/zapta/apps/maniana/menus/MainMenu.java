@@ -32,6 +32,7 @@ import android.widget.TextView;
 import com.zapta.apps.maniana.R;
 import com.zapta.apps.maniana.annotations.MainActivityScope;
 import com.zapta.apps.maniana.main.MainActivityState;
+import com.zapta.apps.maniana.model.PageKind;
 import com.zapta.apps.maniana.util.DisplayUtil;
 import com.zapta.apps.maniana.util.PopupsTracker.TrackablePopup;
 
@@ -105,7 +106,7 @@ public class MainMenu implements OnDismissListener, TrackablePopup {
         mMainActivityState.services().maybePlayStockSound(AudioManager.FX_KEY_CLICK, false);
         
         for (MainMenuEntry entry : MainMenuEntry.values()) {
-            if (entry != MainMenuEntry.DEBUG || mMainActivityState.debugController().isDebugMode()) {
+            if (isEntryEnabled(entry)) {
                 addEntry(entry);
             }
         }
@@ -163,6 +164,21 @@ public class MainMenu implements OnDismissListener, TrackablePopup {
     /**
      * Add an action item to the end of the list.
      */
+    /** Test if given entry should be shown in the current state. */
+    private final boolean isEntryEnabled(MainMenuEntry entry) {
+        final PageKind pageKind = mMainActivityState.view().getCurrentPageKind();
+        switch (entry) {
+            case UNDO:
+                return mMainActivityState.model().canUndoPageChange(pageKind);
+            case REDO:
+                return mMainActivityState.model().canRedoPageChange(pageKind);
+            case DEBUG:
+                return mMainActivityState.debugController().isDebugMode();
+            default:
+                return true;
+        }
+    }
+
     private final void addEntry(final MainMenuEntry entry) {
         final View entryTopView = mMainActivityState.services().layoutInflater()
                 .inflate(R.layout.main_menu_entry, null);
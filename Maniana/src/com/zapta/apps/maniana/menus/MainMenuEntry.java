@@ -24,6 +24,9 @@ import com.zapta.apps.maniana.annotations.MainActivityScope;
  */
 @MainActivityScope
 public enum MainMenuEntry {
+    SEARCH(android.R.drawable.ic_menu_search, R.string.main_menu_Search),
+    UNDO(android.R.drawable.ic_menu_revert, R.string.main_menu_Undo),
+    REDO(android.R.drawable.ic_menu_rotate, R.string.main_menu_Redo),
     ABOUT(R.drawable.main_menu_about, R.string.main_menu_About),
     HELP(R.drawable.main_menu_help, R.string.main_menu_Help),
     SETTINGS(R.drawable.main_menu_settings, R.string.main_menu_Settings),
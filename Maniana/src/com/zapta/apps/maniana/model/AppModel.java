@@ -14,11 +14,16 @@
 
 package com.zapta.apps.maniana.model;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.ListIterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
 
 import com.zapta.apps.maniana.annotations.ApplicationScope;
 import com.zapta.apps.maniana.annotations.VisibleForTesting;
@@ -31,10 +36,10 @@ import com.zapta.apps.maniana.util.LogUtil;
  * @author Tal Dayan
  */
 @ApplicationScope
-public class AppModel {
+public class AppModel implements AppModelReadOnly {
 
     /** Selected to not match any valid timestamp. */
-    private static final String DEFAULT_DATE_STAMP = "";
+    static final String DEFAULT_DATE_STAMP = "";
 
     /** Model of Today page. */
     private final PageModel mTodayPageModel;
@@ -42,8 +47,11 @@ public class AppModel {
     /** Model of Tomorrow page. */
     private final PageModel mTomorrowPageMode;
 
-    /** True if current state is not persisted */
-    private boolean mIsDirty = true;
+    /**
+     * Incremented on each mutation. Used to tell if the model changed since it was handed for
+     * persistence.
+     */
+    private int mMutationCount = 0;
 
     /**
      * Last date in which items were pushed from Tomorrow to Today pages. Used to determine when
@@ -53,27 +61,161 @@ public class AppModel {
      */
     private String mLastPushDateStamp;
 
+    /** Optional listener that is informed of model mutations. */
+    @Nullable
+    private ModelMutationLog mMutationLog;
+
+    /** Collects the changes of the pages for the change listeners. */
+    private final ModelChangeTracker mChangeTracker = new ModelChangeTracker();
+
+    /** The last published snapshot. The only field that may be accessed from other threads. */
+    private final AtomicReference<AppModelSnapshot> mSnapshot =
+            new AtomicReference<AppModelSnapshot>(AppModelSnapshot.EMPTY);
+
+    /** The change count of each page at the last published snapshot, by page kind ordinal. */
+    private final int[] mSnapshotPageChangeCounts = new int[PageKind.values().length];
+
     public AppModel() {
         this.mTodayPageModel = new PageModel();
         this.mTomorrowPageMode = new PageModel();
         this.mLastPushDateStamp = DEFAULT_DATE_STAMP;
+        mTodayPageModel.setChangeTracker(PageKind.TODAY, mChangeTracker);
+        mTomorrowPageMode.setChangeTracker(PageKind.TOMOROW, mChangeTracker);
+    }
+
+    /** Set the mutation log of this model. Null to stop logging. */
+    public final void setMutationLog(@Nullable ModelMutationLog mutationLog) {
+        mMutationLog = mutationLog;
+        setPagesMutationLog(mutationLog);
+    }
+
+    /** The pages report the changes of their items directly to the mutation log. */
+    private final void setPagesMutationLog(@Nullable ModelMutationLog mutationLog) {
+        mTodayPageModel.setMutationLog(mutationLog);
+        mTomorrowPageMode.setMutationLog(mutationLog);
+    }
+
+    @Nullable
+    public final ModelMutationLog getMutationLog() {
+        return mMutationLog;
+    }
+
+    /**
+     * Add a listener for the changes of the page items. Changes are collected only while there are
+     * listeners and are delivered by dispatchChanges().
+     */
+    public final void addChangeListener(ModelChangeListener listener) {
+        mChangeTracker.addListener(listener);
+    }
+
+    public final void removeChangeListener(ModelChangeListener listener) {
+        mChangeTracker.removeListener(listener);
+    }
+
+    /**
+     * Set a scheduler that is run when a change is collected and no dispatch is pending. It should
+     * arrange for dispatchChanges() to be called soon, typically by posting it to the UI thread,
+     * so the changes are delivered once per UI frame. Null for no scheduling.
+     */
+    public final void setChangeScheduler(@Nullable Runnable scheduler) {
+        mChangeTracker.setScheduler(scheduler);
+    }
+
+    /**
+     * Deliver the changes collected since the last dispatch to the change listeners. This ends a
+     * batch of mutations, typically a user level operation, so the changed pages are also
+     * checkpointed in their undo/redo history and a snapshot is published.
+     */
+    public final void dispatchChanges() {
+        mChangeTracker.dispatch();
+        mTodayPageModel.checkpointHistory();
+        mTomorrowPageMode.checkpointHistory();
+        // Shares the versions just checkpointed.
+        publishSnapshot();
+    }
+
+    /**
+     * Publish a snapshot of the current data, for getSnapshot(). Called by dispatchChanges() at
+     * the end of each batch of mutations and before the model is persisted. Should be called on
+     * the thread that mutates the model, between mutations. Pages that did not change since the
+     * last published snapshot are shared with it. Changed pages share the current version of
+     * their undo/redo history, so typically nothing is copied, or otherwise share their unchanged
+     * items with the last snapshot.
+     * 
+     * @return the published snapshot. The last published one if nothing changed.
+     */
+    public final AppModelSnapshot publishSnapshot() {
+        final AppModelSnapshot lastSnapshot = mSnapshot.get();
+        final PageVersion[] pageVersions = new PageVersion[PageKind.values().length];
+        boolean changed = !mLastPushDateStamp.equals(lastSnapshot.getLastPushDateStamp());
+        for (PageKind pageKind : PageKind.values()) {
+            final PageModel page = getPageModel(pageKind);
+            final PageVersion lastPageVersion = lastSnapshot.getPageVersion(pageKind);
+            final int i = pageKind.ordinal();
+            if (page.changeCount() == mSnapshotPageChangeCounts[i]) {
+                pageVersions[i] = lastPageVersion;
+            } else {
+                @Nullable
+                final PageVersion historyVersion = page.currentHistoryVersion();
+                pageVersions[i] = (historyVersion != null) ? historyVersion : PageVersion.capture(
+                        page, lastPageVersion);
+                mSnapshotPageChangeCounts[i] = page.changeCount();
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return lastSnapshot;
+        }
+        final AppModelSnapshot snapshot = new AppModelSnapshot(lastSnapshot.getVersion() + 1,
+                pageVersions[PageKind.TODAY.ordinal()], pageVersions[PageKind.TOMOROW.ordinal()],
+                mLastPushDateStamp);
+        mSnapshot.set(snapshot);
+        return snapshot;
     }
 
+    /**
+     * Return the last published snapshot. Thread safe and lock free. The snapshot does not
+     * reflect mutations done after it was published.
+     */
+    public final AppModelSnapshot getSnapshot() {
+        return mSnapshot.get();
+    }
+
+    /** True if the current state of any of the pages is not persisted. */
     public final boolean isDirty() {
-        return mIsDirty;
+        return mTodayPageModel.isDirty() || mTomorrowPageMode.isDirty();
     }
 
+    /** True if the current state of the given page is not persisted. */
+    public final boolean isPageDirty(PageKind pageKind) {
+        return getPageModel(pageKind).isDirty();
+    }
+
+    public final int getMutationCount() {
+        return mMutationCount;
+    }
+
+    /** Mark all pages as dirty. */
     public final void setDirty() {
-        if (!mIsDirty) {
-            LogUtil.info("Model became dirty");
-            mIsDirty = true;
+        setPageDirty(PageKind.TODAY);
+        setPageDirty(PageKind.TOMOROW);
+    }
+
+    /** Mark the given page as dirty. */
+    public final void setPageDirty(PageKind pageKind) {
+        mMutationCount++;
+        final PageModel pageModel = getPageModel(pageKind);
+        if (!pageModel.isDirty()) {
+            LogUtil.info("Page %s became dirty", pageKind);
+            pageModel.setDirty(true);
         }
     }
 
     public final void setClean() {
-        if (mIsDirty) {
+        if (isDirty()) {
             LogUtil.info("Model became clean");
-            mIsDirty = false;
+            mTodayPageModel.setDirty(false);
+            mTomorrowPageMode.setDirty(false);
         }
     }
 
@@ -91,10 +233,70 @@ public class AppModel {
     /** Get a mutable item of given page and index. */
     // TODO: replace with a setItem(,,,) method. Safer this way.
     public final ItemModel getItemForMutation(PageKind pageKind, int itemIndex) {
-        setDirty();
+        setPageDirty(pageKind);
+        // NOTE: the page reports the changes of the item to the mutation log.
         return getPageModel(pageKind).getItem(itemIndex);
     }
 
+    /**
+     * Find the item with given id. Typically O(1).
+     * 
+     * @return a reference to the item or null if not found.
+     */
+    @Nullable
+    public final ItemReference findItemById(String id) {
+        for (PageKind pageKind : PageKind.values()) {
+            final PageModel pageModel = getPageModel(pageKind);
+            final int itemIndex = pageModel.findItemIndex(id);
+            if (itemIndex >= 0) {
+                return new ItemReference(pageKind, itemIndex, pageModel.getItem(itemIndex));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the ids of the items of given page whose text matches given query, in page order.
+     * Each word of the query should be a prefix of a word of the item text, ignoring case. The
+     * search index of the page is built by the first search after the page items were loaded.
+     */
+    public final List<String> searchPageItems(PageKind pageKind, String query) {
+        return getPageModel(pageKind).searchItems(query);
+    }
+
+    /**
+     * Like searchPageItems() but returns the indexes of the matching items, in ascending order.
+     * Intended for views of the page.
+     */
+    public final int[] searchPageItemIndexes(PageKind pageKind, String query) {
+        return getPageModel(pageKind).searchItemIndexes(query);
+    }
+
+    /** Return the index of the item with given id in given page, or -1 if not found. */
+    public final int findPageItemIndex(PageKind pageKind, String id) {
+        return getPageModel(pageKind).findItemIndex(id);
+    }
+
+    /**
+     * Return the earliest scheduled time of a pending item in any page that is after given time,
+     * or 0 if none. Does not scan the items.
+     */
+    public final long getNextScheduledTimeAfter(long time) {
+        long result = 0;
+        for (PageKind pageKind : PageKind.values()) {
+            final long pageTime = getPageModel(pageKind).nextScheduledTimeAfter(time);
+            if (pageTime != 0 && (result == 0 || pageTime < result)) {
+                result = pageTime;
+            }
+        }
+        return result;
+    }
+
+    /** Return the number of pending items of given page that are due at given time. */
+    public final int getPageDueItemCount(PageKind pageKind, long time) {
+        return getPageModel(pageKind).dueItemCount(time);
+    }
+
     /** Get number of items in given page. */
     public final int getPageItemCount(PageKind pageKind) {
         return getPageModel(pageKind).itemCount();
@@ -116,6 +318,9 @@ public class AppModel {
         mTomorrowPageMode.clear();
         mLastPushDateStamp = DEFAULT_DATE_STAMP;
         setDirty();
+        if (mMutationLog != null) {
+            mMutationLog.onModelReset();
+        }
     }
 
     /** Clear undo buffers of both pages. */
@@ -138,6 +343,53 @@ public class AppModel {
         return getPageModel(pageKind).hasUndo();
     }
 
+    /**
+     * Record the current items of given page in its undo/redo history, if they changed since the
+     * last checkpoint. Called by dispatchChanges() after each batch of mutations. Does not affect
+     * the single level undo of deleted items.
+     */
+    public final void checkpointPage(PageKind pageKind) {
+        getPageModel(pageKind).checkpointHistory();
+    }
+
+    /** Test if the history of given page has a version to undo to. */
+    public final boolean canUndoPageChange(PageKind pageKind) {
+        return getPageModel(pageKind).canUndoHistory();
+    }
+
+    /** Test if the history of given page has a version to redo to. */
+    public final boolean canRedoPageChange(PageKind pageKind) {
+        return getPageModel(pageKind).canRedoHistory();
+    }
+
+    /**
+     * Restore the items of given page to the previous version in its history.
+     * 
+     * @return true if restored, false if nothing to undo.
+     */
+    public final boolean undoPageChange(PageKind pageKind) {
+        return onPageHistoryRestore(pageKind, getPageModel(pageKind).undoHistory());
+    }
+
+    /**
+     * Restore the items of given page to the version undone last.
+     * 
+     * @return true if restored, false if nothing to redo.
+     */
+    public final boolean redoPageChange(PageKind pageKind) {
+        return onPageHistoryRestore(pageKind, getPageModel(pageKind).redoHistory());
+    }
+
+    private final boolean onPageHistoryRestore(PageKind pageKind, boolean restored) {
+        if (restored) {
+            setPageDirty(pageKind);
+            if (mMutationLog != null) {
+                mMutationLog.onModelReset();
+            }
+        }
+        return restored;
+    }
+
     /** Test if the page items are already sorted. */
     public final boolean isPageSorted(PageKind pageKind) {
         return getPageModel(pageKind).isPageSorted();
@@ -145,33 +397,71 @@ public class AppModel {
 
     /** Insert item to given page at given item index. */
     public final void insertItem(PageKind pageKind, int itemIndex, ItemModel item) {
-        setDirty();
+        setPageDirty(pageKind);
         getPageModel(pageKind).insertItem(itemIndex, item);
+        if (mMutationLog != null) {
+            mMutationLog.onItemInserted(pageKind, itemIndex, item);
+        }
     }
 
     /** Add an item to the end of given page. */
     public void appendItem(PageKind pageKind, ItemModel item) {
-        getPageModel(pageKind).appendItem(item);
-        setDirty();
+        final PageModel pageModel = getPageModel(pageKind);
+        pageModel.appendItem(item);
+        setPageDirty(pageKind);
+        if (mMutationLog != null) {
+            mMutationLog.onItemInserted(pageKind, pageModel.itemCount() - 1, item);
+        }
     }
 
     /** Remove item of given index from given page. */
     public final ItemModel removeItem(PageKind pageKind, int itemIndex) {
-        setDirty();
+        setPageDirty(pageKind);
         ItemModel result = getPageModel(pageKind).removeItem(itemIndex);
+        if (mMutationLog != null) {
+            mMutationLog.onItemRemoved(pageKind, result);
+        }
         return result;
     }
 
+    /**
+     * Move an item within given page. The destination index is of the page after the item was
+     * removed.
+     */
+    public final void moveItem(PageKind pageKind, int fromIndex, int toIndex) {
+        setPageDirty(pageKind);
+        final PageModel pageModel = getPageModel(pageKind);
+        pageModel.moveItem(fromIndex, toIndex);
+        if (mMutationLog != null) {
+            final ItemModel item = pageModel.getItem(toIndex);
+            mMutationLog.onItemRemoved(pageKind, item);
+            mMutationLog.onItemInserted(pageKind, toIndex, item);
+        }
+    }
+
     /** Remove item of given idnex from given page and set a corresponding undo at that page. */
     public final void removeItemWithUndo(PageKind pageKind, int itemIndex) {
-        setDirty();
-        getPageModel(pageKind).removeItemWithUndo(itemIndex);
+        setPageDirty(pageKind);
+        final PageModel pageModel = getPageModel(pageKind);
+        final ItemModel item = pageModel.getItem(itemIndex);
+        pageModel.removeItemWithUndo(itemIndex);
+        if (mMutationLog != null) {
+            mMutationLog.onItemRemoved(pageKind, item);
+        }
     }
 
+    /**
+     * Replace the items with copies of the items of the new model. Can be undone per page once
+     * checkpointed by dispatchChanges().
+     */
     public final void restoreBackup(AppModel newModel) {
         setDirty();
         mTodayPageModel.restoreBackup(newModel.mTodayPageModel);
         mTomorrowPageMode.restoreBackup(newModel.mTomorrowPageMode);
+        assignFreshIdsToDuplicates();
+        if (mMutationLog != null) {
+            mMutationLog.onModelReset();
+        }
     }
 
     /**
@@ -180,10 +470,17 @@ public class AppModel {
      */
     public final void organizePageWithUndo(PageKind pageKind, boolean deleteCompletedItems,
             int itemOfInteresetIndex, OrganizePageSummary summary) {
-        getPageModel(pageKind).organizePageWithUndo(deleteCompletedItems, itemOfInteresetIndex,
-                summary);
+        final PageModel pageModel = getPageModel(pageKind);
+        // NOTE: logged before the change since the operation is replayed from the current state,
+        // including the pending states of items it may delete.
+        if (mMutationLog != null
+                && (!pageModel.isPageSorted() || (deleteCompletedItems && pageModel
+                        .completedItemCount() > 0))) {
+            mMutationLog.onPageOrganized(pageKind, deleteCompletedItems);
+        }
+        pageModel.organizePageWithUndo(deleteCompletedItems, itemOfInteresetIndex, summary);
         if (summary.pageChanged()) {
-            setDirty();
+            setPageDirty(pageKind);
         }
     }
 
@@ -194,11 +491,46 @@ public class AppModel {
      * @return the number of items resotred by the undo operation.
      */
     public final int applyUndo(PageKind pageKind) {
-        final int result = getPageModel(pageKind).performUndo();
-        setDirty();
+        final PageModel pageModel = getPageModel(pageKind);
+        final int result = pageModel.performUndo();
+        setPageDirty(pageKind);
+        if (mMutationLog != null) {
+            // The restored items are at the beginning of the page.
+            for (int i = 0; i < result; i++) {
+                mMutationLog.onItemInserted(pageKind, i, pageModel.getItem(i));
+            }
+        }
         return result;
     }
 
+    /**
+     * Give a fresh id to each item whose id is already used by a preceding item of the model,
+     * Today page first. Item ids should be unique since the journal refers to items by id, but
+     * data written by older versions may have duplicates, e.g. from merges. Does not report the
+     * changes to the mutation log, callers should have the model persisted by a snapshot. A single
+     * pass over the items, linear time also when many items share an id.
+     * 
+     * @return the number of items that got a fresh id.
+     */
+    public final int assignFreshIdsToDuplicates() {
+        final Set<String> seenIds = new HashSet<String>(getItemCount() * 2);
+        int count = 0;
+        for (PageKind pageKind : PageKind.values()) {
+            final PageModel pageModel = getPageModel(pageKind);
+            final int n = pageModel.itemCount();
+            for (int i = 0; i < n; i++) {
+                if (!seenIds.add(pageModel.getItem(i).getId())) {
+                    pageModel.assignFreshItemId(i);
+                    count++;
+                }
+            }
+        }
+        if (count > 0) {
+            setDirty();
+        }
+        return count;
+    }
+
     /**
      * Copy cloned items from other model. All existing items are deleted. Dirty is set. Undo buffer
      * and other model properties are not changed.
@@ -207,6 +539,9 @@ public class AppModel {
         setDirty();
         mTodayPageModel.copyItemsFrom(otherModel.mTodayPageModel);
         mTomorrowPageMode.copyItemsFrom(otherModel.mTomorrowPageMode);
+        if (mMutationLog != null) {
+            mMutationLog.onModelReset();
+        }
     }
 
     /**
@@ -223,50 +558,28 @@ public class AppModel {
         clearAllUndo();
         setDirty();
 
-        // Process Tomorrow items
-        {
-            int itemsMoved = 0;
-            final ListIterator<ItemModel> iterator = mTomorrowPageMode.listIterator();
-            while (iterator.hasNext()) {
-                final ItemModel item = iterator.next();
-                // Expire lock if needed
-                if (expireAllLocks && item.isLocked()) {
-                    item.setIsLocked(false);
-                }
-
-                // If delete completed and item is completed (even if blocked), move it to undo
-                // buffer.
-                if (deleteCompletedItems && item.isCompleted()) {
-                    iterator.remove();
-                    mTomorrowPageMode.appendItemToUndo(item);
-                    continue;
-                }
-
-                // If item is not unlocked, move Today page.
-                if (!item.isLocked()) {
-                    // We move the items to the beginning of Today page, preserving there
-                    // relative order from Tomorrow page.
-                    iterator.remove();
-                    mTodayPageModel.insertItem(itemsMoved, item);
-                    itemsMoved++;
-                    continue;
-                }
+        // NOTE: logged before the change since the operation is replayed from the current state.
+        if (mMutationLog != null) {
+            mMutationLog.onPushToToday(expireAllLocks, deleteCompletedItems);
+        }
 
-                // Otherwise leave item in place.
-            }
+        // Partition Tomorrow items in a single pass. The moved items are inserted at the
+        // beginning of Today page, preserving their relative order from Tomorrow page.
+        // The items unlocked by the push are not logged since the push is replayed.
+        final List<ItemModel> movedItems = new ArrayList<ItemModel>();
+        setPagesMutationLog(null);
+        try {
+            mTomorrowPageMode.extractItemsForPush(expireAllLocks, deleteCompletedItems,
+                    movedItems);
+        } finally {
+            setPagesMutationLog(mMutationLog);
         }
+        mTodayPageModel.insertItems(0, movedItems);
 
-        // If need to delete completed items, scan also Today list and move
-        // completed items to the Today's undo buffer.
+        // If need to delete completed items, move also the completed items of Today page to
+        // its undo buffer. None of them was just moved.
         if (deleteCompletedItems) {
-            final ListIterator<ItemModel> iterator = mTodayPageModel.listIterator();
-            while (iterator.hasNext()) {
-                final ItemModel item = iterator.next();
-                if (item.isCompleted()) {
-                    iterator.remove();
-                    mTodayPageModel.appendItemToUndo(item);
-                }
-            }
+            mTodayPageModel.moveCompletedItemsToUndo();
         }
     }
 
@@ -279,6 +592,10 @@ public class AppModel {
     public final void setLastPushDateStamp(String lastPushDateStamp) {
         // TODO: no need to set the dirty bit, right?
         this.mLastPushDateStamp = lastPushDateStamp;
+        mMutationCount++;
+        if (mMutationLog != null) {
+            mMutationLog.onLastPushDateStampChanged(lastPushDateStamp);
+        }
     }
 
     public static class ItemReference {
@@ -291,69 +608,108 @@ public class AppModel {
             this.itemIndex = itemIndex;
             this.itemModel = itemModel;
         }
+
+        public final PageKind getPageKind() {
+            return pageKind;
+        }
+
+        public final int getItemIndex() {
+            return itemIndex;
+        }
+
+        public final ItemModelReadOnly getItemModel() {
+            return itemModel;
+        }
     }
 
     /**
      * Merge the items of the other model into this one. The other model is not modified. This
      * operation is not symmetric (A.mergeFrom(B) != B.mergeFrom(A). Does not do item sorting.
      * Caller need to invoke sorting if needed.
+     * 
+     * Items are matched by text. Other items with the same text are collapsed into one, merging
+     * their properties. Other items that match an item of this model are merged into it and the
+     * rest are inserted as a single block at the top of Today page, in their order in the other
+     * model (Today page first). Linear time.
      */
     public final void mergeFrom(AppModel otherModel) {
         setDirty();
         clearAllUndo();
 
-        Map<String, ItemReference> otherItems = new HashMap<String, ItemReference>();
+        // Distinct 'other' items in source order, and the index of each by text.
+        final int otherItemCount = otherModel.getItemCount();
+        final List<ItemModelReadOnly> otherItems = new ArrayList<ItemModelReadOnly>(
+                otherItemCount);
+        final Map<String, Integer> otherItemIndexes = new HashMap<String, Integer>(
+                otherItemCount * 2);
+        // Set for other items that were replaced with a private copy to merge duplicates into.
+        final BitSet isCopy = new BitSet();
 
         // Collect 'other' items
         for (PageKind pageKind : PageKind.values()) {
             final PageModel pageModel = otherModel.getPageModel(pageKind);
             for (int i = 0; i < pageModel.itemCount(); i++) {
                 final ItemModelReadOnly otherItem = pageModel.getItem(i);
-                ItemReference existingOtherItemRef = otherItems.get(otherItem.getText());
-                if (existingOtherItemRef != null) {
+                final Integer existingIndex = otherItemIndexes.get(otherItem.getText());
+                if (existingIndex != null) {
                     // Other model has multiple items with this text. Keep merging the
                     // properties, keeping only a single copy.
-                    final ItemModel replacementItem = new ItemModel(existingOtherItemRef.itemModel);
-                    replacementItem.mergePropertiesFrom(otherItem);
-                    existingOtherItemRef.itemModel = replacementItem;
+                    final int index = existingIndex;
+                    if (!isCopy.get(index)) {
+                        otherItems.set(index, new ItemModel(otherItems.get(index)));
+                        isCopy.set(index);
+                    }
+                    ((ItemModel) otherItems.get(index)).mergePropertiesFrom(otherItem);
                 } else {
-                    otherItems.put(otherItem.getText(), new ItemReference(pageKind, i, otherItem));
+                    otherItemIndexes.put(otherItem.getText(), otherItems.size());
+                    otherItems.add(otherItem);
                 }
             }
         }
 
         // Strike out 'other' items already in this.
+        final BitSet isStruckOut = new BitSet(otherItems.size());
         for (PageKind pageKind : PageKind.values()) {
             final PageModel pageModel = getPageModel(pageKind);
             for (int i = 0; i < pageModel.itemCount(); i++) {
                 final ItemModel item = pageModel.getItem(i);
-                ItemReference otherItemRef = otherItems.get(item.getText());
-                if (otherItemRef != null) {
-                    // This model has the same item as the other, remove the other
+                final Integer otherIndex = otherItemIndexes.get(item.getText());
+                if (otherIndex != null && !isStruckOut.get(otherIndex)) {
+                    // This model has the same item as the other, strike out the other
                     // so we don't insert it and merge its properties into this one.
                     //
                     // NOTE: of this model has multiple copies of this item, only the first
-                    // one will have its properties merged since we remove the other from
-                    // the map. Alternatively we could keep it there marked as 'do-not-insert'
-                    // and merging the properties with all the copies in this model. It is
-                    // not clear what will be more intuitive.
+                    // one will have its properties merged since the other is struck out.
+                    // Alternatively we could merge the properties into all the copies in this
+                    // model. It is not clear what will be more intuitive.
                     //
-                    item.mergePropertiesFrom(otherItemRef.itemModel);
-                    otherItems.remove(item.getText());
+                    item.mergePropertiesFrom(otherItems.get(otherIndex));
+                    isStruckOut.set(otherIndex);
                 }
             }
         }
 
-        // TODO: sort to preserve other items order and be deterministic
-
-        for (ItemReference otherRef : otherItems.values()) {
-            final ItemModelReadOnly otherItem = otherRef.itemModel;
-            final ItemModel newItem = new ItemModel(otherItem);
-            // Today page cannot have locked items
-            if (newItem.isLocked()) {
-              newItem.setIsLocked(false);
+        // Insert the remaining 'other' items as a single block.
+        final List<ItemModel> newItems = new ArrayList<ItemModel>(otherItems.size()
+                - isStruckOut.cardinality());
+        for (int i = 0; i < otherItems.size(); i++) {
+            if (!isStruckOut.get(i)) {
+                final ItemModel newItem = new ItemModel(otherItems.get(i));
+                // The id may be of an item of this model, e.g. if the other model is an older
+                // backup of it. Ids should be unique since the journal refers to items by id.
+                newItem.assignFreshId();
+                // Today page cannot have locked items
+                if (newItem.isLocked()) {
+                    newItem.setIsLocked(false);
+                }
+                newItems.add(newItem);
+            }
+        }
+        mTodayPageModel.insertItems(0, newItems);
+        if (mMutationLog != null) {
+            for (int i = 0; i < newItems.size(); i++) {
+                mMutationLog.onItemInserted(PageKind.TODAY, i, newItems.get(i));
             }
-            mTodayPageModel.insertItem(0, newItem);
         }
     }
 
@@ -376,59 +732,15 @@ public class AppModel {
         }
     }
 
+    /** Compute the stats of importing the other model into this one. */
     public final ProjectedImportStats projectedImportStats(AppModel otherModel) {
-        ProjectedImportStats result = new ProjectedImportStats();
-
-        Map<String, Integer> thisMultiset = itemTextMultiset();
-        Map<String, Integer> otherMultiset = otherModel.itemTextMultiset();
-
-        // Compute merge stats
-        // NOTE: mergeDelete is always zero for merge oepration.
-        for (Integer count : thisMultiset.values()) {
-            result.mergeKeep += count;
-        }
-        for (String text : otherMultiset.keySet()) {
-            if (!thisMultiset.containsKey(text)) {
-                // NOTE: we add excactly one, even if the other model contains
-                // multiple items with this text. The merge operation will collaps them.
-                result.mergeAdd++;
-            }
-        }
-
-        // Compute replace stats
-        Set<String> textSet = new HashSet<String>();
-        textSet.addAll(thisMultiset.keySet());
-        textSet.addAll(otherMultiset.keySet());
-        for (String text : textSet) {
-            final Integer thisValue = thisMultiset.get(text);
-            final Integer otherValue = otherMultiset.get(text);
-
-            final int thisCount = (thisValue == null) ? 0 : thisValue;
-            final int otherCount = (otherValue == null) ? 0 : otherValue;
-
-            if (thisCount < otherCount) {
-                result.replaceKeep += thisCount;
-                result.replaceAdd += (otherCount - thisCount);
-            } else {
-                result.replaceKeep += otherCount;
-                result.replaceDelete += (thisCount - otherCount);
-            }
-        }
-
-        return result;
-    }
-
-    /** Return a multiset of the text string of all items. */
-    private final Map<String, Integer> itemTextMultiset() {
-        Map<String, Integer> result = new HashMap<String, Integer>();
+        final ImportStatsCounter counter = new ImportStatsCounter(this);
         for (PageKind pageKind : PageKind.values()) {
-            final PageModel pageModel = getPageModel(pageKind);
+            final PageModel pageModel = otherModel.getPageModel(pageKind);
             for (int i = 0; i < pageModel.itemCount(); i++) {
-                final ItemModelReadOnly item = pageModel.getItem(i);
-                final Integer previousCount = result.get(item.getText());
-                result.put(item.getText(), (previousCount == null) ? 1 : previousCount + 1);
+                counter.addBackupItem(pageModel.getItem(i).getText());
             }
         }
-        return result;
+        return counter.getStats();
     }
 }
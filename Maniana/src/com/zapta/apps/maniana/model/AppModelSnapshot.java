@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+
+/**
+ * An immutable and consistent version of the data of an {@link AppModel}, as published by
+ * {@link AppModel#publishSnapshot()}. Safe to read from any thread without locking.
+ * 
+ * Pages that did not change between consecutive snapshots are shared, and changed pages share
+ * their unchanged items with the previous snapshot, see {@link PageVersion}.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+public final class AppModelSnapshot implements AppModelReadOnly {
+
+    /** Snapshot of a model with no items. */
+    static final AppModelSnapshot EMPTY = new AppModelSnapshot(0, PageVersion.EMPTY,
+            PageVersion.EMPTY, AppModel.DEFAULT_DATE_STAMP);
+
+    /** Increases with each published snapshot of the same model. */
+    private final long mVersion;
+
+    private final PageVersion mTodayPage;
+
+    private final PageVersion mTomorrowPage;
+
+    private final String mLastPushDateStamp;
+
+    AppModelSnapshot(long version, PageVersion todayPage, PageVersion tomorrowPage,
+            String lastPushDateStamp) {
+        mVersion = version;
+        mTodayPage = todayPage;
+        mTomorrowPage = tomorrowPage;
+        mLastPushDateStamp = lastPushDateStamp;
+    }
+
+    public final long getVersion() {
+        return mVersion;
+    }
+
+    final PageVersion getPageVersion(PageKind pageKind) {
+        return pageKind.isToday() ? mTodayPage : mTomorrowPage;
+    }
+
+    @Override
+    public final int getPageItemCount(PageKind pageKind) {
+        return getPageVersion(pageKind).itemCount();
+    }
+
+    @Override
+    public final ItemModelReadOnly getItemReadOnly(PageKind pageKind, int itemIndex) {
+        return getPageVersion(pageKind).getItem(itemIndex);
+    }
+
+    @Override
+    public final String getLastPushDateStamp() {
+        return mLastPushDateStamp;
+    }
+
+    /**
+     * Replace the data of given model with copies of the data of this snapshot. The model is
+     * independent of the snapshot.
+     */
+    public final void copyTo(AppModel resultModel) {
+        resultModel.clear();
+        for (PageKind pageKind : PageKind.values()) {
+            for (ItemModel item : getPageVersion(pageKind).copyItems()) {
+                resultModel.appendItem(pageKind, item);
+            }
+        }
+        resultModel.setLastPushDateStamp(mLastPushDateStamp);
+    }
+}
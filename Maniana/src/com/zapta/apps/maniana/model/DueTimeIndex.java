@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+
+/**
+ * An index of the pending items of a page that have a scheduled time, ordered by that time. Used
+ * to find the next due time and the due items without scanning the pages. Typically only a few
+ * items are scheduled so the index is always maintained.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+final class DueTimeIndex {
+
+    /** Maps each scheduled time to the indexed items with that time. */
+    private final TreeMap<Long, List<ItemModel>> mTimeItems = new TreeMap<Long, List<ItemModel>>();
+
+    /** The time each indexed item is indexed by. */
+    private final Map<ItemModel, Long> mItemTimes = new IdentityHashMap<ItemModel, Long>();
+
+    /** True if an item with this state should be indexed. */
+    private static final boolean isIndexed(ItemModel item) {
+        return item.getScheduledTime() != 0 && !item.isCompleted();
+    }
+
+    /** Index or unindex an item of the page to reflect its current state. */
+    final void update(ItemModel item) {
+        remove(item);
+        if (!isIndexed(item)) {
+            return;
+        }
+        final Long time = item.getScheduledTime();
+        List<ItemModel> items = mTimeItems.get(time);
+        if (items == null) {
+            items = new ArrayList<ItemModel>(1);
+            mTimeItems.put(time, items);
+        }
+        items.add(item);
+        mItemTimes.put(item, time);
+    }
+
+    /** Unindex an item. Does nothing if not indexed. */
+    final void remove(ItemModel item) {
+        final Long time = mItemTimes.remove(item);
+        if (time == null) {
+            return;
+        }
+        final List<ItemModel> items = mTimeItems.get(time);
+        // Identity based, ItemModel does not override equals().
+        items.remove(item);
+        if (items.isEmpty()) {
+            mTimeItems.remove(time);
+        }
+    }
+
+    final void clear() {
+        mTimeItems.clear();
+        mItemTimes.clear();
+    }
+
+    final int itemCount() {
+        return mItemTimes.size();
+    }
+
+    /** Return the earliest scheduled time that is after given time, or 0 if none. O(log n). */
+    final long nextTimeAfter(long time) {
+        if (time == Long.MAX_VALUE) {
+            return 0;
+        }
+        final SortedMap<Long, List<ItemModel>> tail = mTimeItems.tailMap(time + 1);
+        return tail.isEmpty() ? 0 : tail.firstKey();
+    }
+
+    /** Return the number of indexed items that are due at given time. */
+    final int dueItemCount(long time) {
+        if (mTimeItems.isEmpty() || mTimeItems.firstKey() > time) {
+            return 0;
+        }
+        int count = 0;
+        for (List<ItemModel> items : headMap(time).values()) {
+            count += items.size();
+        }
+        return count;
+    }
+
+    /** The entries with times up to and including given time. */
+    private final SortedMap<Long, List<ItemModel>> headMap(long time) {
+        return (time == Long.MAX_VALUE) ? mTimeItems : mTimeItems.headMap(time + 1);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+import com.zapta.apps.maniana.model.AppModel.ProjectedImportStats;
+
+/**
+ * Computes the projected stats of importing a backup into a model, from the texts of the backup
+ * items as they are read. The backup items are not retained.
+ * 
+ * The texts of the model are indexed once, with primitive per text counts. Backup texts that are
+ * not in the model are tracked only by a 64 bit hash, so memory does not grow with the size of
+ * the backup other than a few bytes per new distinct text.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+public final class ImportStatsCounter {
+
+    /** Maps each distinct text of the model to its index in the count arrays. */
+    private final Map<String, Integer> mTextIndexes = new HashMap<String, Integer>();
+
+    /** Number of model items per text index. */
+    private final int[] mModelCounts;
+
+    /** Number of backup items per text index. */
+    private final int[] mBackupCounts;
+
+    private final int mModelItemCount;
+
+    /** Hashes of the distinct backup texts that are not in the model. */
+    private final LongHashSet mNewTextHashes = new LongHashSet();
+
+    /** Number of backup items whose text is not in the model. */
+    private int mNewItemCount = 0;
+
+    /** Index the texts of given model. */
+    public ImportStatsCounter(AppModel model) {
+        final int[] counts = new int[model.getItemCount()];
+        for (PageKind pageKind : PageKind.values()) {
+            final PageModel pageModel = model.getPageModel(pageKind);
+            for (int i = 0; i < pageModel.itemCount(); i++) {
+                final String text = pageModel.getItem(i).getText();
+                final Integer textIndex = mTextIndexes.get(text);
+                if (textIndex == null) {
+                    counts[mTextIndexes.size()] = 1;
+                    mTextIndexes.put(text, mTextIndexes.size());
+                } else {
+                    counts[textIndex]++;
+                }
+            }
+        }
+        mModelCounts = counts;
+        mBackupCounts = new int[mTextIndexes.size()];
+        mModelItemCount = model.getItemCount();
+    }
+
+    /** Count a backup item with given text. */
+    public final void addBackupItem(String text) {
+        final Integer textIndex = mTextIndexes.get(text);
+        if (textIndex != null) {
+            mBackupCounts[textIndex]++;
+        } else {
+            mNewTextHashes.add(textHash(text));
+            mNewItemCount++;
+        }
+    }
+
+    /** Return the stats of the backup items counted so far. */
+    public final ProjectedImportStats getStats() {
+        final ProjectedImportStats result = new ProjectedImportStats();
+
+        // NOTE: mergeDelete is always zero for merge oepration. A merge adds excactly one item
+        // per new text, even if the backup contains multiple items with this text.
+        result.mergeKeep = mModelItemCount;
+        result.mergeAdd = mNewTextHashes.size();
+
+        for (int i = 0; i < mBackupCounts.length; i++) {
+            final int modelCount = mModelCounts[i];
+            final int backupCount = mBackupCounts[i];
+            if (modelCount < backupCount) {
+                result.replaceKeep += modelCount;
+                result.replaceAdd += (backupCount - modelCount);
+            } else {
+                result.replaceKeep += backupCount;
+                result.replaceDelete += (modelCount - backupCount);
+            }
+        }
+        result.replaceAdd += mNewItemCount;
+        return result;
+    }
+
+    /** A 64 bit FNV-1a hash of the text. Collisions are negligible for the sizes we count. */
+    private static final long textHash(String text) {
+        long hash = 0xcbf29ce484222325L;
+        final int n = text.length();
+        for (int i = 0; i < n; i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** A minimal open addressing set of longs. */
+    private static final class LongHashSet {
+        /** Zero marks an empty slot. */
+        private long[] mSlots = new long[64];
+
+        /** True if the value zero was added. It is kept out of the slots. */
+        private boolean mHasZero = false;
+
+        private int mSize = 0;
+
+        final int size() {
+            return mSize + (mHasZero ? 1 : 0);
+        }
+
+        final void add(long value) {
+            if (value == 0) {
+                mHasZero = true;
+                return;
+            }
+            if (2 * (mSize + 1) > mSlots.length) {
+                rehash(2 * mSlots.length);
+            }
+            if (insert(mSlots, value)) {
+                mSize++;
+            }
+        }
+
+        /** @return true if the value was not already in slots. */
+        private static boolean insert(long[] slots, long value) {
+            final int mask = slots.length - 1;
+            int i = (int) (value ^ (value >>> 32)) & mask;
+            while (slots[i] != 0) {
+                if (slots[i] == value) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[i] = value;
+            return true;
+        }
+
+        private final void rehash(int newLength) {
+            final long[] newSlots = new long[newLength];
+            for (long value : mSlots) {
+                if (value != 0) {
+                    insert(newSlots, value);
+                }
+            }
+            mSlots = newSlots;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+import com.zapta.apps.maniana.util.IdUtil;
+
+/**
+ * A hash index of items by their id, with a position hint per item. Keyed by the compact form of
+ * the id (shared prefix and numeric suffix) so lookups do not build id strings. Items with the
+ * same id, e.g. after a merge, are all indexed.
+ * 
+ * Items should not change their id while indexed. An item whose id changed is not found by its
+ * old or new id.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+final class ItemIdIndex {
+
+    /** Initial and minimal number of buckets. A power of 2. */
+    private static final int MIN_BUCKETS = 16;
+
+    /** An indexed item. */
+    static final class Entry {
+        final ItemModel item;
+
+        /** The hash of the item id when it was indexed. */
+        private final int mHash;
+
+        /** Next entry in the same bucket. */
+        @Nullable
+        private Entry mNext;
+
+        /**
+         * Last known position of the item. A hint maintained by the user of the index since
+         * operations that shift items do not update it.
+         */
+        int position;
+
+        private Entry(ItemModel item, int hash, int position) {
+            this.item = item;
+            this.mHash = hash;
+            this.position = position;
+        }
+    }
+
+    /** Each bucket is a linked list of the entries whose hash maps to it. */
+    private Entry[] mBuckets = new Entry[MIN_BUCKETS];
+
+    private int mSize = 0;
+
+    private static final int hashOf(ItemModelReadOnly item) {
+        return IdUtil.hashOf(item.getIdPrefix(), item.getIdSuffix());
+    }
+
+    /** Spread the hash bits since the bucket index uses the low bits only. */
+    private final int bucketOf(int hash) {
+        final int h = hash ^ (hash >>> 16);
+        return h & (mBuckets.length - 1);
+    }
+
+    final int size() {
+        return mSize;
+    }
+
+    /** Index an item that is not indexed yet. */
+    final void add(ItemModel item, int position) {
+        if (mSize >= mBuckets.length - (mBuckets.length >> 2)) {
+            resize(mBuckets.length * 2);
+        }
+        final Entry entry = new Entry(item, hashOf(item), position);
+        final int bucket = bucketOf(entry.mHash);
+        entry.mNext = mBuckets[bucket];
+        mBuckets[bucket] = entry;
+        mSize++;
+    }
+
+    /** Unindex given item. Returns false if the item was not found. */
+    final boolean remove(ItemModel item) {
+        final int bucket = bucketOf(hashOf(item));
+        Entry previous = null;
+        for (Entry entry = mBuckets[bucket]; entry != null; entry = entry.mNext) {
+            if (entry.item == item) {
+                if (previous == null) {
+                    mBuckets[bucket] = entry.mNext;
+                } else {
+                    previous.mNext = entry.mNext;
+                }
+                mSize--;
+                return true;
+            }
+            previous = entry;
+        }
+        return false;
+    }
+
+    final void clear() {
+        if (mBuckets.length > MIN_BUCKETS) {
+            mBuckets = new Entry[MIN_BUCKETS];
+        } else {
+            Arrays.fill(mBuckets, null);
+        }
+        mSize = 0;
+    }
+
+    /** Return the entry of given item, by identity, or null if not indexed. */
+    @Nullable
+    final Entry entryOf(ItemModelReadOnly item) {
+        for (Entry entry = mBuckets[bucketOf(hashOf(item))]; entry != null; entry = entry.mNext) {
+            if (entry.item == item) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /** Return the first entry with given id or null if none. */
+    @Nullable
+    final Entry find(String idPrefix, long idSuffix) {
+        final int hash = IdUtil.hashOf(idPrefix, idSuffix);
+        return findFrom(mBuckets[bucketOf(hash)], hash, idPrefix, idSuffix);
+    }
+
+    /**
+     * Return the next entry with the same id as the given entry, that was returned by find() or
+     * by this method, or null if none.
+     */
+    @Nullable
+    final Entry findNext(Entry entry) {
+        return findFrom(entry.mNext, entry.mHash, entry.item.getIdPrefix(),
+                entry.item.getIdSuffix());
+    }
+
+    @Nullable
+    private static final Entry findFrom(@Nullable Entry first, int hash, String idPrefix,
+            long idSuffix) {
+        for (Entry entry = first; entry != null; entry = entry.mNext) {
+            // NOTE: prefixes are typically shared so equals() returns on the identity check.
+            if (entry.mHash == hash && entry.item.getIdSuffix() == idSuffix
+                    && entry.item.getIdPrefix().equals(idPrefix)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private final void resize(int bucketCount) {
+        final Entry[] oldBuckets = mBuckets;
+        mBuckets = new Entry[bucketCount];
+        for (Entry first : oldBuckets) {
+            Entry entry = first;
+            while (entry != null) {
+                final Entry next = entry.mNext;
+                final int bucket = bucketOf(entry.mHash);
+                entry.mNext = mBuckets[bucket];
+                mBuckets[bucket] = entry;
+                entry = next;
+            }
+        }
+    }
+}
@@ -14,7 +14,11 @@
 
 package com.zapta.apps.maniana.model;
 
+import javax.annotation.Nullable;
+
 import com.zapta.apps.maniana.annotations.ApplicationScope;
+import com.zapta.apps.maniana.util.IdGenerator;
+import com.zapta.apps.maniana.util.IdUtil;
 
 /**
  * Represents the data of a single item.
@@ -24,8 +28,12 @@ import com.zapta.apps.maniana.annotations.ApplicationScope;
 @ApplicationScope
 public class ItemModel implements ItemModelReadOnly {
     
-    /** Globally unique id for this item. Survives item mutations and sync. */
-    private String mId;
+    /**
+     * Globally unique id for this item. Survives item mutations and sync. Stored in a compact form
+     * as a shared prefix and a numeric suffix, see IdUtil.
+     */
+    private String mIdPrefix;
+    private long mIdSuffix;
     
     /** System time in millis at the time of creation or last mutation. */
     private long mUpdateTime;
@@ -33,27 +41,79 @@ public class ItemModel implements ItemModelReadOnly {
     /** The item text. */
     private String mText;
 
-    /** Is this item done? */
-    private boolean mIsCompleted;
-    
-    /** Is this item blocked. */
-    private boolean mIsLocked;
+    /** Flag bit of mFlags. Is this item done? */
+    private static final int FLAG_COMPLETED = 1 << 0;
+
+    /** Flag bit of mFlags. Is this item blocked? */
+    private static final int FLAG_LOCKED = 1 << 1;
+
+    /** The color ordinal is stored in the bits of mFlags above the flag bits. */
+    private static final int COLOR_SHIFT = 2;
+
+    /** Sorting group of the items that are neither completed nor locked. */
+    public static final int GROUP_PENDING = 0;
+
+    /** Sorting group of the completed items that are not locked. */
+    public static final int GROUP_COMPLETED = 1;
+
+    /** Sorting group of the items that are both completed and locked. */
+    public static final int GROUP_COMPLETED_LOCKED = 2;
+
+    /** Sorting group of the locked items that are not completed. */
+    public static final int GROUP_LOCKED = 3;
+
+    /** The sorting group index of each combination of the completed and locked flags. */
+    private static final int[] SORTING_GROUP_INDEXES = new int[] {
+        GROUP_PENDING,
+        GROUP_COMPLETED,
+        GROUP_LOCKED,
+        GROUP_COMPLETED_LOCKED
+    };
+
+    /** Cached since ItemColor.values() returns a new array on each call. */
+    private static final ItemColor[] COLORS = ItemColor.values();
+
+    /**
+     * The completed and locked flags and the color ordinal, packed in a single field to keep the
+     * item small. Accessed with the getters and setters below.
+     */
+    private int mFlags;
 
     /** The item scheduled time, in millis. */
     private long mScheduledTime;
 
-    /** The item color. */
-    private ItemColor mColor;
+    /**
+     * The page whose item list contains this item, if any. Informed when the item changes so the
+     * page counters stay exact and the change is reported. Maintained by the page.
+     */
+    @Nullable
+    private PageModel mPage = null;
 
     /** Constructor with initial values. */
     public ItemModel(long updateTime, String id, String text, boolean isCompleted, boolean isLocked, long scheduledTime, ItemColor color) {
+        this(updateTime, IdUtil.prefixOf(id), IdUtil.suffixOf(id), text, isCompleted, isLocked,
+                scheduledTime, color);
+    }
+
+    /** Constructor with initial values and an id in the compact form. */
+    public ItemModel(long updateTime, String idPrefix, long idSuffix, String text,
+            boolean isCompleted, boolean isLocked, long scheduledTime, ItemColor color) {
         mUpdateTime = updateTime;
-        mId = id;
+        // Only prefixes of generated ids are shared by many items.
+        mIdPrefix = (idSuffix == IdUtil.NO_SUFFIX) ? idPrefix : IdUtil.sharedPrefix(idPrefix);
+        mIdSuffix = idSuffix;
         mText = text;
-        mIsCompleted = isCompleted;
-        mIsLocked = isLocked;
+        mFlags = packFlags(isCompleted, isLocked, color);
         mScheduledTime = scheduledTime;
-        mColor = color;
+    }
+
+    private static final int packFlags(boolean isCompleted, boolean isLocked, ItemColor color) {
+        return (isCompleted ? FLAG_COMPLETED : 0) | (isLocked ? FLAG_LOCKED : 0)
+                | (color.ordinal() << COLOR_SHIFT);
+    }
+
+    private final void setFlag(int flag, boolean value) {
+        mFlags = value ? (mFlags | flag) : (mFlags & ~flag);
     }
 
     /** Copy constructor. Create an identical but independent instance */
@@ -63,13 +123,51 @@ public class ItemModel implements ItemModelReadOnly {
 
     /** Set to same values as other item. */
     public final void copyFrom(ItemModelReadOnly other) {
+        final int oldGroupIndex = sortingGroupIndex();
         mUpdateTime = other.getUpdateTime();
-        mId = other.getId();
+        mIdPrefix = other.getIdPrefix();
+        mIdSuffix = other.getIdSuffix();
         mText = other.getText();
-        mIsCompleted = other.isCompleted();
-        mIsLocked = other.isLocked();
+        mFlags = packFlags(other.isCompleted(), other.isLocked(), other.getColor());
         mScheduledTime = other.getScheduledTime();
-        mColor = other.getColor();
+        onChanged(oldGroupIndex, ModelChange.FIELD_ALL);
+    }
+
+    /**
+     * Replace the id with a fresh unique one. Pages index their items by id so the page, if any,
+     * should reindex the item.
+     */
+    final void assignFreshId() {
+        final String id = IdGenerator.getFreshId();
+        mIdPrefix = IdUtil.sharedPrefix(IdUtil.prefixOf(id));
+        mIdSuffix = IdUtil.suffixOf(id);
+    }
+
+    /** Called by the page when this item is added to or removed from its item list. */
+    final void setPage(@Nullable PageModel page) {
+        mPage = page;
+    }
+
+    /** The page whose item list contains this item, or null if none. */
+    @Nullable
+    final PageModel getPage() {
+        return mPage;
+    }
+
+    /**
+     * Called after a change of given fields.
+     * 
+     * @param oldGroupIndex the sorting group index before the change.
+     * @param fields the ModelChange FIELD_ flags of the changed fields.
+     */
+    private final void onChanged(int oldGroupIndex, int fields) {
+        if (mPage != null) {
+            final int newGroupIndex = sortingGroupIndex();
+            if (newGroupIndex != oldGroupIndex) {
+                mPage.onItemGroupChanged(this, oldGroupIndex, newGroupIndex);
+            }
+            mPage.onItemChanged(this, fields);
+        }
     }
     
     @Override
@@ -79,7 +177,30 @@ public class ItemModel implements ItemModelReadOnly {
     
     @Override
     public final String getId() {
-        return mId;
+        return IdUtil.toId(mIdPrefix, mIdSuffix);
+    }
+
+    @Override
+    public final String getIdPrefix() {
+        return mIdPrefix;
+    }
+
+    @Override
+    public final long getIdSuffix() {
+        return mIdSuffix;
+    }
+
+    @Override
+    public final boolean hasSameId(ItemModelReadOnly other) {
+        // NOTE: prefixes are shared so equals() typically returns on the identity check.
+        return mIdSuffix == other.getIdSuffix() && mIdPrefix.equals(other.getIdPrefix());
+    }
+
+    /** Test if the other item has the same id and the same values as this one. */
+    public final boolean hasSameState(ItemModelReadOnly other) {
+        return mUpdateTime == other.getUpdateTime() && hasSameId(other)
+                && mText.equals(other.getText()) && mScheduledTime == other.getScheduledTime()
+                && mFlags == packFlags(other.isCompleted(), other.isLocked(), other.getColor());
     }
 
     @Override
@@ -89,28 +210,33 @@ public class ItemModel implements ItemModelReadOnly {
 
     public final void setText(String text) {
         mText = text;
+        onChanged(sortingGroupIndex(), ModelChange.FIELD_TEXT);
     }
 
     @Override
     public final boolean isCompleted() {
-        return mIsCompleted;
+        return (mFlags & FLAG_COMPLETED) != 0;
     }
 
     public final void setIsCompleted(boolean isCompleted) {
-        mIsCompleted = isCompleted;
+        final int oldGroupIndex = sortingGroupIndex();
+        setFlag(FLAG_COMPLETED, isCompleted);
+        onChanged(oldGroupIndex, ModelChange.FIELD_COMPLETED);
     }
 
     public final int sortingGroupIndex() {
-        return mIsCompleted ? (mIsLocked ? 2 : 1) : (mIsLocked ? 3 : 0);
+        return SORTING_GROUP_INDEXES[mFlags & (FLAG_COMPLETED | FLAG_LOCKED)];
     }
 
     @Override
     public final boolean isLocked() {
-        return mIsLocked;
+        return (mFlags & FLAG_LOCKED) != 0;
     }
 
     public final void setIsLocked(boolean isLocked) {
-        mIsLocked = isLocked;
+        final int oldGroupIndex = sortingGroupIndex();
+        setFlag(FLAG_LOCKED, isLocked);
+        onChanged(oldGroupIndex, ModelChange.FIELD_LOCKED);
     }
     
     @Override
@@ -120,21 +246,25 @@ public class ItemModel implements ItemModelReadOnly {
     
     public final void setScheduledTime(long scheduledTime) {
     	mScheduledTime = scheduledTime;
+    	onChanged(sortingGroupIndex(), ModelChange.FIELD_SCHEDULED_TIME);
     }
 
     @Override
     public final ItemColor getColor() {
-        return mColor;
+        return COLORS[mFlags >>> COLOR_SHIFT];
     }
 
     public final void setColor(ItemColor color) {
-        mColor = color;
+        mFlags = (mFlags & (FLAG_COMPLETED | FLAG_LOCKED)) | (color.ordinal() << COLOR_SHIFT);
+        onChanged(sortingGroupIndex(), ModelChange.FIELD_COLOR);
     }
 
     public final void mergePropertiesFrom(ItemModelReadOnly other) {      
-        mIsCompleted = mIsCompleted && other.isCompleted();
-        mIsLocked = mIsLocked && other.isLocked();        
-        // TODO: should we clear the color if mIsCompleted?
-        mColor = mColor.max(other.getColor());
+        final int oldGroupIndex = sortingGroupIndex();
+        // TODO: should we clear the color if completed?
+        mFlags = packFlags(isCompleted() && other.isCompleted(), isLocked() && other.isLocked(),
+                getColor().max(other.getColor()));
+        onChanged(oldGroupIndex, ModelChange.FIELD_COMPLETED | ModelChange.FIELD_LOCKED
+                | ModelChange.FIELD_COLOR);
     }
 }
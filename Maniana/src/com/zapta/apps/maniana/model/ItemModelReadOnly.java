@@ -30,8 +30,18 @@ public interface ItemModelReadOnly {
     /** System time in millis since epoch. */
     long getUpdateTime();
     
+    /** The item id. Rebuilt on each call, prefer the prefix and suffix getters in loops. */
     String getId();
 
+    /** The id prefix. Items with the same prefix share the same instance. */
+    String getIdPrefix();
+
+    /** The numeric id suffix or IdUtil.NO_SUFFIX if the id is the prefix alone. */
+    long getIdSuffix();
+
+    /** Test if this item has the same id as other. Faster than comparing getId(). */
+    boolean hasSameId(ItemModelReadOnly other);
+
     String getText();
 
     boolean isCompleted();
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+
+/**
+ * A change of the items of a page, as reported to a {@link ModelChangeListener}. Item indexes are
+ * relative to the state of the page after all the preceding changes in the same batch were
+ * applied.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+public final class ModelChange {
+
+    public static enum Kind {
+        /** Items were inserted at [itemIndex, itemIndex + itemCount). */
+        INSERTED,
+        /** The items at [itemIndex, itemIndex + itemCount) were removed. */
+        REMOVED,
+        /** The item at itemIndex was moved to toIndex. */
+        MOVED,
+        /** Fields of the item at itemIndex changed. See getFields(). */
+        CHANGED,
+        /** The items were reordered. The item range is not specified. */
+        REORDERED,
+        /** The items were replaced. The item range is not specified. */
+        RESET,
+    }
+
+    /** Field flags of a CHANGED change. */
+    public static final int FIELD_TEXT = 1 << 0;
+    public static final int FIELD_COMPLETED = 1 << 1;
+    public static final int FIELD_LOCKED = 1 << 2;
+    public static final int FIELD_COLOR = 1 << 3;
+    public static final int FIELD_SCHEDULED_TIME = 1 << 4;
+    public static final int FIELD_ALL = (1 << 5) - 1;
+
+    private final Kind mKind;
+
+    private final PageKind mPageKind;
+
+    /** Start of the range. Updated when coalescing. */
+    private int mItemIndex;
+
+    /** Size of the range. Updated when coalescing. */
+    private int mItemCount;
+
+    /** Destination index of a MOVED change. */
+    private final int mToIndex;
+
+    /** Changed fields of a CHANGED change. Updated when coalescing. */
+    private int mFields;
+
+    ModelChange(Kind kind, PageKind pageKind, int itemIndex, int itemCount, int toIndex,
+            int fields) {
+        mKind = kind;
+        mPageKind = pageKind;
+        mItemIndex = itemIndex;
+        mItemCount = itemCount;
+        mToIndex = toIndex;
+        mFields = fields;
+    }
+
+    public final Kind getKind() {
+        return mKind;
+    }
+
+    public final PageKind getPageKind() {
+        return mPageKind;
+    }
+
+    public final int getItemIndex() {
+        return mItemIndex;
+    }
+
+    public final int getItemCount() {
+        return mItemCount;
+    }
+
+    public final int getToIndex() {
+        return mToIndex;
+    }
+
+    /** The FIELD_ flags of the changed fields. Zero if not a CHANGED change. */
+    public final int getFields() {
+        return mFields;
+    }
+
+    /** True if the change may affect more than the fields of existing items. */
+    public final boolean isStructural() {
+        return mKind != Kind.CHANGED;
+    }
+
+    /**
+     * Try to merge a change that follows this one into this one.
+     * 
+     * @return true if merged.
+     */
+    final boolean tryMerge(ModelChange next) {
+        if (next.mKind != mKind || next.mPageKind != mPageKind) {
+            return false;
+        }
+        switch (mKind) {
+            case CHANGED:
+                if (next.mItemIndex == mItemIndex) {
+                    mFields |= next.mFields;
+                    return true;
+                }
+                return false;
+            case INSERTED:
+                // Inserted at the edges of or within the inserted range.
+                if (next.mItemIndex >= mItemIndex && next.mItemIndex <= mItemIndex + mItemCount) {
+                    mItemCount += next.mItemCount;
+                    return true;
+                }
+                return false;
+            case REMOVED:
+                // Removed at the start of the removed range or just before it.
+                if (next.mItemIndex == mItemIndex
+                        || next.mItemIndex + next.mItemCount == mItemIndex) {
+                    mItemIndex = next.mItemIndex;
+                    mItemCount += next.mItemCount;
+                    return true;
+                }
+                return false;
+            case REORDERED:
+            case RESET:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public final String toString() {
+        return String.format("%s %s [%d, +%d) to %d fields 0x%x", mKind, mPageKind, mItemIndex,
+                mItemCount, mToIndex, mFields);
+    }
+}
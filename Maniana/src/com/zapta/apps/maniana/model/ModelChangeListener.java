@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import java.util.List;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+
+/**
+ * Listener that is informed by {@link AppModel} of the changes of its page items. Unlike
+ * {@link ModelMutationLog}, changes are not reported as they happen but collected, coalesced and
+ * delivered in batches, typically once per UI frame. Used to update views in proportion to what
+ * changed.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+public interface ModelChangeListener {
+
+    /**
+     * Called with the changes since the last call, in order. The list is valid only during the
+     * call.
+     */
+    void onModelChanges(List<ModelChange> changes);
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+import com.zapta.apps.maniana.model.ModelChange.Kind;
+
+/**
+ * Collects the changes reported by the pages of a model, coalesces them and dispatches them to
+ * the model change listeners. Changes are collected only while there are listeners.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+final class ModelChangeTracker {
+
+    /** Above this number of pending changes, they are collapsed to a reset of each page. */
+    static final int MAX_PENDING_CHANGES = 64;
+
+    private final List<ModelChangeListener> mListeners = new ArrayList<ModelChangeListener>();
+
+    /** Changes since the last dispatch, in order. */
+    private List<ModelChange> mPendingChanges = new ArrayList<ModelChange>();
+
+    /** The changes being dispatched. Swapped with mPendingChanges. */
+    private List<ModelChange> mDispatchedChanges = new ArrayList<ModelChange>();
+
+    /** True while calling the listeners. */
+    private boolean mIsDispatching = false;
+
+    /** Called when the first change is collected after a dispatch. */
+    @Nullable
+    private Runnable mScheduler = null;
+
+    final void addListener(ModelChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    final void removeListener(ModelChangeListener listener) {
+        mListeners.remove(listener);
+        if (mListeners.isEmpty()) {
+            mPendingChanges.clear();
+        }
+    }
+
+    final void setScheduler(@Nullable Runnable scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /** True if changes are collected. Used to avoid computing changes no one needs. */
+    final boolean isEnabled() {
+        return !mListeners.isEmpty();
+    }
+
+    final void onInserted(PageKind pageKind, int itemIndex, int itemCount) {
+        if (itemCount > 0) {
+            add(new ModelChange(Kind.INSERTED, pageKind, itemIndex, itemCount, 0, 0));
+        }
+    }
+
+    final void onRemoved(PageKind pageKind, int itemIndex, int itemCount) {
+        if (itemCount > 0) {
+            add(new ModelChange(Kind.REMOVED, pageKind, itemIndex, itemCount, 0, 0));
+        }
+    }
+
+    final void onMoved(PageKind pageKind, int fromIndex, int toIndex) {
+        if (fromIndex != toIndex) {
+            add(new ModelChange(Kind.MOVED, pageKind, fromIndex, 1, toIndex, 0));
+        }
+    }
+
+    final void onChanged(PageKind pageKind, int itemIndex, int fields) {
+        add(new ModelChange(Kind.CHANGED, pageKind, itemIndex, 1, 0, fields));
+    }
+
+    final void onReordered(PageKind pageKind) {
+        add(new ModelChange(Kind.REORDERED, pageKind, 0, 0, 0, 0));
+    }
+
+    final void onReset(PageKind pageKind) {
+        add(new ModelChange(Kind.RESET, pageKind, 0, 0, 0, 0));
+    }
+
+    private final void add(ModelChange change) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        final int n = mPendingChanges.size();
+        if (n > 0) {
+            // A pending reset of the page makes the change redundant.
+            if (hasPendingReset(change.getPageKind())) {
+                return;
+            }
+            if (mPendingChanges.get(n - 1).tryMerge(change)) {
+                return;
+            }
+        }
+
+        if (change.getKind() == Kind.RESET || n >= MAX_PENDING_CHANGES) {
+            collapseToResets(change);
+        } else {
+            mPendingChanges.add(change);
+        }
+
+        if (n == 0 && mScheduler != null && !mIsDispatching) {
+            mScheduler.run();
+        }
+    }
+
+    private final boolean hasPendingReset(PageKind pageKind) {
+        for (ModelChange pendingChange : mPendingChanges) {
+            if (pendingChange.getKind() == Kind.RESET && pendingChange.getPageKind() == pageKind) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replace the pending changes of the page of given change with a reset of that page. If there
+     * are too many pending changes, all the pages with changes are reset.
+     */
+    private final void collapseToResets(ModelChange change) {
+        final boolean resetAll = mPendingChanges.size() >= MAX_PENDING_CHANGES;
+        final boolean[] isPageReset = new boolean[PageKind.values().length];
+        isPageReset[change.getPageKind().ordinal()] = true;
+        if (resetAll) {
+            for (ModelChange pendingChange : mPendingChanges) {
+                isPageReset[pendingChange.getPageKind().ordinal()] = true;
+            }
+        }
+
+        // Keep the changes of the other pages, in order.
+        final List<ModelChange> keptChanges = new ArrayList<ModelChange>();
+        for (ModelChange pendingChange : mPendingChanges) {
+            if (!isPageReset[pendingChange.getPageKind().ordinal()]) {
+                keptChanges.add(pendingChange);
+            }
+        }
+        mPendingChanges.clear();
+        mPendingChanges.addAll(keptChanges);
+        for (PageKind pageKind : PageKind.values()) {
+            if (isPageReset[pageKind.ordinal()]) {
+                mPendingChanges.add(new ModelChange(Kind.RESET, pageKind, 0, 0, 0, 0));
+            }
+        }
+    }
+
+    /** Deliver the pending changes to the listeners. Does nothing if there are none. */
+    final void dispatch() {
+        if (mIsDispatching || mPendingChanges.isEmpty()) {
+            return;
+        }
+
+        // Changes made by the listeners are collected for the next dispatch.
+        final List<ModelChange> changes = mPendingChanges;
+        mPendingChanges = mDispatchedChanges;
+        mDispatchedChanges = changes;
+
+        mIsDispatching = true;
+        try {
+            for (ModelChangeListener listener : new ArrayList<ModelChangeListener>(mListeners)) {
+                listener.onModelChanges(changes);
+            }
+        } finally {
+            mIsDispatching = false;
+            changes.clear();
+        }
+
+        if (!mPendingChanges.isEmpty() && mScheduler != null) {
+            mScheduler.run();
+        }
+    }
+}
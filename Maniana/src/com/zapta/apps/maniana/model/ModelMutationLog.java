@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+
+/**
+ * Listener that is informed by {@link AppModel} of its mutations. Used to persist model changes
+ * incrementally instead of rewriting the entire model.
+ * 
+ * Changes to the undo buffers are not reported since they are not persisted.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+public interface ModelMutationLog {
+
+    /** Called after an item was inserted at given index of given page. */
+    void onItemInserted(PageKind pageKind, int itemIndex, ItemModelReadOnly item);
+
+    /** Called after an item was removed from given page. */
+    void onItemRemoved(PageKind pageKind, ItemModelReadOnly item);
+
+    /**
+     * Called after an item of the model changed. An item may change many times before it is
+     * persisted so the log should capture the item state lazily.
+     */
+    void onItemMutation(ItemModel item);
+
+    /** Called before the model performs a push with the given parameters. */
+    void onPushToToday(boolean expireAllLocks, boolean deleteCompletedItems);
+
+    /** Called before given page is organized, if the organization changes its content. */
+    void onPageOrganized(PageKind pageKind, boolean deleteCompletedItems);
+
+    /** Called after the last push datestamp was set. */
+    void onLastPushDateStampChanged(String lastPushDateStamp);
+
+    /**
+     * Called after a bulk model change that is not reported in detail (e.g. clear or restore). The
+     * entire model should be persisted.
+     */
+    void onModelReset();
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import java.util.LinkedList;
+
+import javax.annotation.Nullable;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+
+/**
+ * Multi level undo and redo history of a page, as a sequence of page versions. Versions share
+ * unchanged items so each level costs memory proportional to its changes. The oldest versions
+ * are evicted when the history exceeds its level or memory limits.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+final class PageHistory {
+
+    /** Max number of retained undo and redo versions. */
+    static final int MAX_LEVELS = 50;
+
+    /** Max estimated memory of the retained versions. */
+    static final long MAX_BYTES = 256 * 1024;
+
+    /** Versions to undo to. Oldest first. */
+    private final LinkedList<PageVersion> mUndoVersions = new LinkedList<PageVersion>();
+
+    /** Versions to redo to. The next one to redo is last. */
+    private final LinkedList<PageVersion> mRedoVersions = new LinkedList<PageVersion>();
+
+    /** The version of the page at the last checkpoint. Null if none yet. */
+    @Nullable
+    private PageVersion mCurrentVersion = null;
+
+    /** The change count of the page when mCurrentVersion was captured or restored. */
+    private int mCurrentVersionChangeCount = 0;
+
+    /**
+     * Estimated memory of the retained versions. The current version is counted in full and the
+     * undo and redo versions by the memory they do not share with their base versions.
+     */
+    private long mBytes = 0;
+
+    /** Drop all versions. */
+    final void clear() {
+        mUndoVersions.clear();
+        mRedoVersions.clear();
+        mCurrentVersion = null;
+        mBytes = 0;
+    }
+
+    /**
+     * Return the version of the last checkpoint if the items of the page did not change since,
+     * otherwise null.
+     */
+    @Nullable
+    final PageVersion currentVersion(PageModel page) {
+        return (page.changeCount() == mCurrentVersionChangeCount) ? mCurrentVersion : null;
+    }
+
+    final boolean canUndo() {
+        return !mUndoVersions.isEmpty();
+    }
+
+    final boolean canRedo() {
+        return !mRedoVersions.isEmpty();
+    }
+
+    /**
+     * Record the current items of the page as a new version, if they changed since the last
+     * checkpoint. A new version discards the redo versions. Pages whose items alone exceed the
+     * memory limit have no history.
+     * 
+     * @return true if a new version was recorded.
+     */
+    final boolean checkpoint(PageModel page) {
+        if (mCurrentVersion != null && page.changeCount() == mCurrentVersionChangeCount) {
+            return false;
+        }
+        // A lower bound of the version size, to avoid capturing pages that are too large.
+        if ((long) page.itemCount() * PageVersion.ITEM_BYTES > MAX_BYTES) {
+            clear();
+            return false;
+        }
+        final PageVersion version = PageVersion.capture(page, mCurrentVersion);
+        if (version.totalBytes() > MAX_BYTES) {
+            clear();
+            return false;
+        }
+        mCurrentVersionChangeCount = page.changeCount();
+        if (mCurrentVersion != null) {
+            if (version.isSameAs(mCurrentVersion)) {
+                return false;
+            }
+            mUndoVersions.addLast(mCurrentVersion);
+            mBytes += mCurrentVersion.ownBytes() - mCurrentVersion.totalBytes();
+        }
+        mCurrentVersion = version;
+        mBytes += version.totalBytes();
+        while (!mRedoVersions.isEmpty()) {
+            mBytes -= mRedoVersions.removeLast().ownBytes();
+        }
+        evictOldVersions();
+        return true;
+    }
+
+    /**
+     * Restore the page to the version before the last checkpoint. Changes since the last
+     * checkpoint are checkpointed first.
+     * 
+     * @return true if restored, false if nothing to undo.
+     */
+    final boolean undo(PageModel page) {
+        checkpoint(page);
+        if (mUndoVersions.isEmpty()) {
+            return false;
+        }
+        mRedoVersions.addLast(mCurrentVersion);
+        restore(page, mUndoVersions.removeLast());
+        return true;
+    }
+
+    /**
+     * Restore the page to the version undone last. Changes since the last checkpoint discard the
+     * redo versions.
+     * 
+     * @return true if restored, false if nothing to redo.
+     */
+    final boolean redo(PageModel page) {
+        checkpoint(page);
+        if (mRedoVersions.isEmpty()) {
+            return false;
+        }
+        mUndoVersions.addLast(mCurrentVersion);
+        restore(page, mRedoVersions.removeLast());
+        return true;
+    }
+
+    /**
+     * Make given version, just removed from the undo or redo versions, the current one and copy
+     * its items to the page. The current version should be already added to the other list.
+     */
+    private final void restore(PageModel page, PageVersion version) {
+        mBytes += mCurrentVersion.ownBytes() - mCurrentVersion.totalBytes();
+        mBytes += version.totalBytes() - version.ownBytes();
+        mCurrentVersion = version;
+        page.replaceItems(version.copyItems());
+        mCurrentVersionChangeCount = page.changeCount();
+        evictOldVersions();
+    }
+
+    /**
+     * Evict the oldest undo versions, and then the farthest redo versions, to fit the limits. The
+     * current version is within the memory limit by itself.
+     */
+    private final void evictOldVersions() {
+        while (isOverLimits() && !mUndoVersions.isEmpty()) {
+            mBytes -= mUndoVersions.removeFirst().ownBytes();
+        }
+        while (isOverLimits() && !mRedoVersions.isEmpty()) {
+            mBytes -= mRedoVersions.removeFirst().ownBytes();
+        }
+    }
+
+    private final boolean isOverLimits() {
+        return mBytes > MAX_BYTES || mUndoVersions.size() + mRedoVersions.size() > MAX_LEVELS;
+    }
+}
@@ -17,6 +17,7 @@ package com.zapta.apps.maniana.model;
 import static com.zapta.apps.maniana.util.Assertions.check;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ListIterator;
 
@@ -24,6 +25,9 @@ import javax.annotation.Nullable;
 
 import com.zapta.apps.maniana.annotations.ApplicationScope;
 import com.zapta.apps.maniana.annotations.VisibleForTesting;
+import com.zapta.apps.maniana.util.GapList;
+import com.zapta.apps.maniana.util.IdUtil;
+import com.zapta.apps.maniana.util.LogUtil;
 
 /**
  * Contains the data of a single page.
@@ -32,8 +36,65 @@ import com.zapta.apps.maniana.annotations.VisibleForTesting;
  */
 @ApplicationScope
 public class PageModel {
-    /** List of items in the order they are displayed to the user */
-    private final List<ItemModel> mItems = new ArrayList<ItemModel>();
+    /**
+     * List of items in the order they are displayed to the user. A gap list since items are
+     * typically inserted at or near the top of the page.
+     */
+    private final List<ItemModel> mItems = new GapList<ItemModel>();
+
+    /**
+     * Index of the items in mItems by their id. The position hints are verified on lookup since
+     * operations that shift items do not update them.
+     */
+    private final ItemIdIndex mIdIndex = new ItemIdIndex();
+
+    /**
+     * Number of items in mItems per sorting group. Kept exact by the page operations and by the
+     * items themselves when their completed or locked state changes.
+     */
+    private final int[] mGroupItemCounts = new int[ItemModelReadOnly.SORTING_GROUPS];
+
+    /**
+     * Number of adjacent item pairs in mItems that are out of sorting order. The page is sorted
+     * iff this is zero. Updated incrementally by single item operations and recounted by bulk
+     * operations.
+     */
+    private int mOutOfOrderPairs = 0;
+
+    /** Multi level undo and redo history of the page items. */
+    private final PageHistory mHistory = new PageHistory();
+
+    /** Scratch array for sorting. Reused between sorts, cleared after each use. */
+    private ItemModel[] mSortScratch = new ItemModel[0];
+
+    /** Optional tracker that is informed of changes of the items. Set by the app model. */
+    @Nullable
+    private ModelChangeTracker mChangeTracker = null;
+
+    /**
+     * Incremented on each change of the items. Used to tell if the page changed since a given
+     * point, e.g. since the last snapshot.
+     */
+    private int mChangeCount = 0;
+
+    /** Index of the pending items by their scheduled time. Always maintained. */
+    private final DueTimeIndex mDueTimeIndex = new DueTimeIndex();
+
+    /**
+     * Index of the words of the item texts. Built on the first search and maintained with the
+     * items from then on. Dropped when all the items are replaced, e.g. on load, to be rebuilt by
+     * the next search.
+     */
+    @Nullable
+    private PageSearchIndex mSearchIndex = null;
+
+    /** Optional log that is informed when items of this page change. Set by the app model. */
+    @Nullable
+    private ModelMutationLog mMutationLog = null;
+
+    /** The kind of this page in the app model. Set with mChangeTracker. */
+    @Nullable
+    private PageKind mPageKind = null;
 
     /**
      * List of items to restore in case of undo operation. If empty, the page has no active undo
@@ -41,9 +102,39 @@ public class PageModel {
      */
     private final List<ItemModel> mUndoItems = new ArrayList<ItemModel>();
 
+    /**
+     * True if the page content is not persisted. Maintained by the app model, which knows which
+     * page each mutation affects.
+     */
+    private boolean mIsDirty = true;
+
     public PageModel() {
     }
 
+    /** Called by the app model to have the changes of the items of this page reported. */
+    final void setChangeTracker(PageKind pageKind, ModelChangeTracker changeTracker) {
+        mPageKind = pageKind;
+        mChangeTracker = changeTracker;
+    }
+
+    /** Called by the app model to have the changes of the items of this page logged. */
+    final void setMutationLog(@Nullable ModelMutationLog mutationLog) {
+        mMutationLog = mutationLog;
+    }
+
+    /** True if the changes of this page are reported. */
+    private final boolean isTrackingChanges() {
+        return mChangeTracker != null && mChangeTracker.isEnabled();
+    }
+
+    public final boolean isDirty() {
+        return mIsDirty;
+    }
+
+    public final void setDirty(boolean isDirty) {
+        mIsDirty = isDirty;
+    }
+
     /** For testing only. */
     @VisibleForTesting
     List<ItemModel> getUndoItemsCloneForTesting() {
@@ -56,15 +147,365 @@ public class PageModel {
         mUndoItems.add(item);
     }
 
-    /** Get a list iterator over the items. Allows to deleted items while iterating. */
+    /**
+     * Get a list iterator over the items. Allows to deleted items while iterating. Other
+     * modifications via the iterator are not supported.
+     */
     public final ListIterator<ItemModel> listIterator() {
-        return mItems.listIterator();
+        return new IndexedListIterator(mItems.listIterator());
     }
 
-    /** Clear all items and undo buffer */
-    public final void clear() {
+    /** A list iterator that keeps the id index in sync when items are removed. */
+    private final class IndexedListIterator implements ListIterator<ItemModel> {
+        private final ListIterator<ItemModel> mIterator;
+
+        @Nullable
+        private ItemModel mLastItem = null;
+
+        /** Index of mLastItem in mItems. */
+        private int mLastIndex = -1;
+
+        private IndexedListIterator(ListIterator<ItemModel> iterator) {
+            mIterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mIterator.hasNext();
+        }
+
+        @Override
+        public ItemModel next() {
+            mLastIndex = mIterator.nextIndex();
+            mLastItem = mIterator.next();
+            return mLastItem;
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return mIterator.hasPrevious();
+        }
+
+        @Override
+        public ItemModel previous() {
+            mLastIndex = mIterator.previousIndex();
+            mLastItem = mIterator.previous();
+            return mLastItem;
+        }
+
+        @Override
+        public int nextIndex() {
+            return mIterator.nextIndex();
+        }
+
+        @Override
+        public int previousIndex() {
+            return mIterator.previousIndex();
+        }
+
+        @Override
+        public void remove() {
+            mOutOfOrderPairs -= outOfOrderPairsAround(mLastIndex);
+            mIterator.remove();
+            mOutOfOrderPairs += outOfOrderPair(mLastIndex - 1);
+            onItemRemoved(mLastItem);
+            if (isTrackingChanges()) {
+                mChangeTracker.onRemoved(mPageKind, mLastIndex, 1);
+            }
+            mLastItem = null;
+            mLastIndex = -1;
+        }
+
+        @Override
+        public void set(ItemModel item) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(ItemModel item) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Update the id index and the counters for an item that was just added to mItems at given
+     * index.
+     */
+    private final void onItemAdded(ItemModel item, int position) {
+        mChangeCount++;
+        mIdIndex.add(item, position);
+        mGroupItemCounts[item.sortingGroupIndex()]++;
+        item.setPage(this);
+        mDueTimeIndex.update(item);
+        if (mSearchIndex != null) {
+            mSearchIndex.add(item);
+        }
+    }
+
+    /** Update the id index and the counters for an item that was just removed from mItems. */
+    private final void onItemRemoved(ItemModel item) {
+        mChangeCount++;
+        mIdIndex.remove(item);
+        mGroupItemCounts[item.sortingGroupIndex()]--;
+        item.setPage(null);
+        mDueTimeIndex.remove(item);
+        if (mSearchIndex != null) {
+            mSearchIndex.remove(item);
+        }
+    }
+
+    /** Remove all the items from mItems. */
+    private final void removeAllItems() {
+        mChangeCount++;
+        for (ItemModel item : mItems) {
+            item.setPage(null);
+        }
         mItems.clear();
+        mIdIndex.clear();
+        Arrays.fill(mGroupItemCounts, 0);
+        mOutOfOrderPairs = 0;
+        mDueTimeIndex.clear();
+        mSearchIndex = null;
+        if (isTrackingChanges()) {
+            mChangeTracker.onReset(mPageKind);
+        }
+    }
+
+    /** Called by an item of this page when its sorting group changed. */
+    final void onItemGroupChanged(ItemModel item, int oldGroupIndex, int newGroupIndex) {
+        mGroupItemCounts[oldGroupIndex]--;
+        mGroupItemCounts[newGroupIndex]++;
+
+        // Update the order of the pairs with the item neighbors.
+        final int itemIndex = indexOfItem(item);
+        check(itemIndex >= 0, "Item not in page");
+        if (itemIndex > 0) {
+            final int leftGroupIndex = mItems.get(itemIndex - 1).sortingGroupIndex();
+            mOutOfOrderPairs += isOutOfOrder(leftGroupIndex, newGroupIndex)
+                    - isOutOfOrder(leftGroupIndex, oldGroupIndex);
+        }
+        if (itemIndex + 1 < mItems.size()) {
+            final int rightGroupIndex = mItems.get(itemIndex + 1).sortingGroupIndex();
+            mOutOfOrderPairs += isOutOfOrder(newGroupIndex, rightGroupIndex)
+                    - isOutOfOrder(oldGroupIndex, rightGroupIndex);
+        }
+    }
+
+    /** Called by an item of this page when some of its fields changed. */
+    final void onItemChanged(ItemModel item, int fields) {
+        mChangeCount++;
+        if (mMutationLog != null) {
+            mMutationLog.onItemMutation(item);
+        }
+        if ((fields & (ModelChange.FIELD_SCHEDULED_TIME | ModelChange.FIELD_COMPLETED)) != 0) {
+            mDueTimeIndex.update(item);
+        }
+        if (mSearchIndex != null && (fields & ModelChange.FIELD_TEXT) != 0) {
+            mSearchIndex.update(item);
+        }
+        if (isTrackingChanges()) {
+            mChangeTracker.onChanged(mPageKind, indexOfItem(item), fields);
+        }
+    }
+
+    /** Give the item at given index a fresh unique id. */
+    final void assignFreshItemId(int itemIndex) {
+        mChangeCount++;
+        final ItemModel item = mItems.get(itemIndex);
+        mIdIndex.remove(item);
+        item.assignFreshId();
+        mIdIndex.add(item, itemIndex);
+    }
+
+    /** Return 1 if an item of the left group should not precede an item of the right group. */
+    private static final int isOutOfOrder(int leftGroupIndex, int rightGroupIndex) {
+        return (leftGroupIndex > rightGroupIndex) ? 1 : 0;
+    }
+
+    /**
+     * Return 1 if the pair of items at given index and the one after it is out of order, 0 if it
+     * is in order or if there is no such pair.
+     */
+    private final int outOfOrderPair(int leftIndex) {
+        if (leftIndex < 0 || leftIndex + 1 >= mItems.size()) {
+            return 0;
+        }
+        return isOutOfOrder(mItems.get(leftIndex).sortingGroupIndex(), mItems.get(leftIndex + 1)
+                .sortingGroupIndex());
+    }
+
+    /** Return the number of out of order pairs the item at given index is a member of. */
+    private final int outOfOrderPairsAround(int itemIndex) {
+        return outOfOrderPair(itemIndex - 1) + outOfOrderPair(itemIndex);
+    }
+
+    /** Recount the out of order pairs. Used after bulk changes. */
+    private final void recountOutOfOrderPairs() {
+        int count = 0;
+        final int n = mItems.size();
+        if (n > 0) {
+            int leftGroupIndex = mItems.get(0).sortingGroupIndex();
+            for (int i = 1; i < n; i++) {
+                final int groupIndex = mItems.get(i).sortingGroupIndex();
+                count += isOutOfOrder(leftGroupIndex, groupIndex);
+                leftGroupIndex = groupIndex;
+            }
+        }
+        mOutOfOrderPairs = count;
+    }
+
+    /** Return the index of given item or -1 if not in the page. Typically O(1). */
+    private final int indexOfItem(ItemModel item) {
+        @Nullable
+        final ItemIdIndex.Entry entry = mIdIndex.entryOf(item);
+        if (entry != null && (isPositionValid(entry) || refreshIndexPositions(entry))) {
+            return entry.position;
+        }
+        if (item.getPage() != this) {
+            return -1;
+        }
+        // The item is in the page but not indexed. Not expected, e.g. its id was changed.
+        rebuildIdIndex();
+        return mItems.indexOf(item);
+    }
+
+    /**
+     * Update the position hints of all the indexed items.
+     * 
+     * @param entry an entry the caller is interested in.
+     * @return true if the position of the given entry is valid after the update. Otherwise the
+     *         index was out of sync and was rebuilt, invalidating the entry.
+     */
+    private final boolean refreshIndexPositions(ItemIdIndex.Entry entry) {
+        final int n = mItems.size();
+        for (int i = 0; i < n; i++) {
+            final ItemModel item = mItems.get(i);
+            @Nullable
+            final ItemIdIndex.Entry itemEntry = mIdIndex.entryOf(item);
+            if (itemEntry == null) {
+                // Not expected, e.g. the id of the item was changed.
+                rebuildIdIndex();
+                return false;
+            }
+            itemEntry.position = i;
+        }
+        if (isPositionValid(entry)) {
+            return true;
+        }
+        // The entry of an item that is no longer in the page.
+        rebuildIdIndex();
+        return false;
+    }
+
+    /** Rebuild the id index from scratch. Used if it got out of sync with the items. */
+    private final void rebuildIdIndex() {
+        LogUtil.error("Item id index out of sync, rebuilding");
+        mIdIndex.clear();
+        final int n = mItems.size();
+        for (int i = 0; i < n; i++) {
+            mIdIndex.add(mItems.get(i), i);
+        }
+    }
+
+    /**
+     * Return the index of the item with given id or -1 if not found. If multiple items have this
+     * id, e.g. after a merge, returns the first of them. Typically O(1). The first lookup after
+     * an operation that shifted items updates all the position hints in one pass.
+     */
+    public final int findItemIndex(String id) {
+        return findItemIndex(IdUtil.prefixOf(id), IdUtil.suffixOf(id));
+    }
+
+    /** Like findItemIndex(String) but with the id in its compact form, see IdUtil. */
+    public final int findItemIndex(String idPrefix, long idSuffix) {
+        int result = -1;
+        for (ItemIdIndex.Entry entry = mIdIndex.find(idPrefix, idSuffix); entry != null; entry =
+                mIdIndex.findNext(entry)) {
+            if (!isPositionValid(entry) && !refreshIndexPositions(entry)) {
+                // The index was rebuilt, start over.
+                return findItemIndex(idPrefix, idSuffix);
+            }
+            if (result < 0 || entry.position < result) {
+                result = entry.position;
+            }
+        }
+        return result;
+    }
+
+    private final boolean isPositionValid(ItemIdIndex.Entry entry) {
+        return entry.position < mItems.size() && mItems.get(entry.position) == entry.item;
+    }
+
+    /**
+     * Return the ids of the items whose text matches given query, in page order. An item matches
+     * if each of the query words is a prefix of a word of its text, ignoring case. A query with
+     * no words matches all the items.
+     */
+    public final List<String> searchItems(String query) {
+        final int[] itemIndexes = searchItemIndexes(query);
+        final List<String> result = new ArrayList<String>(itemIndexes.length);
+        for (int itemIndex : itemIndexes) {
+            result.add(mItems.get(itemIndex).getId());
+        }
+        return result;
+    }
+
+    /**
+     * Like searchItems() but returns the indexes of the matching items, in ascending order. Items
+     * with the same id are all returned.
+     */
+    public final int[] searchItemIndexes(String query) {
+        if (mSearchIndex == null) {
+            mSearchIndex = new PageSearchIndex();
+            for (ItemModel item : mItems) {
+                mSearchIndex.add(item);
+            }
+        }
+
+        @Nullable
+        final List<ItemModel> matchingItems = mSearchIndex.search(query);
+        if (matchingItems == null) {
+            final int[] result = new int[mItems.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = i;
+            }
+            return result;
+        }
+
+        // Order by item index. The index lookups are O(1) once the position hints are fresh.
+        final int[] result = new int[matchingItems.size()];
+        int n = 0;
+        for (ItemModel item : matchingItems) {
+            result[n++] = indexOfItem(item);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Return the earliest scheduled time of a pending item that is after given time, or 0 if
+     * none. O(log n).
+     */
+    public final long nextScheduledTimeAfter(long time) {
+        return mDueTimeIndex.nextTimeAfter(time);
+    }
+
+    /** Return the number of pending items whose scheduled time is not after given time. */
+    public final int dueItemCount(long time) {
+        return mDueTimeIndex.dueItemCount(time);
+    }
+
+    /** For testing only. */
+    @VisibleForTesting
+    boolean hasSearchIndexForTesting() {
+        return mSearchIndex != null;
+    }
+
+    /** Clear all items, undo buffer and history. */
+    public final void clear() {
+        removeAllItems();
         clearUndo();
+        mHistory.clear();
     }
 
     /** Clear undo buffer. Does nothing if undo buffer is not active. */
@@ -79,7 +520,13 @@ public class PageModel {
 
     /** Insert a new item at given index. */
     public final void insertItem(int itemIndex, ItemModel item) {
+        mOutOfOrderPairs -= outOfOrderPair(itemIndex - 1);
         mItems.add(itemIndex, item);
+        mOutOfOrderPairs += outOfOrderPairsAround(itemIndex);
+        onItemAdded(item, itemIndex);
+        if (isTrackingChanges()) {
+            mChangeTracker.onInserted(mPageKind, itemIndex, 1);
+        }
     }
 
     /**
@@ -88,7 +535,32 @@ public class PageModel {
      * @return the removed item.
      */
     public final ItemModel removeItem(int itemIndex) {
-        return mItems.remove(itemIndex);
+        mOutOfOrderPairs -= outOfOrderPairsAround(itemIndex);
+        final ItemModel item = mItems.remove(itemIndex);
+        mOutOfOrderPairs += outOfOrderPair(itemIndex - 1);
+        onItemRemoved(item);
+        if (isTrackingChanges()) {
+            mChangeTracker.onRemoved(mPageKind, itemIndex, 1);
+        }
+        return item;
+    }
+
+    /**
+     * Move the item at given index to another index. The destination index is of the page after
+     * the item was removed.
+     */
+    public final void moveItem(int fromIndex, int toIndex) {
+        mChangeCount++;
+        // The item stays in the page so the id index and the counters are not affected.
+        mOutOfOrderPairs -= outOfOrderPairsAround(fromIndex);
+        final ItemModel item = mItems.remove(fromIndex);
+        mOutOfOrderPairs += outOfOrderPair(fromIndex - 1);
+        mOutOfOrderPairs -= outOfOrderPair(toIndex - 1);
+        mItems.add(toIndex, item);
+        mOutOfOrderPairs += outOfOrderPairsAround(toIndex);
+        if (isTrackingChanges()) {
+            mChangeTracker.onMoved(mPageKind, fromIndex, toIndex);
+        }
     }
 
     /**
@@ -98,29 +570,49 @@ public class PageModel {
         return mItems.get(itemIndex);
     }
 
+    /** A count that changes whenever the items of the page change. */
+    final int changeCount() {
+        return mChangeCount;
+    }
+
     /** Get number of items in this page. */
     public final int itemCount() {
         return mItems.size();
     }
     
-    /** Get number of incomplete items in this page. */
+    /** Get number of incomplete items in this page. O(1). */
     public final int pendingItemCount() {
-        int count = 0;
-        for (ItemModel item : mItems) {
-          if (!item.isCompleted()) {
-              count++;
-          }
-        }
-        return count;
+        return mGroupItemCounts[ItemModel.GROUP_PENDING] + mGroupItemCounts[ItemModel.GROUP_LOCKED];
+    }
+
+    /** Get number of completed items in this page. O(1). */
+    public final int completedItemCount() {
+        return mGroupItemCounts[ItemModel.GROUP_COMPLETED]
+                + mGroupItemCounts[ItemModel.GROUP_COMPLETED_LOCKED];
+    }
+
+    /** Get number of locked items in this page. O(1). */
+    public final int lockedItemCount() {
+        return mGroupItemCounts[ItemModel.GROUP_COMPLETED_LOCKED]
+                + mGroupItemCounts[ItemModel.GROUP_LOCKED];
+    }
+
+    /**
+     * Get number of items in this page with given sorting group index. O(1).
+     * 
+     * @see ItemModelReadOnly#sortingGroupIndex()
+     */
+    public final int groupItemCount(int groupIndex) {
+        return mGroupItemCounts[groupIndex];
     }
 
     /**
      * Copy cloned items from other page. Undo buffer is not changed.
      */
     public final void copyItemsFrom(PageModel otherModel) {
-        mItems.clear();
+        removeAllItems();
         for (ItemModel otherItem : otherModel.mItems) {
-            mItems.add(new ItemModel(otherItem));
+            appendItem(new ItemModel(otherItem));
         }
     }
 
@@ -137,7 +629,14 @@ public class PageModel {
         // NOTE(tal): we add the items at the begining of the list, preserving their
         // relative order.
         mItems.addAll(0, mUndoItems);
+        for (int i = 0; i < n; i++) {
+            onItemAdded(mItems.get(i), i);
+        }
+        recountOutOfOrderPairs();
         mUndoItems.clear();
+        if (isTrackingChanges()) {
+            mChangeTracker.onInserted(mPageKind, 0, n);
+        }
         return n;
     }
 
@@ -152,6 +651,145 @@ public class PageModel {
         mUndoItems.add(deletedItem);
     }
 
+    /**
+     * Insert items at given index. The items are inserted with a single shift of the following
+     * items.
+     */
+    public final void insertItems(int itemIndex, List<ItemModel> items) {
+        mItems.addAll(itemIndex, items);
+        final int n = items.size();
+        for (int i = 0; i < n; i++) {
+            onItemAdded(items.get(i), itemIndex + i);
+        }
+        recountOutOfOrderPairs();
+        if (isTrackingChanges()) {
+            mChangeTracker.onInserted(mPageKind, itemIndex, n);
+        }
+    }
+
+    /**
+     * Partition the items for a push to the other page, in a single pass. Unlocked items are
+     * removed and appended to movedItems, completed items are moved to the undo buffer if
+     * deleteCompletedItems and the rest are kept in place. Relative order is preserved. Does not
+     * clear the undo buffer.
+     * 
+     * @param expireAllLocks if true, locked items are unlocked and moved.
+     */
+    public final void extractItemsForPush(boolean expireAllLocks, boolean deleteCompletedItems,
+            List<ItemModel> movedItems) {
+        final int n = mItems.size();
+        final boolean isTrackingChanges = isTrackingChanges();
+        int keptCount = 0;
+        for (int i = 0; i < n; i++) {
+            final ItemModel item = mItems.get(i);
+            // Completed items are deleted even if locked.
+            if (deleteCompletedItems && item.isCompleted()) {
+                onItemRemoved(item);
+                mUndoItems.add(item);
+            } else if (expireAllLocks || !item.isLocked()) {
+                onItemRemoved(item);
+                movedItems.add(item);
+            } else {
+                mItems.set(keptCount++, item);
+                continue;
+            }
+            // Its index after the preceding removals.
+            if (isTrackingChanges) {
+                mChangeTracker.onRemoved(mPageKind, keptCount, 1);
+            }
+            // Expired after the item left the page so the page is not informed while compacted.
+            if (expireAllLocks && item.isLocked()) {
+                item.setIsLocked(false);
+            }
+        }
+        removeTail(keptCount);
+    }
+
+    /**
+     * Move the completed items to the end of the undo buffer, in a single pass. Does not clear
+     * the undo buffer.
+     */
+    public final void moveCompletedItemsToUndo() {
+        final int n = mItems.size();
+        final boolean isTrackingChanges = isTrackingChanges();
+        int keptCount = 0;
+        for (int i = 0; i < n; i++) {
+            final ItemModel item = mItems.get(i);
+            if (item.isCompleted()) {
+                onItemRemoved(item);
+                mUndoItems.add(item);
+                if (isTrackingChanges) {
+                    mChangeTracker.onRemoved(mPageKind, keptCount, 1);
+                }
+            } else {
+                mItems.set(keptCount++, item);
+            }
+        }
+        removeTail(keptCount);
+    }
+
+    /** Remove the items from given index to the end. */
+    private final void removeTail(int itemIndex) {
+        mItems.subList(itemIndex, mItems.size()).clear();
+        // Called after bulk changes.
+        recountOutOfOrderPairs();
+    }
+
+    /**
+     * Replace all the items with given items, which should not be in any page. Clears the undo
+     * buffer since it may not apply to the new items.
+     */
+    final void replaceItems(List<ItemModel> items) {
+        removeAllItems();
+        clearUndo();
+        insertItems(0, items);
+    }
+
+    /**
+     * Record the current items in the page history. Should be called after each user level
+     * operation that changed the page. O(1) if the page did not change since the last call.
+     * 
+     * @return true if the items changed since the last call.
+     */
+    public final boolean checkpointHistory() {
+        return mHistory.checkpoint(this);
+    }
+
+    /**
+     * Return the current version of the page history if the items did not change since it was
+     * captured, otherwise null.
+     */
+    @Nullable
+    final PageVersion currentHistoryVersion() {
+        return mHistory.currentVersion(this);
+    }
+
+    public final boolean canUndoHistory() {
+        return mHistory.canUndo();
+    }
+
+    public final boolean canRedoHistory() {
+        return mHistory.canRedo();
+    }
+
+    /**
+     * Restore the items to their state at the previous history checkpoint.
+     * 
+     * @return true if restored, false if no history to undo.
+     */
+    public final boolean undoHistory() {
+        return mHistory.undo(this);
+    }
+
+    /**
+     * Restore the items to the state undone last by undoHistory().
+     * 
+     * @return true if restored, false if nothing to redo.
+     */
+    public final boolean redoHistory() {
+        return mHistory.redo(this);
+    }
+
     /** Append item to end of undo list. Item should not be in any page item list. */
     public final void appendItemToUndo(ItemModel item) {
         mUndoItems.add(item);
@@ -160,17 +798,22 @@ public class PageModel {
     /** Append an item at the end of the page */
     public void appendItem(ItemModel item) {
         mItems.add(item);
+        mOutOfOrderPairs += outOfOrderPair(mItems.size() - 2);
+        onItemAdded(item, mItems.size() - 1);
+        if (isTrackingChanges()) {
+            mChangeTracker.onInserted(mPageKind, mItems.size() - 1, 1);
+        }
     }
 
     public final void restoreBackup(PageModel newPage) {
         // Move all existing items to the undo buffer
         mUndoItems.clear();
-        mItems.clear();
+        removeAllItems();
 
         // Add copies of the items in the new page
         for (ItemModel item : newPage.mItems) {
             final ItemModel newItem = new ItemModel(item);
-            mItems.add(newItem);
+            appendItem(newItem);
         }
     }
 
@@ -193,91 +836,80 @@ public class PageModel {
         final ItemModel itemOfInterest = (itemOfInterestIndex == -1) ? null : mItems
                 .get(itemOfInterestIndex);
 
-        // We clear any old undo only if the current operation actually deletes items.
-        boolean oldUndoCleared = false;
-
-        // Count completed items. If deleteCompletedItems than also delete them
-        // and add to undo buffer. Also detects if the items are out of sorting order.
-        boolean isOutOfOrder = false;
-        {
-            ListIterator<ItemModel> iterator = mItems.listIterator();
-            int maxItemGroupIndexSoFar = 0;
-            while (iterator.hasNext()) {
-                final ItemModel item = iterator.next();
-                if (item.isCompleted()) {
-                    summary.completedItemsFound++;
-                    if (deleteCompletedItems) {
-                        // Here to delete item.
-                        if (!oldUndoCleared) {
-                            mUndoItems.clear();
-                            oldUndoCleared = true;
-                        }
-                        iterator.remove();
-                        mUndoItems.add(item);
-                        summary.completedItemsDeleted++;
-                        // Do not continue to the item order checking below since this item
-                        // was deleted from the list.
-                        continue;
-                    }
-                }
-
-                // Here when the item was left in the list
-                final int itemGroupIndex = item.sortingGroupIndex();
-                if (itemGroupIndex < maxItemGroupIndexSoFar) {
-                    isOutOfOrder = true;
-                } else {
-                    maxItemGroupIndexSoFar = itemGroupIndex;
-                }
-            }
+        // Count completed items. If deleteCompletedItems than also delete them and add to undo
+        // buffer. We clear any old undo only if the current operation actually deletes items.
+        summary.completedItemsFound = completedItemCount();
+        if (deleteCompletedItems && summary.completedItemsFound > 0) {
+            mUndoItems.clear();
+            moveCompletedItemsToUndo();
+            summary.completedItemsDeleted = summary.completedItemsFound;
         }
 
+        // Index of the item of interest if known without a search.
+        int itemOfInterestNewIndex = -1;
+
         // If out of order, sort by groups, preserving order within each group.
+        final boolean isOutOfOrder = !isPageSorted();
         if (isOutOfOrder) {
-            final ItemModel[] newOrder = new ItemModel[mItems.size()];
-            int itemsCopied = 0;
-
-            // Performing one pass per sorting group. On each pass, picking the items of that
-            // group and adding to newOrder. This algorithm is optimized for minimal object
-            // creation.
-            for (int groupIndex = 0; groupIndex < ItemModelReadOnly.SORTING_GROUPS; groupIndex++) {
-                for (int itemIndex = 0; itemIndex < mItems.size(); itemIndex++) {
-                    final ItemModel item = mItems.get(itemIndex);
-                    // Classify item by the group it belongs to.
-                    final int itemGroupIndex = item.sortingGroupIndex();
-                    if (itemGroupIndex == groupIndex) {
-                        newOrder[itemsCopied] = item;
-                        itemsCopied++;
-                    }
-                }
-            }
-
-            // Copy the newOrder array to mItems
-            check(mItems.size() == itemsCopied);
-            for (int i = 0; i < itemsCopied; i++) {
-                mItems.set(i, newOrder[i]);
-            }
+            itemOfInterestNewIndex = sortByGroups(itemOfInterest);
+        } else if (itemOfInterest != null) {
+            // Not moved by sorting but may have been shifted by deletions.
+            itemOfInterestNewIndex = indexOfItem(itemOfInterest);
         }
 
-        // If requested, locate new location of item of interest.
-        if (itemOfInterest != null) {
-            final int itemOfInteresetNewIndex = mItems.indexOf(itemOfInterest);
-            if (itemOfInteresetNewIndex >= 0) {
-                summary.itemOfInterestNewIndex = itemOfInteresetNewIndex;
-            }
+        // If requested, report the new location of the item of interest.
+        if (itemOfInterestNewIndex >= 0) {
+            summary.itemOfInterestNewIndex = itemOfInterestNewIndex;
         }
 
         summary.orderChanged = isOutOfOrder;
     }
 
-    public final boolean isPageSorted() {
-        int maxGroupIndexSoFar = 0;
-        for (ItemModel item : mItems) {
-            int itemGroupIndex = item.sortingGroupIndex();
-            if (itemGroupIndex < maxGroupIndexSoFar) {
-                return false;
+    /**
+     * Stable sort of the items by their sorting groups. A counting sort that places each item
+     * directly at its final position, using the group counters.
+     * 
+     * @param itemOfInterest optional item to track.
+     * @return the new index of itemOfInterest or -1 if not specified or not found.
+     */
+    private final int sortByGroups(@Nullable ItemModel itemOfInterest) {
+        mChangeCount++;
+        final int n = mItems.size();
+        if (mSortScratch.length < n) {
+            mSortScratch = new ItemModel[n + (n >> 1)];
+        }
+
+        // Index of the next slot of each group.
+        final int[] nextGroupSlot = new int[ItemModelReadOnly.SORTING_GROUPS];
+        for (int groupIndex = 1; groupIndex < ItemModelReadOnly.SORTING_GROUPS; groupIndex++) {
+            nextGroupSlot[groupIndex] = nextGroupSlot[groupIndex - 1]
+                    + mGroupItemCounts[groupIndex - 1];
+        }
+
+        int itemOfInterestNewIndex = -1;
+        for (int i = 0; i < n; i++) {
+            final ItemModel item = mItems.get(i);
+            final int newIndex = nextGroupSlot[item.sortingGroupIndex()]++;
+            mSortScratch[newIndex] = item;
+            if (item == itemOfInterest) {
+                itemOfInterestNewIndex = newIndex;
             }
-            maxGroupIndexSoFar = itemGroupIndex;
         }
-        return true;
+
+        for (int i = 0; i < n; i++) {
+            mItems.set(i, mSortScratch[i]);
+        }
+        // Do not keep references to the items.
+        Arrays.fill(mSortScratch, 0, n, null);
+        mOutOfOrderPairs = 0;
+        if (isTrackingChanges()) {
+            mChangeTracker.onReordered(mPageKind);
+        }
+        return itemOfInterestNewIndex;
+    }
+
+    /** Test if the items are in sorting order. O(1). */
+    public final boolean isPageSorted() {
+        return mOutOfOrderPairs == 0;
     }
 }
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+
+/**
+ * An inverted index of the words of the item texts of a page. Prefix queries binary search a
+ * sorted array of the distinct words, so the items with words that start with a given prefix are
+ * found without scanning the items. The array is sorted lazily, on the first query after a new
+ * word was indexed.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+final class PageSearchIndex {
+
+    /** The index data of an item. */
+    private static final class Entry {
+        private final ItemModel item;
+
+        /** The distinct words of the item text, as indexed. */
+        private final String[] words;
+
+        /** The position of this entry in the posting list of each of the words. */
+        private final int[] postingPositions;
+
+        /** Search generation of the last search that collected this entry. */
+        private int searchMark = 0;
+
+        private Entry(ItemModel item, String[] words) {
+            this.item = item;
+            this.words = words;
+            this.postingPositions = new int[words.length];
+        }
+    }
+
+    /** The entries of the indexed items. */
+    private final Map<ItemModel, Entry> mEntries = new IdentityHashMap<ItemModel, Entry>();
+
+    /** Maps each word to the entries of the items with that word, in no particular order. */
+    private final Map<String, List<Entry>> mPostings = new HashMap<String, List<Entry>>();
+
+    /**
+     * The words of mPostings, sorted. Null if words were added since it was sorted. May contain
+     * words that are no longer indexed.
+     */
+    @Nullable
+    private String[] mSortedWords = null;
+
+    /** Incremented by each search, to mark the entries it collected. */
+    private int mSearchGeneration = 0;
+
+    /** Index given item. Does nothing if already indexed. */
+    final void add(ItemModel item) {
+        if (mEntries.containsKey(item)) {
+            return;
+        }
+        final Entry entry = new Entry(item, tokenize(item.getText()));
+        mEntries.put(item, entry);
+        for (int i = 0; i < entry.words.length; i++) {
+            List<Entry> posting = mPostings.get(entry.words[i]);
+            if (posting == null) {
+                posting = new ArrayList<Entry>(2);
+                mPostings.put(entry.words[i], posting);
+                mSortedWords = null;
+            }
+            entry.postingPositions[i] = posting.size();
+            posting.add(entry);
+        }
+    }
+
+    /** Unindex given item. Does nothing if not indexed. */
+    final void remove(ItemModel item) {
+        final Entry entry = mEntries.remove(item);
+        if (entry == null) {
+            return;
+        }
+        for (int i = 0; i < entry.words.length; i++) {
+            final String word = entry.words[i];
+            final List<Entry> posting = mPostings.get(word);
+            // Move the last entry of the posting to the position of the removed entry.
+            final Entry lastEntry = posting.remove(posting.size() - 1);
+            if (lastEntry != entry) {
+                final int position = entry.postingPositions[i];
+                posting.set(position, lastEntry);
+                lastEntry.postingPositions[indexOfWord(lastEntry, word)] = position;
+            }
+            if (posting.isEmpty()) {
+                mPostings.remove(word);
+            }
+        }
+    }
+
+    /** Reindex an indexed item whose text changed. */
+    final void update(ItemModel item) {
+        remove(item);
+        add(item);
+    }
+
+    final int itemCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * Return the items that match given query, in no particular order. An item matches if each of
+     * the query words is a prefix of some word of the item text. Returns null if the query has no
+     * words, in which case all the items match.
+     */
+    @Nullable
+    final List<ItemModel> search(String query) {
+        final String[] queryWords = tokenize(query);
+        if (queryWords.length == 0) {
+            return null;
+        }
+
+        // Candidates are the items of the words with the first prefix. The other words are checked
+        // per candidate since there are typically few candidates after the first word. Entries
+        // with more than one matching word are collected once using the search mark.
+        final int generation = ++mSearchGeneration;
+        final List<Entry> candidates = new ArrayList<Entry>();
+        final String[] sortedWords = sortedWords();
+        final String prefix = queryWords[0];
+        for (int i = lowerBound(sortedWords, prefix); i < sortedWords.length
+                && sortedWords[i].startsWith(prefix); i++) {
+            @Nullable
+            final List<Entry> posting = mPostings.get(sortedWords[i]);
+            if (posting == null) {
+                // No longer indexed.
+                continue;
+            }
+            for (Entry entry : posting) {
+                if (entry.searchMark != generation) {
+                    entry.searchMark = generation;
+                    candidates.add(entry);
+                }
+            }
+        }
+
+        final List<ItemModel> result = new ArrayList<ItemModel>(candidates.size());
+        for (Entry entry : candidates) {
+            if (hasWordsWithPrefixes(entry.words, queryWords)) {
+                result.add(entry.item);
+            }
+        }
+        return result;
+    }
+
+    private final String[] sortedWords() {
+        if (mSortedWords == null) {
+            mSortedWords = mPostings.keySet().toArray(new String[mPostings.size()]);
+            Arrays.sort(mSortedWords);
+        }
+        return mSortedWords;
+    }
+
+    /** Return the index of the first word that is not less than given key. */
+    private static final int lowerBound(String[] sortedWords, String key) {
+        int low = 0;
+        int high = sortedWords.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (sortedWords[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static final int indexOfWord(Entry entry, String word) {
+        for (int i = 0; i < entry.words.length; i++) {
+            if (entry.words[i].equals(word)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Word not found: " + word);
+    }
+
+    /** Test if each of the prefixes other than the first is a prefix of one of the words. */
+    private static final boolean hasWordsWithPrefixes(String[] words, String[] prefixes) {
+        for (int i = 1; i < prefixes.length; i++) {
+            if (!hasWordWithPrefix(words, prefixes[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final boolean hasWordWithPrefix(String[] words, String prefix) {
+        for (String word : words) {
+            if (word.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Split text into its distinct lower case words. A word is a maximal run of letters and
+     * digits.
+     */
+    static final String[] tokenize(String text) {
+        final List<String> words = new ArrayList<String>();
+        final int n = text.length();
+        int i = 0;
+        while (i < n) {
+            while (i < n && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            final int start = i;
+            while (i < n && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                final String word = toLowerCase(text, start, i);
+                if (!words.contains(word)) {
+                    words.add(word);
+                }
+            }
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    /** Per char lower case, independent of the default locale. */
+    private static final String toLowerCase(String text, int start, int end) {
+        final char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            chars[i - start] = Character.toLowerCase(text.charAt(i));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+
+/**
+ * An immutable version of the items of a page.
+ * 
+ * The items are frozen copies that are never mutated, stored in fixed size chunks. A version is
+ * captured relative to a base version and shares with it the copies of the items that did not
+ * change and the chunks whose items are all shared, so consecutive versions cost memory
+ * proportional to the changes between them.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+final class PageVersion {
+
+    /** Items per chunk. */
+    private static final int CHUNK_SIZE = 32;
+
+    /** Estimated fixed size of an item copy, in bytes. */
+    static final int ITEM_BYTES = 64;
+
+    /** Estimated fixed size of a chunk, in bytes. */
+    private static final int CHUNK_BYTES = 16 + 4 * CHUNK_SIZE;
+
+    /** The items. All chunks are full except maybe the last one. */
+    private final ItemModel[][] mChunks;
+
+    private final int mItemCount;
+
+    /** Estimated size of the items and chunks that are not shared with the base version. */
+    private final long mOwnBytes;
+
+    /** Estimated size of all the items and chunks, including the shared ones. */
+    private final long mTotalBytes;
+
+    /** A version with no items. */
+    static final PageVersion EMPTY = new PageVersion(new ItemModel[0][], 0, 0, 0);
+
+    private PageVersion(ItemModel[][] chunks, int itemCount, long ownBytes, long totalBytes) {
+        mChunks = chunks;
+        mItemCount = itemCount;
+        mOwnBytes = ownBytes;
+        mTotalBytes = totalBytes;
+    }
+
+    /**
+     * Capture the current items of a page.
+     * 
+     * @param base optional version to share unchanged items and chunks with, typically the
+     *        previous version of the same page.
+     */
+    static PageVersion capture(PageModel page, @Nullable PageVersion base) {
+        final int n = page.itemCount();
+
+        // Frozen copies of the base by id. Temporary, built only if an item is not at the same
+        // index in the base, e.g. after an insertion.
+        ItemIdIndex baseItems = null;
+
+        final int chunkCount = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        final ItemModel[][] chunks = new ItemModel[chunkCount][];
+        long ownBytes = 0;
+        long totalBytes = chunkCount * CHUNK_BYTES;
+        for (int c = 0; c < chunkCount; c++) {
+            final int chunkStart = c * CHUNK_SIZE;
+            final ItemModel[] chunk = new ItemModel[Math.min(CHUNK_SIZE, n - chunkStart)];
+            for (int i = 0; i < chunk.length; i++) {
+                final ItemModel item = page.getItem(chunkStart + i);
+                final int itemBytes = ITEM_BYTES + 2 * item.getText().length();
+                totalBytes += itemBytes;
+                ItemModel baseItem = (base == null) ? null : base.itemOrNull(chunkStart + i);
+                if (base != null && (baseItem == null || !item.hasSameId(baseItem))) {
+                    if (baseItems == null) {
+                        baseItems = base.itemsById();
+                    }
+                    @Nullable
+                    final ItemIdIndex.Entry entry = baseItems.find(item.getIdPrefix(),
+                            item.getIdSuffix());
+                    baseItem = (entry == null) ? null : entry.item;
+                }
+                if (baseItem != null && item.hasSameState(baseItem)) {
+                    chunk[i] = baseItem;
+                } else {
+                    chunk[i] = new ItemModel(item);
+                    ownBytes += itemBytes;
+                }
+            }
+            // Share the base chunk if it has the same items.
+            final ItemModel[] baseChunk = (base == null) ? null : base.chunkOrNull(c);
+            if (baseChunk != null && hasSameItems(chunk, baseChunk)) {
+                chunks[c] = baseChunk;
+            } else {
+                chunks[c] = chunk;
+                ownBytes += CHUNK_BYTES;
+            }
+        }
+        return new PageVersion(chunks, n, ownBytes, totalBytes);
+    }
+
+    @Nullable
+    private ItemModel itemOrNull(int itemIndex) {
+        return (itemIndex < mItemCount) ? mChunks[itemIndex / CHUNK_SIZE][itemIndex % CHUNK_SIZE]
+                : null;
+    }
+
+    private ItemIdIndex itemsById() {
+        final ItemIdIndex result = new ItemIdIndex();
+        for (ItemModel[] chunk : mChunks) {
+            for (ItemModel item : chunk) {
+                // Positions are not used.
+                result.add(item, -1);
+            }
+        }
+        return result;
+    }
+
+    @Nullable
+    private ItemModel[] chunkOrNull(int chunkIndex) {
+        return (chunkIndex < mChunks.length) ? mChunks[chunkIndex] : null;
+    }
+
+    private static boolean hasSameItems(ItemModel[] chunk1, ItemModel[] chunk2) {
+        if (chunk1.length != chunk2.length) {
+            return false;
+        }
+        for (int i = 0; i < chunk1.length; i++) {
+            if (chunk1[i] != chunk2[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    final int itemCount() {
+        return mItemCount;
+    }
+
+    final ItemModelReadOnly getItem(int itemIndex) {
+        return mChunks[itemIndex / CHUNK_SIZE][itemIndex % CHUNK_SIZE];
+    }
+
+    /** Estimated memory held by this version and not by its base version. */
+    final long ownBytes() {
+        return mOwnBytes;
+    }
+
+    /** Estimated memory of this version, including what it shares with other versions. */
+    final long totalBytes() {
+        return mTotalBytes;
+    }
+
+    /** Test if the two versions have the same items. O(chunks). */
+    final boolean isSameAs(PageVersion other) {
+        if (mItemCount != other.mItemCount) {
+            return false;
+        }
+        for (int c = 0; c < mChunks.length; c++) {
+            if (mChunks[c] != other.mChunks[c]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return mutable copies of the items, in order. */
+    final List<ItemModel> copyItems() {
+        final List<ItemModel> result = new ArrayList<ItemModel>(mItemCount);
+        for (ItemModel[] chunk : mChunks) {
+            for (ItemModel item : chunk) {
+                result.add(new ItemModel(item));
+            }
+        }
+        return result;
+    }
+}
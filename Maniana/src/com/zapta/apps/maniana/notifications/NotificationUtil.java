@@ -35,6 +35,9 @@ public class NotificationUtil {
     /** Arbitrary notification ID, unique within this app. */
     private static final int NOTIFICATION_ID = 1000;
 
+    /** Notification ID of the due items notification. Independent of the pending items one. */
+    private static final int DUE_ITEMS_NOTIFICATION_ID = 1001;
+
     /**
      * Send pending items notification. Ok to call multiple times (they do not accumulate).
      * pendingItemsCount should be >= 1. Should be called only if notifications are enabled in app
@@ -44,9 +47,6 @@ public class NotificationUtil {
             boolean enableLed) {
         LogUtil.info("Sending notification (%d items)", pendingItemsCount);
 
-        final NotificationManager notificationManager = (NotificationManager) context
-                .getSystemService(Context.NOTIFICATION_SERVICE);
-
         // TODO: set this to midnight.
         final long when = System.currentTimeMillis();
 
@@ -59,16 +59,58 @@ public class NotificationUtil {
                 when);
 
         if (enableLed) {
-            notification.ledARGB = 0xff00ff00;
-            notification.ledOnMS = 300;
-            notification.ledOffMS = 1000;
-            notification.flags |= Notification.FLAG_SHOW_LIGHTS;
+            enableLed(notification);
         }
 
         // notification.flags |= Notification.FLAG_ONLY_ALERT_ONCE;
         notification.flags |= Notification.FLAG_AUTO_CANCEL;
         notification.number = pendingItemsCount;
 
+        notify(context, NOTIFICATION_ID, notification, title);
+    }
+
+    /**
+     * Send due items notification. Ok to call multiple times (they do not accumulate).
+     * dueItemsCount should be >= 1. Should be called only if notifications are enabled in app
+     * settings.
+     * 
+     * @param enableSound if true, the notification plays the default notification sound.
+     */
+    public static void sendDueItemsNotification(Context context, int dueItemsCount,
+            boolean enableLed, boolean enableSound) {
+        LogUtil.info("Sending due notification (%d items)", dueItemsCount);
+
+        final String title = (dueItemsCount == 1) ? context
+                .getString(R.string.notification_title_single_due_task) : context.getString(
+                R.string.notification_title_d_due_tasks, dueItemsCount);
+
+        final Notification notification = new Notification(R.drawable.app_notification_icon, title,
+                System.currentTimeMillis());
+        if (enableLed) {
+            enableLed(notification);
+        }
+        if (enableSound) {
+            notification.defaults |= Notification.DEFAULT_SOUND;
+        }
+        notification.flags |= Notification.FLAG_AUTO_CANCEL;
+        notification.number = dueItemsCount;
+
+        notify(context, DUE_ITEMS_NOTIFICATION_ID, notification, title);
+    }
+
+    private static void enableLed(Notification notification) {
+        notification.ledARGB = 0xff00ff00;
+        notification.ledOnMS = 300;
+        notification.ledOffMS = 1000;
+        notification.flags |= Notification.FLAG_SHOW_LIGHTS;
+    }
+
+    /** Set the content of the notification to open the app and post it. */
+    private static void notify(Context context, int notificationId, Notification notification,
+            String title) {
+        final NotificationManager notificationManager = (NotificationManager) context
+                .getSystemService(Context.NOTIFICATION_SERVICE);
+
         final String content = context.getString(R.string.notification_content);
 
         final Intent notificationIntent = new Intent(context, MainActivity.class);
@@ -77,7 +119,7 @@ public class NotificationUtil {
 
         notification.setLatestEventInfo(context, title, content, pendingItent);
 
-        notificationManager.notify(NOTIFICATION_ID, notification);
+        notificationManager.notify(notificationId, notification);
     }
 
     /** Clear any pending notification. */
@@ -85,5 +127,6 @@ public class NotificationUtil {
         final NotificationManager notificationManager = (NotificationManager) context
                 .getSystemService(Context.NOTIFICATION_SERVICE);
         notificationManager.cancel(NOTIFICATION_ID);
+        notificationManager.cancel(DUE_ITEMS_NOTIFICATION_ID);
     }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.persistence;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+
+/**
+ * Reads the primitives written by {@link BinaryStreamWriter}. Malformed data is reported as
+ * JSONException to match the error handling of the JSON format.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+public class BinaryStreamReader {
+
+    /** Sanity limit on the length of a single string. */
+    private static final int MAX_STRING_BYTES = 1024 * 1024;
+
+    private final InputStream mIn;
+
+    /** The strings read so far, by table index. */
+    private final List<String> mStringTable = new ArrayList<String>();
+
+    /** Scratch buffer for string bytes. Reused to avoid object allocation. */
+    private byte[] mBuffer = new byte[256];
+
+    /** The stream should be buffered since it is read one byte at a time. */
+    public BinaryStreamReader(InputStream in) {
+        mIn = in;
+    }
+
+    public final int readByte() throws IOException {
+        final int b = mIn.read();
+        if (b < 0) {
+            throw new EOFException("Unexpected end of binary model");
+        }
+        return b;
+    }
+
+    /** Read a non negative varint. */
+    public final long readVarLong() throws IOException, JSONException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new JSONException("Malformed varint");
+    }
+
+    /** Read a non negative varint that should fit in an int. */
+    public final int readVarInt() throws IOException, JSONException {
+        final long value = readVarLong();
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new JSONException("Varint out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    /** Read a zigzag encoded varint. */
+    public final long readSignedVarLong() throws IOException, JSONException {
+        final long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /** Read a string written through the string table. */
+    public final String readString() throws IOException, JSONException {
+        final int ref = readVarInt();
+        if (ref > 0) {
+            if (ref > mStringTable.size()) {
+                throw new JSONException("Bad string reference: " + ref);
+            }
+            return mStringTable.get(ref - 1);
+        }
+
+        final int length = readVarInt();
+        if (length > MAX_STRING_BYTES) {
+            throw new JSONException("String too long: " + length);
+        }
+        if (length > mBuffer.length) {
+            mBuffer = new byte[Math.max(length, mBuffer.length * 2)];
+        }
+        int count = 0;
+        while (count < length) {
+            final int n = mIn.read(mBuffer, count, length - count);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of binary model");
+            }
+            count += n;
+        }
+        final String result = new String(mBuffer, 0, length, "UTF-8");
+        mStringTable.add(result);
+        return result;
+    }
+}
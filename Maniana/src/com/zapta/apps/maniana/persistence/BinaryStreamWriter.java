@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.persistence;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+
+/**
+ * Writes the primitives of the binary model format. Counterpart of {@link BinaryStreamReader}.
+ * 
+ * Integers are written as base 128 varints, signed values are zigzag encoded first so small
+ * negative values are also short. Strings are written through a string table that is built as
+ * the stream is written. The first occurrence of a string is written as a zero reference followed
+ * by its UTF-8 bytes, following occurrences are written as a reference to the table entry.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+public class BinaryStreamWriter {
+
+    private final OutputStream mOut;
+
+    /** Maps the strings written so far to their table index. */
+    private final Map<String, Integer> mStringTable = new HashMap<String, Integer>();
+
+    public BinaryStreamWriter(OutputStream out) {
+        mOut = out;
+    }
+
+    public final void writeBytes(byte[] bytes) throws IOException {
+        mOut.write(bytes);
+    }
+
+    public final void writeByte(int value) throws IOException {
+        mOut.write(value);
+    }
+
+    /** Write a non negative value as a varint. */
+    public final void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            mOut.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        mOut.write((int) value);
+    }
+
+    /** Write a signed value as a zigzag encoded varint. */
+    public final void writeSignedVarLong(long value) throws IOException {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /** Write a string through the string table. */
+    public final void writeString(String value) throws IOException {
+        final Integer index = mStringTable.get(value);
+        if (index != null) {
+            writeVarLong(index + 1);
+            return;
+        }
+        mStringTable.put(value, mStringTable.size());
+        final byte[] bytes = value.getBytes("UTF-8");
+        writeVarLong(0);
+        writeVarLong(bytes.length);
+        mOut.write(bytes);
+    }
+
+    public final void flush() throws IOException {
+        mOut.flush();
+    }
+}
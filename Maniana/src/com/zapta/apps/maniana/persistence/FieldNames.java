@@ -39,4 +39,17 @@ public interface FieldNames {
     static String FIELD_LOCKED = "locked";
     static String FIELD_SCHEDULED = "scheduled";
     static String FIELD_COLOR = "color";
+
+    // Metadata fields.
+    static String FIELD_WRITER_VERSION_CODE = "writer_ver_code";
+    static String FIELD_WRITER_VERSION_NAME = "writer_ver_name";
+    static String FIELD_JOURNAL_GENERATION = "journal_gen";
+
+    // Journal record fields.
+    static String FIELD_OP = "op";
+    static String FIELD_PAGE = "page";
+    static String FIELD_INDEX = "index";
+    static String FIELD_ITEM = "item";
+    static String FIELD_EXPIRE_LOCKS = "expire_locks";
+    static String FIELD_DELETE_COMPLETED = "delete_completed";
 }
@@ -0,0 +1,586 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+import org.json.JSONException;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+
+/**
+ * A minimal pull parser for JSON docs. Reads tokens directly from a character stream without
+ * building an intermediate tree.
+ * 
+ * The API follows android.util.JsonReader which is not available on our min SDK level (it was added
+ * in API 11). Syntax errors are reported as JSONException to match the error handling of the
+ * org.json based code.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+public class JsonStreamReader implements Closeable {
+
+    /** The kinds of tokens returned by peek(). */
+    public static enum Token {
+        BEGIN_OBJECT,
+        END_OBJECT,
+        BEGIN_ARRAY,
+        END_ARRAY,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT;
+    }
+
+    // Nesting scopes. Used to determine the expected separators.
+    private static final int SCOPE_EMPTY_DOCUMENT = 0;
+    private static final int SCOPE_NONEMPTY_DOCUMENT = 1;
+    private static final int SCOPE_EMPTY_OBJECT = 2;
+    private static final int SCOPE_DANGLING_NAME = 3;
+    private static final int SCOPE_NONEMPTY_OBJECT = 4;
+    private static final int SCOPE_EMPTY_ARRAY = 5;
+    private static final int SCOPE_NONEMPTY_ARRAY = 6;
+
+    private final Reader mIn;
+
+    /** Input buffer. Characters in [mPos, mLimit) are not consumed yet. */
+    private final char[] mBuffer = new char[1024];
+    private int mPos = 0;
+    private int mLimit = 0;
+
+    /** Stack of nesting scopes. */
+    private int[] mStack = new int[16];
+    private int mStackSize = 0;
+
+    /** The next token if already peeked, or null otherwise. */
+    private Token mPeeked = null;
+
+    /**
+     * Text of the last peeked NUMBER or BOOLEAN token. Reused between tokens to avoid object
+     * allocation.
+     */
+    private char[] mLiteral = new char[32];
+    private int mLiteralLength = 0;
+
+    /** Reused for decoding strings. */
+    private final StringBuilder mStringBuilder = new StringBuilder();
+
+    public JsonStreamReader(Reader in) {
+        mIn = in;
+        push(SCOPE_EMPTY_DOCUMENT);
+    }
+
+    /** Return the kind of the next token without consuming it. */
+    public final Token peek() throws JSONException, IOException {
+        if (mPeeked != null) {
+            return mPeeked;
+        }
+
+        final int scope = mStack[mStackSize - 1];
+        switch (scope) {
+            case SCOPE_EMPTY_ARRAY:
+            case SCOPE_NONEMPTY_ARRAY: {
+                mStack[mStackSize - 1] = SCOPE_NONEMPTY_ARRAY;
+                final int c = nextNonWhitespace(true);
+                if (c == ']') {
+                    return mPeeked = Token.END_ARRAY;
+                }
+                if (scope == SCOPE_NONEMPTY_ARRAY) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or ']'");
+                    }
+                } else {
+                    mPos--;
+                }
+                return mPeeked = peekValue();
+            }
+
+            case SCOPE_EMPTY_OBJECT:
+            case SCOPE_NONEMPTY_OBJECT: {
+                mStack[mStackSize - 1] = SCOPE_DANGLING_NAME;
+                int c = nextNonWhitespace(true);
+                if (c == '}') {
+                    return mPeeked = Token.END_OBJECT;
+                }
+                if (scope == SCOPE_NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace(true);
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected a name");
+                }
+                return mPeeked = Token.NAME;
+            }
+
+            case SCOPE_DANGLING_NAME: {
+                mStack[mStackSize - 1] = SCOPE_NONEMPTY_OBJECT;
+                if (nextNonWhitespace(true) != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                return mPeeked = peekValue();
+            }
+
+            case SCOPE_EMPTY_DOCUMENT: {
+                mStack[mStackSize - 1] = SCOPE_NONEMPTY_DOCUMENT;
+                return mPeeked = peekValue();
+            }
+
+            case SCOPE_NONEMPTY_DOCUMENT: {
+                if (nextNonWhitespace(false) != -1) {
+                    throw syntaxError("Expected end of document");
+                }
+                return mPeeked = Token.END_DOCUMENT;
+            }
+
+            default:
+                throw new IllegalStateException("Unknown scope: " + scope);
+        }
+    }
+
+    /** Peek a value token. The value itself is consumed later by one of the next*() methods. */
+    private final Token peekValue() throws JSONException, IOException {
+        final int c = nextNonWhitespace(true);
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            default:
+                mPos--;
+                return peekLiteral();
+        }
+    }
+
+    /** Read an unquoted literal (number, boolean or null) into mLiteral. */
+    private final Token peekLiteral() throws JSONException, IOException {
+        mLiteralLength = 0;
+        for (;;) {
+            if (mPos == mLimit && !fillBuffer()) {
+                break;
+            }
+            final char c = mBuffer[mPos];
+            if (c == ',' || c == '}' || c == ']' || c == ':' || c <= ' ') {
+                break;
+            }
+            if (mLiteralLength == mLiteral.length) {
+                final char[] newLiteral = new char[mLiteral.length * 2];
+                System.arraycopy(mLiteral, 0, newLiteral, 0, mLiteralLength);
+                mLiteral = newLiteral;
+            }
+            mLiteral[mLiteralLength++] = c;
+            mPos++;
+        }
+
+        if (mLiteralLength == 0) {
+            throw syntaxError("Expected a value");
+        }
+        if (literalEquals("true") || literalEquals("false")) {
+            return Token.BOOLEAN;
+        }
+        if (literalEquals("null")) {
+            return Token.NULL;
+        }
+        final char first = mLiteral[0];
+        if (first == '-' || (first >= '0' && first <= '9')) {
+            return Token.NUMBER;
+        }
+        throw syntaxError("Unexpected literal: " + new String(mLiteral, 0, mLiteralLength));
+    }
+
+    private final boolean literalEquals(String s) {
+        final int n = s.length();
+        if (mLiteralLength != n) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            if (mLiteral[i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Test if the current object or array has more elements. */
+    public final boolean hasNext() throws JSONException, IOException {
+        final Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY
+                && token != Token.END_DOCUMENT;
+    }
+
+    public final void beginObject() throws JSONException, IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(SCOPE_EMPTY_OBJECT);
+    }
+
+    public final void endObject() throws JSONException, IOException {
+        expect(Token.END_OBJECT);
+        mStackSize--;
+    }
+
+    public final void beginArray() throws JSONException, IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(SCOPE_EMPTY_ARRAY);
+    }
+
+    public final void endArray() throws JSONException, IOException {
+        expect(Token.END_ARRAY);
+        mStackSize--;
+    }
+
+    /** Consume and return the next property name. */
+    public final String nextName() throws JSONException, IOException {
+        expect(Token.NAME);
+        return readQuotedString();
+    }
+
+    /**
+     * Consume the next property name and return its index in the given names, or -1 if it is not
+     * one of them. Unlike nextName(), does not allocate a String in the common case.
+     */
+    public final int nextNameIndex(String[] names) throws JSONException, IOException {
+        expect(Token.NAME);
+        return readQuotedStringIndex(names);
+    }
+
+    /**
+     * Consume the next string value and return its index in the given values, or -1 if it is not
+     * one of them. Unlike nextString(), does not allocate a String in the common case.
+     */
+    public final int nextStringIndex(String[] values) throws JSONException, IOException {
+        expect(Token.STRING);
+        return readQuotedStringIndex(values);
+    }
+
+    /** Consume the next value as a string. Numbers and booleans are returned as their text. */
+    public final String nextString() throws JSONException, IOException {
+        final Token token = peek();
+        if (token == Token.STRING) {
+            mPeeked = null;
+            return readQuotedString();
+        }
+        if (token == Token.NUMBER || token == Token.BOOLEAN) {
+            mPeeked = null;
+            return new String(mLiteral, 0, mLiteralLength);
+        }
+        throw syntaxError("Expected a string but was " + token);
+    }
+
+    /** Consume the next value as a long. Numeric strings are accepted. */
+    public final long nextLong() throws JSONException, IOException {
+        final Token token = peek();
+        if (token == Token.NUMBER) {
+            mPeeked = null;
+            return parseLong(mLiteral, mLiteralLength);
+        }
+        if (token == Token.STRING) {
+            mPeeked = null;
+            final String s = readQuotedString();
+            return parseLong(s.toCharArray(), s.length());
+        }
+        throw syntaxError("Expected a number but was " + token);
+    }
+
+    /** Consume the next value as an int. */
+    public final int nextInt() throws JSONException, IOException {
+        return (int) nextLong();
+    }
+
+    /** Consume the next value as a boolean. The strings "true" and "false" are accepted. */
+    public final boolean nextBoolean() throws JSONException, IOException {
+        final Token token = peek();
+        if (token == Token.BOOLEAN) {
+            mPeeked = null;
+            return mLiteral[0] == 't';
+        }
+        if (token == Token.STRING) {
+            mPeeked = null;
+            final String s = readQuotedString();
+            if ("true".equalsIgnoreCase(s)) {
+                return true;
+            }
+            if ("false".equalsIgnoreCase(s)) {
+                return false;
+            }
+        }
+        throw syntaxError("Expected a boolean but was " + token);
+    }
+
+    /** Consume a null value. */
+    public final void nextNull() throws JSONException, IOException {
+        expect(Token.NULL);
+    }
+
+    /** Skip the next value, including nested objects and arrays. */
+    public final void skipValue() throws JSONException, IOException {
+        int depth = 0;
+        do {
+            final Token token = peek();
+            switch (token) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    mPeeked = null;
+                    skipQuotedString();
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Unexpected end of document");
+                default:
+                    // Literal, already consumed by peek().
+                    mPeeked = null;
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public final void close() throws IOException {
+        mPeeked = null;
+        mStackSize = 0;
+        mIn.close();
+    }
+
+    private final void expect(Token expected) throws JSONException, IOException {
+        final Token actual = peek();
+        if (actual != expected) {
+            throw syntaxError("Expected " + expected + " but was " + actual);
+        }
+        mPeeked = null;
+    }
+
+    private final void push(int scope) {
+        if (mStackSize == mStack.length) {
+            final int[] newStack = new int[mStack.length * 2];
+            System.arraycopy(mStack, 0, newStack, 0, mStackSize);
+            mStack = newStack;
+        }
+        mStack[mStackSize++] = scope;
+    }
+
+    /** Read the rest of a string whose opening quote was already consumed. */
+    private final String readQuotedString() throws JSONException, IOException {
+        mStringBuilder.setLength(0);
+        for (;;) {
+            // Copy runs of plain characters in bulk.
+            int start = mPos;
+            while (mPos < mLimit) {
+                final char c = mBuffer[mPos];
+                if (c == '"' || c == '\\') {
+                    break;
+                }
+                mPos++;
+            }
+            mStringBuilder.append(mBuffer, start, mPos - start);
+
+            if (mPos == mLimit) {
+                if (!fillBuffer()) {
+                    throw syntaxError("Unterminated string");
+                }
+                continue;
+            }
+
+            final char c = mBuffer[mPos++];
+            if (c == '"') {
+                return mStringBuilder.toString();
+            }
+            mStringBuilder.append(readEscapeCharacter());
+        }
+    }
+
+    /**
+     * Read the rest of a string whose opening quote was already consumed and return its index in
+     * candidates, or -1 if not found.
+     */
+    private final int readQuotedStringIndex(String[] candidates) throws JSONException,
+            IOException {
+        // Fast path, the string is fully in the buffer and has no escapes so we match it in place.
+        for (int end = mPos; end < mLimit; end++) {
+            final char c = mBuffer[end];
+            if (c == '\\') {
+                break;
+            }
+            if (c == '"') {
+                final int result = indexOf(candidates, mPos, end - mPos);
+                mPos = end + 1;
+                return result;
+            }
+        }
+
+        // Slow path.
+        final String value = readQuotedString();
+        for (int i = 0; i < candidates.length; i++) {
+            if (candidates[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the index of the candidate that is equal to the given buffer chars, or -1. */
+    private final int indexOf(String[] candidates, int start, int length) {
+        for (int i = 0; i < candidates.length; i++) {
+            final String candidate = candidates[i];
+            if (candidate.length() != length) {
+                continue;
+            }
+            int j = 0;
+            while (j < length && candidate.charAt(j) == mBuffer[start + j]) {
+                j++;
+            }
+            if (j == length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private final void skipQuotedString() throws JSONException, IOException {
+        for (;;) {
+            if (mPos == mLimit && !fillBuffer()) {
+                throw syntaxError("Unterminated string");
+            }
+            final char c = mBuffer[mPos++];
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                readEscapeCharacter();
+            }
+        }
+    }
+
+    /** Decode an escape sequence whose backslash was already consumed. */
+    private final char readEscapeCharacter() throws JSONException, IOException {
+        final int c = nextChar();
+        switch (c) {
+            case 'u': {
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    final int h = nextChar();
+                    final int digit = Character.digit(h, 16);
+                    if (h < 0 || digit < 0) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = (value << 4) + digit;
+                }
+                return (char) value;
+            }
+            case 't':
+                return '\t';
+            case 'b':
+                return '\b';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    /** Parse a long from decimal text. Non integral numbers are truncated. */
+    private final long parseLong(char[] chars, int length) throws JSONException {
+        long result = 0;
+        final boolean negative = (length > 0 && chars[0] == '-');
+        for (int i = negative ? 1 : 0; i < length; i++) {
+            final char c = chars[i];
+            if (c < '0' || c > '9') {
+                // Rare. Fall back to the general parser (e.g. '1.0' or '1e3').
+                try {
+                    return (long) Double.parseDouble(new String(chars, 0, length));
+                } catch (NumberFormatException e) {
+                    throw syntaxError("Invalid number: " + new String(chars, 0, length));
+                }
+            }
+            result = result * 10 + (c - '0');
+        }
+        return negative ? -result : result;
+    }
+
+    private final int nextChar() throws IOException {
+        if (mPos == mLimit && !fillBuffer()) {
+            return -1;
+        }
+        return mBuffer[mPos++];
+    }
+
+    /**
+     * Consume and return the next non white space character.
+     * 
+     * @param throwOnEof if true, end of input is a syntax error. Otherwise -1 is returned.
+     */
+    private final int nextNonWhitespace(boolean throwOnEof) throws JSONException, IOException {
+        for (;;) {
+            if (mPos == mLimit && !fillBuffer()) {
+                if (throwOnEof) {
+                    throw syntaxError("Unexpected end of input");
+                }
+                return -1;
+            }
+            final char c = mBuffer[mPos++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    /** Refill the buffer. Returns false on end of input. */
+    private final boolean fillBuffer() throws IOException {
+        mPos = 0;
+        mLimit = 0;
+        for (;;) {
+            final int n = mIn.read(mBuffer, 0, mBuffer.length);
+            if (n < 0) {
+                return false;
+            }
+            if (n > 0) {
+                mLimit = n;
+                return true;
+            }
+        }
+    }
+
+    private final JSONException syntaxError(String message) {
+        return new JSONException(message);
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+
+/**
+ * A minimal streaming JSON writer. Emits the doc directly to a character stream without building
+ * an intermediate tree. Counterpart of {@link JsonStreamReader}.
+ * 
+ * The output is formatted the same way as org.json's JSONObject.toString(indent) so files written
+ * by this class look the same as the files we wrote before.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+public class JsonStreamWriter implements Closeable {
+
+    private final Writer mOut;
+
+    /** Number of spaces per nesting level. Zero for compact output with no new lines. */
+    private final int mIndent;
+
+    /** Current nesting depth. */
+    private int mDepth = 0;
+
+    /** True if the next value or name is the first in its object or array. */
+    private boolean mFirstInScope = true;
+
+    /** True if a name was just written and its value is expected next. */
+    private boolean mAfterName = false;
+
+    /** Scratch buffer for formatting numbers. Reused to avoid object allocation. */
+    private final char[] mNumberBuffer = new char[20];
+
+    public JsonStreamWriter(Writer out, int indent) {
+        mOut = out;
+        mIndent = indent;
+    }
+
+    public final JsonStreamWriter beginObject() throws IOException {
+        beforeValue();
+        mOut.write('{');
+        mDepth++;
+        mFirstInScope = true;
+        return this;
+    }
+
+    public final JsonStreamWriter endObject() throws IOException {
+        return endScope('}');
+    }
+
+    public final JsonStreamWriter beginArray() throws IOException {
+        beforeValue();
+        mOut.write('[');
+        mDepth++;
+        mFirstInScope = true;
+        return this;
+    }
+
+    public final JsonStreamWriter endArray() throws IOException {
+        return endScope(']');
+    }
+
+    /** Write a property name. Must be followed by exactly one value. */
+    public final JsonStreamWriter name(String name) throws IOException {
+        beforeElement();
+        writeQuoted(name);
+        mOut.write(':');
+        if (mIndent > 0) {
+            mOut.write(' ');
+        }
+        mAfterName = true;
+        return this;
+    }
+
+    public final JsonStreamWriter value(String value) throws IOException {
+        beforeValue();
+        writeQuoted(value);
+        return this;
+    }
+
+    public final JsonStreamWriter value(boolean value) throws IOException {
+        beforeValue();
+        mOut.write(value ? "true" : "false");
+        return this;
+    }
+
+    public final JsonStreamWriter value(long value) throws IOException {
+        beforeValue();
+        if (value == Long.MIN_VALUE) {
+            // Can't be negated below. Not expected in practice.
+            mOut.write(Long.toString(value));
+            return this;
+        }
+        final boolean negative = value < 0;
+        long remaining = negative ? -value : value;
+        int pos = mNumberBuffer.length;
+        do {
+            mNumberBuffer[--pos] = (char) ('0' + (remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+        if (negative) {
+            mNumberBuffer[--pos] = '-';
+        }
+        mOut.write(mNumberBuffer, pos, mNumberBuffer.length - pos);
+        return this;
+    }
+
+    public final void flush() throws IOException {
+        mOut.flush();
+    }
+
+    /** Flush and close the underlying stream. */
+    @Override
+    public final void close() throws IOException {
+        mOut.close();
+    }
+
+    private final JsonStreamWriter endScope(char closingChar) throws IOException {
+        mDepth--;
+        if (!mFirstInScope) {
+            newLine();
+        }
+        mOut.write(closingChar);
+        mFirstInScope = false;
+        return this;
+    }
+
+    /** Called before writing any value. */
+    private final void beforeValue() throws IOException {
+        if (mAfterName) {
+            // A property value. Separator already written.
+            mAfterName = false;
+            return;
+        }
+        if (mDepth > 0) {
+            // An array element.
+            beforeElement();
+        }
+    }
+
+    /** Called before an array element or an object property. */
+    private final void beforeElement() throws IOException {
+        if (!mFirstInScope) {
+            mOut.write(',');
+        }
+        mFirstInScope = false;
+        newLine();
+    }
+
+    private final void newLine() throws IOException {
+        if (mIndent == 0) {
+            return;
+        }
+        mOut.write('\n');
+        for (int i = mDepth * mIndent; i > 0; i--) {
+            mOut.write(' ');
+        }
+    }
+
+    /** Write a string value with JSON quoting and escaping. */
+    private final void writeQuoted(String s) throws IOException {
+        mOut.write('"');
+        final int n = s.length();
+        // Start of a run of characters that don't need escaping.
+        int runStart = 0;
+        for (int i = 0; i < n; i++) {
+            final char c = s.charAt(i);
+            final String escape;
+            switch (c) {
+                case '"':
+                    escape = "\\\"";
+                    break;
+                case '\\':
+                    escape = "\\\\";
+                    break;
+                case '/':
+                    // For compatibility with org.json.
+                    escape = "\\/";
+                    break;
+                case '\t':
+                    escape = "\\t";
+                    break;
+                case '\b':
+                    escape = "\\b";
+                    break;
+                case '\n':
+                    escape = "\\n";
+                    break;
+                case '\r':
+                    escape = "\\r";
+                    break;
+                case '\f':
+                    escape = "\\f";
+                    break;
+                default:
+                    if (c > 0x1f) {
+                        continue;
+                    }
+                    escape = null;
+            }
+            mOut.write(s, runStart, i - runStart);
+            runStart = i + 1;
+            if (escape != null) {
+                mOut.write(escape);
+            } else {
+                writeUnicodeEscape(c);
+            }
+        }
+        mOut.write(s, runStart, n - runStart);
+        mOut.write('"');
+    }
+
+    private final void writeUnicodeEscape(char c) throws IOException {
+        mOut.write("\\u");
+        for (int shift = 12; shift >= 0; shift -= 4) {
+            mOut.write(Character.forDigit((c >> shift) & 0xf, 16));
+        }
+    }
+}
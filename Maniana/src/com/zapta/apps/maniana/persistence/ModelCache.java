@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.persistence;
+
+import java.io.File;
+
+import javax.annotation.Nullable;
+
+import android.content.Context;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+import com.zapta.apps.maniana.model.AppModel;
+import com.zapta.apps.maniana.util.LogUtil;
+
+/**
+ * Process wide cache of the last model that was read from the data files. Allows the widget
+ * providers, the midnight ticker and the main activity to share a single parse of the files.
+ * 
+ * An entry is valid as long as the file generation counter of {@link ModelPersistence} and the
+ * size and modification time of the data and journal files did not change. The counter is bumped
+ * by the writer path on each write while the file attributes also catch changes that bypassed it.
+ * 
+ * The cached model is never exposed, readers get their own copy that they are free to mutate. All
+ * methods should be called while holding {@link ModelPersistence#sDataFileLock}.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+final class ModelCache {
+
+    /** The cached model. Null if no entry. */
+    @Nullable
+    private static AppModel sModel = null;
+
+    /** The metadata of the cached model. Null if no entry. */
+    @Nullable
+    private static PersistenceMetadata sMetadata = null;
+
+    /** File generation of ModelPersistence when the entry was read. */
+    private static long sFileGeneration;
+
+    private static long sDataFileLength;
+    private static long sDataFileLastModified;
+    private static long sJournalFileLength;
+    private static long sJournalFileLastModified;
+
+    private ModelCache() {
+    }
+
+    /**
+     * Copy the cached model into resultModel if the cache is valid for the current files.
+     * 
+     * @return a copy of the metadata of the cached model, or null if not in cache (resultModel is
+     *         not changed).
+     */
+    @Nullable
+    static final PersistenceMetadata copyCachedModel(Context context, long fileGeneration,
+            AppModel resultModel) {
+        if (sModel == null || fileGeneration != sFileGeneration) {
+            return null;
+        }
+        final File dataFile = context.getFileStreamPath(ModelPersistence.DATA_FILE_NAME);
+        final File journalFile = context.getFileStreamPath(ModelPersistence.JOURNAL_FILE_NAME);
+        if (dataFile.length() != sDataFileLength
+                || dataFile.lastModified() != sDataFileLastModified
+                || journalFile.length() != sJournalFileLength
+                || journalFile.lastModified() != sJournalFileLastModified) {
+            LogUtil.info("Model files changed externally, model cache invalidated");
+            invalidate();
+            return null;
+        }
+
+        LogUtil.info("Using cached model");
+        resultModel.copyItemsFrom(sModel);
+        resultModel.setLastPushDateStamp(sModel.getLastPushDateStamp());
+        return copyMetadata(sMetadata);
+    }
+
+    /**
+     * Cache a copy of a model that was just read from the current files.
+     * 
+     * @param fileGeneration the generation of the files the model was read from.
+     */
+    static final void put(Context context, long fileGeneration, AppModel model,
+            PersistenceMetadata metadata) {
+        final File dataFile = context.getFileStreamPath(ModelPersistence.DATA_FILE_NAME);
+        final File journalFile = context.getFileStreamPath(ModelPersistence.JOURNAL_FILE_NAME);
+
+        final AppModel cachedModel = new AppModel();
+        cachedModel.copyItemsFrom(model);
+        cachedModel.setLastPushDateStamp(model.getLastPushDateStamp());
+
+        sModel = cachedModel;
+        sMetadata = copyMetadata(metadata);
+        sFileGeneration = fileGeneration;
+        sDataFileLength = dataFile.length();
+        sDataFileLastModified = dataFile.lastModified();
+        sJournalFileLength = journalFile.length();
+        sJournalFileLastModified = journalFile.lastModified();
+    }
+
+    /** Drop the cached entry, if any. */
+    static final void invalidate() {
+        sModel = null;
+        sMetadata = null;
+    }
+
+    private static final PersistenceMetadata copyMetadata(PersistenceMetadata metadata) {
+        final PersistenceMetadata result = new PersistenceMetadata(metadata.writerVersionCode,
+                metadata.writerVersionName);
+        result.journalGeneration = metadata.journalGeneration;
+        return result;
+    }
+}
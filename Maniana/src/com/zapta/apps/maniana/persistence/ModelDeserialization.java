@@ -14,28 +14,87 @@
 
 package com.zapta.apps.maniana.persistence;
 
-import org.json.JSONArray;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import com.zapta.apps.maniana.annotations.ApplicationScope;
 import com.zapta.apps.maniana.model.AppModel;
 import com.zapta.apps.maniana.model.ItemColor;
 import com.zapta.apps.maniana.model.ItemModel;
 import com.zapta.apps.maniana.model.PageKind;
+import com.zapta.apps.maniana.persistence.JsonStreamReader.Token;
+import com.zapta.apps.maniana.util.FileUtil;
 import com.zapta.apps.maniana.util.IdGenerator;
+import com.zapta.apps.maniana.util.IdUtil;
 import com.zapta.apps.maniana.util.LogUtil;
 
 /**
- * Performs model deserialization from JSON doc.
+ * Performs model deserialization from JSON doc or from the binary format.
  * 
- * TODO: define consts for the json field names.
+ * The doc is parsed in a single streaming pass and items are added to the model as they are read,
+ * without building an intermediate JSON tree.
  * 
  * @author Tal Dayan
  */
 @ApplicationScope
 public class ModelDeserialization implements FieldNames {
 
+    /** Bit flags of the model fields that are required to be present. */
+    private static final int HAS_TODAY = 0x1;
+    private static final int HAS_TOMORROW = 0x2;
+    private static final int HAS_ALL_PAGES = HAS_TODAY | HAS_TOMORROW;
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    /** Cached to avoid cloning the values array for each item. */
+    private static final ItemColor[] ITEM_COLORS = ItemColor.values();
+
+    /** The keys of ITEM_COLORS, by ordinal. */
+    private static final String[] ITEM_COLOR_KEYS = new String[ITEM_COLORS.length];
+
+    static {
+        for (int i = 0; i < ITEM_COLORS.length; i++) {
+            ITEM_COLOR_KEYS[i] = ITEM_COLORS[i].getKey();
+        }
+    }
+
+    // The fields of an item. Matched by index to avoid allocating a string per field name.
+    private static final String[] ITEM_FIELDS = { FIELD_ID, FIELD_UPDATE_TIME, FIELD_TEXT,
+        FIELD_DONE, FIELD_LOCKED, FIELD_SCHEDULED, FIELD_COLOR };
+    private static final int ITEM_FIELD_ID = 0;
+    private static final int ITEM_FIELD_UPDATE_TIME = 1;
+    private static final int ITEM_FIELD_TEXT = 2;
+    private static final int ITEM_FIELD_DONE = 3;
+    private static final int ITEM_FIELD_LOCKED = 4;
+    private static final int ITEM_FIELD_SCHEDULED = 5;
+    private static final int ITEM_FIELD_COLOR = 6;
+
+    /** Receives the items of a model as they are deserialized. */
+    public interface ItemListener {
+        /** Called for each item, in page order. The item is owned by the listener. */
+        void onItem(PageKind pageKind, ItemModel item);
+    }
+
+    /** An item listener that appends the items to a model. */
+    private static final class ModelPopulator implements ItemListener {
+        private final AppModel mModel;
+
+        ModelPopulator(AppModel model) {
+            mModel = model;
+        }
+
+        @Override
+        public void onItem(PageKind pageKind, ItemModel item) {
+            addLoadedItem(mModel, pageKind, item);
+        }
+    }
+
     /**
      * Deserialize a model from a JSON doc.
      * 
@@ -49,69 +108,426 @@ public class ModelDeserialization implements FieldNames {
      */
     public static final void deserializeModel(AppModel resultModel,
             PersistenceMetadata resultMetadata, String jsonString) throws JSONException {
+        try {
+            deserializeModel(resultModel, resultMetadata, new StringReader(jsonString));
+        } catch (IOException e) {
+            // Not expected when reading from a string.
+            throw new RuntimeException("Error reading JSON string", e);
+        }
+    }
+
+    /**
+     * Deserialize a model from a JSON doc stream. Same as the string variant but reads the doc
+     * incrementally. The caller is responsible for closing the reader.
+     * 
+     * @throws JSONException if the doc is malformed.
+     * @throws IOException if reading the stream failed.
+     */
+    public static final void deserializeModel(AppModel resultModel,
+            PersistenceMetadata resultMetadata, Reader in) throws JSONException, IOException {
         resultModel.clear();
         resultMetadata.clear();
+        deserializeModelJson(resultModel, resultMetadata, new ModelPopulator(resultModel), in);
+    }
+
+    /**
+     * Deserialize a model from a JSON doc stream, passing the items to given listener.
+     * 
+     * @param resultModel gets the model fields other than the items.
+     */
+    private static final void deserializeModelJson(AppModel resultModel,
+            PersistenceMetadata resultMetadata, ItemListener itemListener, Reader in)
+            throws JSONException, IOException {
+        final JsonStreamReader reader = new JsonStreamReader(in);
+
+        // NOTE: the order of the top level fields is not defined so we can't tell the format
+        // before the fields are read. In format version 1 the model fields were at top level and
+        // we did not have metadata. In format >= 2, the model fields are in a 'model' sub field.
+        int format = -1;
+        boolean hasModel = false;
+        boolean hasMetadata = false;
+        int topLevelModelFields = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (FIELD_FORMAT.equals(name)) {
+                format = reader.nextInt();
+            } else if (FIELD_MODEL.equals(name)) {
+                reader.beginObject();
+                int modelFields = 0;
+                while (reader.hasNext()) {
+                    modelFields |= readModelField(reader, reader.nextName(), resultModel,
+                            itemListener);
+                }
+                reader.endObject();
+                checkModelFields(modelFields);
+                hasModel = true;
+            } else if (FIELD_METADATA.equals(name)) {
+                readMetadata(reader, resultMetadata);
+                hasMetadata = true;
+            } else {
+                topLevelModelFields |= readModelField(reader, name, resultModel, itemListener);
+            }
+        }
+        reader.endObject();
 
-        final JSONObject root = new JSONObject(jsonString);
+        if (format < 0) {
+            throw new JSONException("No value for " + FIELD_FORMAT);
+        }
 
-        final int format = root.getInt(FIELD_FORMAT);
         if (format < 2) {
             LogUtil.info("Loading data file in old format: " + format);
-            // In format version 1 the model fields were at top level and we did not have metadata.
-            populateModelFields(root, resultModel);
+            checkModelFields(topLevelModelFields);
             // NOTE: metadata was already cleared above.
         } else {
             // For format >= 2.
-            populateModelFields(root.getJSONObject(FIELD_MODEL), resultModel);
-            resultMetadata.fromJson(root.getJSONObject(FIELD_METADATA));
+            if (!hasModel) {
+                throw new JSONException("No value for " + FIELD_MODEL);
+            }
+            if (!hasMetadata) {
+                throw new JSONException("No value for " + FIELD_METADATA);
+            }
+        }
+    }
+
+    /**
+     * Deserialize a model from a byte stream in either the binary or the JSON format. The format
+     * is detected from the leading bytes. The caller is responsible for closing the stream.
+     * 
+     * @throws JSONException if the doc is malformed.
+     * @throws IOException if reading the stream failed.
+     */
+    public static final void deserializeModel(AppModel resultModel,
+            PersistenceMetadata resultMetadata, InputStream in) throws JSONException, IOException {
+        final BufferedInputStream bufferedIn = new BufferedInputStream(in, READ_BUFFER_SIZE);
+        if (skipBinaryMagic(bufferedIn)) {
+            deserializeModelBinary(resultModel, resultMetadata, bufferedIn, false);
+        } else {
+            LogUtil.info("Reading model in JSON format");
+            deserializeModel(resultModel, resultMetadata, new InputStreamReader(bufferedIn,
+                    FileUtil.UTF_8));
         }
     }
 
     /**
-     * Deserialize the model fields. Note that in format version 1 the model fields were at top json
-     * level and in format >= 2, the model fields are in a 'model' sub field.
+     * Read the items of a model in either the binary or the JSON format and pass them to given
+     * listener, without building a model. The items are not retained so memory use does not
+     * depend on the number of items. The caller is responsible for closing the stream.
+     * 
+     * @throws JSONException if the doc is malformed.
+     * @throws IOException if reading the stream failed.
      */
-    private static final void populateModelFields(JSONObject root, AppModel appModel)
-            throws JSONException {
-        appModel.setLastPushDateStamp(root.optString(FIELD_LAST_PUSH_DATE, ""));
-        populateItemListFromJason(root.getJSONArray(FIELD_TODAY), appModel, PageKind.TODAY);
-        populateItemListFromJason(root.getJSONArray(FIELD_TOMOROW), appModel, PageKind.TOMOROW);
+    public static final void scanItems(InputStream in, ItemListener itemListener)
+            throws JSONException, IOException {
+        // Gets the fields other than the items.
+        final AppModel scratchModel = new AppModel();
+        final PersistenceMetadata scratchMetadata = new PersistenceMetadata();
+        final BufferedInputStream bufferedIn = new BufferedInputStream(in, READ_BUFFER_SIZE);
+        if (skipBinaryMagic(bufferedIn)) {
+            readModelBinary(scratchModel, scratchMetadata, itemListener, bufferedIn, false);
+        } else {
+            deserializeModelJson(scratchModel, scratchMetadata, itemListener,
+                    new InputStreamReader(bufferedIn, FileUtil.UTF_8));
+        }
     }
 
-    /** Deserialize a page item list */
-    private static final void populateItemListFromJason(JSONArray jsonItems, AppModel appModel,
-            PageKind pageKind) throws JSONException {
-        for (int i = 0; i < jsonItems.length(); i++) {
-            final ItemModel item = modelItemFromJson(jsonItems.getJSONObject(i));
-            // Force item in the today page to be unlocked.
-            if (pageKind.isToday() && item.isLocked()) {
-                LogUtil.warning("Cleared lock state while loading a today item");
-                item.setIsLocked(false);
+    /**
+     * Deserialize only the metadata, the last push date stamp and the Today page of a model in the
+     * binary format. The Tomorrow page is not decoded and is left empty in resultModel. This is
+     * cheap since the binary format has the Today page before the Tomorrow page. The caller is
+     * responsible for closing the stream.
+     * 
+     * @return false if the stream is not in the binary format. In this case resultModel and
+     *         resultMetadata are not changed.
+     * @throws JSONException if the doc is malformed.
+     * @throws IOException if reading the stream failed.
+     */
+    public static final boolean deserializeTodayPage(AppModel resultModel,
+            PersistenceMetadata resultMetadata, InputStream in) throws JSONException, IOException {
+        final BufferedInputStream bufferedIn = new BufferedInputStream(in, READ_BUFFER_SIZE);
+        if (!skipBinaryMagic(bufferedIn)) {
+            return false;
+        }
+        deserializeModelBinary(resultModel, resultMetadata, bufferedIn, true);
+        return true;
+    }
+
+    /**
+     * Consume the binary magic if the stream starts with it.
+     * 
+     * @return true if the magic was found. Otherwise the stream position is not changed.
+     */
+    private static final boolean skipBinaryMagic(BufferedInputStream in) throws IOException {
+        final byte[] magic = ModelSerialization.BINARY_MAGIC;
+        in.mark(magic.length);
+        for (int i = 0; i < magic.length; i++) {
+            if (in.read() != (magic[i] & 0xff)) {
+                in.reset();
+                return false;
             }
-            appModel.appendItem(pageKind, modelItemFromJson(jsonItems.getJSONObject(i)));
         }
+        return true;
     }
 
-    /** Deserialize a single item */
-    private static final ItemModel modelItemFromJson(JSONObject jsonItem) throws JSONException {
-        final String optId = jsonItem.optString(FIELD_ID, null);
-        final String id = (optId == null) ? IdGenerator.getFreshId() : optId;
+    /**
+     * Deserialize a model in the binary format. Expects the stream after the magic bytes.
+     * 
+     * @param todayOnly if true, stop after the Today page.
+     */
+    private static final void deserializeModelBinary(AppModel resultModel,
+            PersistenceMetadata resultMetadata, InputStream in, boolean todayOnly)
+            throws JSONException, IOException {
+        resultModel.clear();
+        resultMetadata.clear();
+        readModelBinary(resultModel, resultMetadata, new ModelPopulator(resultModel), in,
+                todayOnly);
+    }
 
-        final long optUpdateTime = jsonItem.optLong(FIELD_UPDATE_TIME);
-        final long updateTime = (optUpdateTime == 0) ? System.currentTimeMillis() : optUpdateTime;
+    /**
+     * Read a model in the binary format, passing the items to given listener. Expects the stream
+     * after the magic bytes.
+     * 
+     * @param resultModel gets the model fields other than the items.
+     * @param todayOnly if true, stop after the Today page.
+     */
+    private static final void readModelBinary(AppModel resultModel,
+            PersistenceMetadata resultMetadata, ItemListener itemListener, InputStream in,
+            boolean todayOnly) throws JSONException, IOException {
+        final BinaryStreamReader reader = new BinaryStreamReader(in);
+        final int format = reader.readVarInt();
+        if (format != ModelSerialization.BINARY_FORMAT_STEP) {
+            throw new JSONException("Unsupported binary format: " + format);
+        }
+
+        resultMetadata.writerVersionCode = (int) reader.readSignedVarLong();
+        resultMetadata.writerVersionName = reader.readString();
+        resultMetadata.journalGeneration = reader.readSignedVarLong();
+
+        resultModel.setLastPushDateStamp(reader.readString());
+        long lastUpdateTime = 0;
+        for (PageKind pageKind : PageKind.values()) {
+            final int n = reader.readVarInt();
+            for (int i = 0; i < n; i++) {
+                final ItemModel item = readItemBinary(reader, lastUpdateTime);
+                lastUpdateTime = item.getUpdateTime();
+                itemListener.onItem(pageKind, item);
+            }
+            if (todayOnly) {
+                // NOTE: the pages are written in PageKind order, Today first.
+                return;
+            }
+        }
+    }
+
+    /** Deserialize a single item in the binary format. */
+    private static final ItemModel readItemBinary(BinaryStreamReader reader, long lastUpdateTime)
+            throws JSONException, IOException {
+        final int flags = reader.readByte();
+        final long updateTime = lastUpdateTime + reader.readSignedVarLong();
+        final String idPrefix = reader.readString();
+        final long idSuffix = ((flags & ModelSerialization.FLAG_SPLIT_ID) != 0) ? reader
+                .readVarLong() : IdUtil.NO_SUFFIX;
+        final String text = reader.readString();
+        final long scheduled = ((flags & ModelSerialization.FLAG_SCHEDULED) != 0) ? reader
+                .readSignedVarLong() : 0;
+        ItemColor color = ItemColor.NONE;
+        if ((flags & ModelSerialization.FLAG_COLOR) != 0) {
+            final int ordinal = reader.readByte();
+            if (ordinal < ITEM_COLORS.length) {
+                color = ITEM_COLORS[ordinal];
+            } else {
+                LogUtil.warning("Unknown item color ordinal: " + ordinal);
+            }
+        }
+        final boolean isCompleted = (flags & ModelSerialization.FLAG_DONE) != 0;
+        final boolean isLocked = (flags & ModelSerialization.FLAG_LOCKED) != 0;
+        if (idSuffix == IdUtil.NO_SUFFIX) {
+            // Let the item split the id in case it was written by an older version.
+            return new ItemModel(updateTime, idPrefix, text, isCompleted, isLocked, scheduled,
+                    color);
+        }
+        // Avoids building the id string just to split it again.
+        return new ItemModel(updateTime, idPrefix, idSuffix, text, isCompleted, isLocked,
+                scheduled, color);
+    }
+
+    private static final void checkModelFields(int modelFields) throws JSONException {
+        if ((modelFields & HAS_ALL_PAGES) != HAS_ALL_PAGES) {
+            throw new JSONException("Missing page items");
+        }
+    }
+
+    /**
+     * Deserialize a single model field. Unknown fields are skipped.
+     * 
+     * @return the HAS_XXX flag of the field that was read or zero if none.
+     */
+    private static final int readModelField(JsonStreamReader reader, String name,
+            AppModel appModel, ItemListener itemListener) throws JSONException, IOException {
+        if (FIELD_LAST_PUSH_DATE.equals(name)) {
+            appModel.setLastPushDateStamp(optString(reader, ""));
+            return 0;
+        }
+        if (FIELD_TODAY.equals(name)) {
+            readItemList(reader, PageKind.TODAY, itemListener);
+            return HAS_TODAY;
+        }
+        if (FIELD_TOMOROW.equals(name)) {
+            readItemList(reader, PageKind.TOMOROW, itemListener);
+            return HAS_TOMORROW;
+        }
+        reader.skipValue();
+        return 0;
+    }
 
-        final String text = jsonItem.getString(FIELD_TEXT);
-        final boolean isCompleted = jsonItem.optBoolean(FIELD_DONE);
-        final boolean isLocked = jsonItem.optBoolean(FIELD_LOCKED);
-        final long scheduled = jsonItem.optLong(FIELD_SCHEDULED);
+    /** Deserialize a page item list */
+    private static final void readItemList(JsonStreamReader reader, PageKind pageKind,
+            ItemListener itemListener) throws JSONException, IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            itemListener.onItem(pageKind, readItem(reader));
+        }
+        reader.endArray();
+    }
 
-        final String optColorKey = jsonItem.optString(FIELD_COLOR, null);
+    /** Append a loaded item to the given page. */
+    private static final void addLoadedItem(AppModel appModel, PageKind pageKind, ItemModel item) {
+        // Force item in the today page to be unlocked.
+        if (pageKind.isToday() && item.isLocked()) {
+            LogUtil.warning("Cleared lock state while loading a today item");
+            item.setIsLocked(false);
+        }
+        appModel.appendItem(pageKind, item);
+    }
+
+    /** Deserialize a single item */
+    static final ItemModel readItem(JsonStreamReader reader) throws JSONException,
+            IOException {
+        String optId = null;
+        long optUpdateTime = 0;
+        String text = null;
+        boolean isCompleted = false;
+        boolean isLocked = false;
+        long scheduled = 0;
         // NOTE(tal): NONE may or may not be in the current user selected task color set.
         // Default to NONE if not found.
-        final ItemColor color = (optColorKey == null) ? ItemColor.NONE : ItemColor.fromKey(
-                optColorKey, ItemColor.NONE);
+        ItemColor color = ItemColor.NONE;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextNameIndex(ITEM_FIELDS)) {
+                case ITEM_FIELD_ID:
+                    optId = optString(reader, null);
+                    break;
+                case ITEM_FIELD_UPDATE_TIME:
+                    optUpdateTime = optLong(reader);
+                    break;
+                case ITEM_FIELD_TEXT:
+                    text = optString(reader, null);
+                    break;
+                case ITEM_FIELD_DONE:
+                    isCompleted = optBoolean(reader);
+                    break;
+                case ITEM_FIELD_LOCKED:
+                    isLocked = optBoolean(reader);
+                    break;
+                case ITEM_FIELD_SCHEDULED:
+                    scheduled = optLong(reader);
+                    break;
+                case ITEM_FIELD_COLOR:
+                    color = readItemColor(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (text == null) {
+            throw new JSONException("No value for " + FIELD_TEXT);
+        }
+
+        final String id = (optId == null) ? IdGenerator.getFreshId() : optId;
+        final long updateTime = (optUpdateTime == 0) ? System.currentTimeMillis() : optUpdateTime;
 
         return new ItemModel(updateTime, id, text, isCompleted, isLocked, scheduled, color);
     }
 
+    /** Deserialize an item color key. Unknown keys are mapped to NONE. */
+    private static final ItemColor readItemColor(JsonStreamReader reader) throws JSONException,
+            IOException {
+        if (reader.peek() == Token.STRING) {
+            final int index = reader.nextStringIndex(ITEM_COLOR_KEYS);
+            return (index < 0) ? ItemColor.NONE : ITEM_COLORS[index];
+        }
+        final String optColorKey = optString(reader, null);
+        return (optColorKey == null) ? ItemColor.NONE : ItemColor.fromKey(optColorKey,
+                ItemColor.NONE);
+    }
+
+    /** Deserialize the persistence metadata. */
+    private static final void readMetadata(JsonStreamReader reader,
+            PersistenceMetadata resultMetadata) throws JSONException, IOException {
+        resultMetadata.clear();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            // These two fields are required but we provide default to avoid force close, just in
+            // case.
+            if (FIELD_WRITER_VERSION_CODE.equals(name)) {
+                resultMetadata.writerVersionCode = (int) optLong(reader);
+            } else if (FIELD_WRITER_VERSION_NAME.equals(name)) {
+                resultMetadata.writerVersionName = optString(reader,
+                        PersistenceMetadata.DEFAULT_WRITER_VERSION_NAME);
+            } else if (FIELD_JOURNAL_GENERATION.equals(name)) {
+                resultMetadata.journalGeneration = optLong(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    // The opt*() methods below follow the semantic of the matching JSONObject methods. A value of
+    // an unexpected type is skipped and the fallback value is returned.
+
+    static final String optString(JsonStreamReader reader, String fallback)
+            throws JSONException, IOException {
+        final Token token = reader.peek();
+        if (token == Token.STRING || token == Token.NUMBER || token == Token.BOOLEAN) {
+            return reader.nextString();
+        }
+        reader.skipValue();
+        return fallback;
+    }
+
+    static final long optLong(JsonStreamReader reader) throws JSONException, IOException {
+        final Token token = reader.peek();
+        if (token == Token.NUMBER) {
+            return reader.nextLong();
+        }
+        if (token == Token.STRING) {
+            try {
+                return Long.parseLong(reader.nextString());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        reader.skipValue();
+        return 0;
+    }
+
+    static final boolean optBoolean(JsonStreamReader reader) throws JSONException,
+            IOException {
+        final Token token = reader.peek();
+        if (token == Token.BOOLEAN) {
+            return reader.nextBoolean();
+        }
+        if (token == Token.STRING) {
+            return "true".equalsIgnoreCase(reader.nextString());
+        }
+        reader.skipValue();
+        return false;
+    }
 }
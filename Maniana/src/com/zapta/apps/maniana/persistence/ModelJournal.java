@@ -0,0 +1,426 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.persistence;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.json.JSONException;
+
+import com.zapta.apps.maniana.annotations.MainActivityScope;
+import com.zapta.apps.maniana.model.AppModel;
+import com.zapta.apps.maniana.model.AppModel.ItemReference;
+import com.zapta.apps.maniana.model.ItemModel;
+import com.zapta.apps.maniana.model.ItemModelReadOnly;
+import com.zapta.apps.maniana.model.ModelMutationLog;
+import com.zapta.apps.maniana.model.OrganizePageSummary;
+import com.zapta.apps.maniana.model.PageKind;
+
+/**
+ * Collects model mutations as journal records that can be appended to the journal file instead of
+ * rewriting the entire data file.
+ * 
+ * The journal file starts with a header line with the generation of the data file it extends,
+ * followed by one compact JSON record per line. Records refer to items by their id, which the
+ * model keeps unique, see {@link AppModel#assignFreshIdsToDuplicates()}. Push and organize
+ * operations are recorded by their parameters and are replayed on the model, so the state of the
+ * mutated items is recorded before each such operation.
+ * 
+ * @author Tal Dayan
+ */
+@MainActivityScope
+public class ModelJournal implements ModelMutationLog, FieldNames {
+
+    private static final String OP_INSERT = "ins";
+    private static final String OP_REMOVE = "del";
+    private static final String OP_UPDATE = "upd";
+    private static final String OP_PUSH = "push";
+    private static final String OP_ORGANIZE = "org";
+    private static final String OP_PUSH_DATE = "date";
+
+    // The fields of a record. Matched by index to avoid allocating a string per field name.
+    private static final String[] RECORD_FIELDS = { FIELD_OP, FIELD_PAGE, FIELD_INDEX, FIELD_ID,
+        FIELD_ITEM, FIELD_EXPIRE_LOCKS, FIELD_DELETE_COMPLETED, FIELD_LAST_PUSH_DATE };
+    private static final int RECORD_FIELD_OP = 0;
+    private static final int RECORD_FIELD_PAGE = 1;
+    private static final int RECORD_FIELD_INDEX = 2;
+    private static final int RECORD_FIELD_ID = 3;
+    private static final int RECORD_FIELD_ITEM = 4;
+    private static final int RECORD_FIELD_EXPIRE_LOCKS = 5;
+    private static final int RECORD_FIELD_DELETE_COMPLETED = 6;
+    private static final int RECORD_FIELD_LAST_PUSH_DATE = 7;
+
+    /** Records that were not written yet to the journal file. One record per line. */
+    private final StringWriter mPendingRecords = new StringWriter();
+
+    /** Compact writer over mPendingRecords. */
+    private final JsonStreamWriter mRecordWriter = new JsonStreamWriter(mPendingRecords, 0);
+
+    /**
+     * Items that changed since their state was last recorded. Cleared whenever their state is
+     * recorded, so it holds only the items changed since the last record. Item models do not
+     * override equals() so the items are compared by identity.
+     */
+    private final Set<ItemModel> mMutatedItems = new HashSet<ItemModel>();
+
+    /** True if the next write should be a full snapshot. Records are not collected while set. */
+    private boolean mSnapshotRequired = true;
+
+    /** The version code of the app that wrote the current data file. */
+    private int mPersistedWriterVersionCode = PersistenceMetadata.DEFAULT_WRITER_VERSION_CODE;
+
+    /**
+     * Called after the model was loaded from the data file.
+     * 
+     * @param metadata the metadata of the loaded file or null if the model was not loaded.
+     */
+    public final void onModelLoaded(@Nullable PersistenceMetadata metadata) {
+        clearRecords();
+        mSnapshotRequired = (metadata == null);
+        mPersistedWriterVersionCode = (metadata == null)
+                ? PersistenceMetadata.DEFAULT_WRITER_VERSION_CODE : metadata.writerVersionCode;
+    }
+
+    /** Test if the model should be persisted by a full snapshot rather than by the journal. */
+    public final boolean isSnapshotRequired(PersistenceMetadata metadata) {
+        // NOTE: the metadata is persisted only with snapshots.
+        return mSnapshotRequired || (metadata.writerVersionCode != mPersistedWriterVersionCode);
+    }
+
+    /**
+     * Called after a full snapshot of the model was taken for writing. Following records are
+     * relative to it.
+     */
+    public final void onSnapshotTaken(PersistenceMetadata metadata) {
+        clearRecords();
+        mSnapshotRequired = false;
+        mPersistedWriterVersionCode = metadata.writerVersionCode;
+    }
+
+    /**
+     * Return the pending records, including the current state of mutated items, and clear them.
+     * Returns an empty string if there are no pending records.
+     */
+    public final String takePendingRecords() {
+        try {
+            recordMutatedItems();
+        } catch (IOException e) {
+            throw recordingError(e);
+        }
+        final StringBuffer buffer = mPendingRecords.getBuffer();
+        final String result = buffer.toString();
+        buffer.setLength(0);
+        return result;
+    }
+
+    @Override
+    public final void onItemInserted(PageKind pageKind, int itemIndex, ItemModelReadOnly item) {
+        if (mSnapshotRequired) {
+            return;
+        }
+        try {
+            recordMutatedItems();
+            mRecordWriter.beginObject();
+            mRecordWriter.name(FIELD_OP).value(OP_INSERT);
+            mRecordWriter.name(FIELD_PAGE).value(pageKey(pageKind));
+            mRecordWriter.name(FIELD_INDEX).value(itemIndex);
+            mRecordWriter.name(FIELD_ITEM);
+            ModelSerialization.writeItem(mRecordWriter, item);
+            endRecord();
+        } catch (IOException e) {
+            throw recordingError(e);
+        }
+    }
+
+    @Override
+    public final void onItemRemoved(PageKind pageKind, ItemModelReadOnly item) {
+        if (mSnapshotRequired) {
+            return;
+        }
+        try {
+            recordMutatedItems();
+            mRecordWriter.beginObject();
+            mRecordWriter.name(FIELD_OP).value(OP_REMOVE);
+            mRecordWriter.name(FIELD_PAGE).value(pageKey(pageKind));
+            mRecordWriter.name(FIELD_ID).value(item.getId());
+            endRecord();
+        } catch (IOException e) {
+            throw recordingError(e);
+        }
+    }
+
+    @Override
+    public final void onItemMutation(ItemModel item) {
+        if (mSnapshotRequired) {
+            return;
+        }
+        mMutatedItems.add(item);
+    }
+
+    @Override
+    public final void onPushToToday(boolean expireAllLocks, boolean deleteCompletedItems) {
+        if (mSnapshotRequired) {
+            return;
+        }
+        try {
+            recordMutatedItems();
+            mRecordWriter.beginObject();
+            mRecordWriter.name(FIELD_OP).value(OP_PUSH);
+            mRecordWriter.name(FIELD_EXPIRE_LOCKS).value(expireAllLocks);
+            mRecordWriter.name(FIELD_DELETE_COMPLETED).value(deleteCompletedItems);
+            endRecord();
+        } catch (IOException e) {
+            throw recordingError(e);
+        }
+    }
+
+    @Override
+    public final void onPageOrganized(PageKind pageKind, boolean deleteCompletedItems) {
+        if (mSnapshotRequired) {
+            return;
+        }
+        try {
+            recordMutatedItems();
+            mRecordWriter.beginObject();
+            mRecordWriter.name(FIELD_OP).value(OP_ORGANIZE);
+            mRecordWriter.name(FIELD_PAGE).value(pageKey(pageKind));
+            mRecordWriter.name(FIELD_DELETE_COMPLETED).value(deleteCompletedItems);
+            endRecord();
+        } catch (IOException e) {
+            throw recordingError(e);
+        }
+    }
+
+    @Override
+    public final void onLastPushDateStampChanged(String lastPushDateStamp) {
+        if (mSnapshotRequired) {
+            return;
+        }
+        try {
+            mRecordWriter.beginObject();
+            mRecordWriter.name(FIELD_OP).value(OP_PUSH_DATE);
+            mRecordWriter.name(FIELD_LAST_PUSH_DATE).value(lastPushDateStamp);
+            endRecord();
+        } catch (IOException e) {
+            throw recordingError(e);
+        }
+    }
+
+    @Override
+    public final void onModelReset() {
+        clearRecords();
+        mSnapshotRequired = true;
+    }
+
+    private final void clearRecords() {
+        mPendingRecords.getBuffer().setLength(0);
+        mMutatedItems.clear();
+    }
+
+    /** Record the state of the items that changed since they were last recorded. */
+    private final void recordMutatedItems() throws IOException {
+        if (mMutatedItems.isEmpty()) {
+            return;
+        }
+        for (ItemModel item : mMutatedItems) {
+            mRecordWriter.beginObject();
+            mRecordWriter.name(FIELD_OP).value(OP_UPDATE);
+            mRecordWriter.name(FIELD_ITEM);
+            ModelSerialization.writeItem(mRecordWriter, item);
+            endRecord();
+        }
+        mMutatedItems.clear();
+    }
+
+    private final void endRecord() throws IOException {
+        mRecordWriter.endObject();
+        mPendingRecords.write('\n');
+    }
+
+    private static final RuntimeException recordingError(IOException e) {
+        // Not expected when writing to a string.
+        return new RuntimeException("Error recording journal record", e);
+    }
+
+    private static final String pageKey(PageKind pageKind) {
+        return pageKind.isToday() ? FIELD_TODAY : FIELD_TOMOROW;
+    }
+
+    private static final PageKind pageKindFromKey(String key) throws JSONException {
+        if (FIELD_TODAY.equals(key)) {
+            return PageKind.TODAY;
+        }
+        if (FIELD_TOMOROW.equals(key)) {
+            return PageKind.TOMOROW;
+        }
+        throw new JSONException("Unknown page: " + key);
+    }
+
+    /** Write the header line of a new journal file. */
+    static final void writeHeader(Writer out, long generation) throws IOException {
+        final JsonStreamWriter writer = new JsonStreamWriter(out, 0);
+        writer.beginObject();
+        writer.name(FIELD_JOURNAL_GENERATION).value(generation);
+        writer.endObject();
+        out.write('\n');
+    }
+
+    /** Parse the header line of a journal file and return its generation. */
+    static final long readHeader(String line) throws JSONException, IOException {
+        long generation = PersistenceMetadata.DEFAULT_JOURNAL_GENERATION;
+        final JsonStreamReader reader = new JsonStreamReader(new StringReader(line));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (FIELD_JOURNAL_GENERATION.equals(reader.nextName())) {
+                generation = ModelDeserialization.optLong(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return generation;
+    }
+
+    /**
+     * Parse a single journal record line and apply it to the model.
+     * 
+     * @throws JSONException if the record is malformed or does not match the model.
+     */
+    static final void applyRecord(AppModel model, String line) throws JSONException, IOException {
+        applyRecord(model, line, false);
+    }
+
+    /**
+     * Parse a single journal record line and apply it to a model with the Today page only, such
+     * as the one read by {@link ModelDeserialization#deserializeTodayPage}. Records of the
+     * Tomorrow page are skipped.
+     * 
+     * @return false if the record requires the Tomorrow page, e.g. a push. The model is not
+     *         changed in that case.
+     * @throws JSONException if the record is malformed or does not match the model.
+     */
+    static final boolean applyTodayPageRecord(AppModel model, String line) throws JSONException,
+            IOException {
+        return applyRecord(model, line, true);
+    }
+
+    private static final boolean applyRecord(AppModel model, String line,
+            boolean isTodayPageOnly) throws JSONException, IOException {
+        String op = null;
+        String pageKey = null;
+        int index = -1;
+        String id = null;
+        ItemModel item = null;
+        boolean expireLocks = false;
+        boolean deleteCompleted = false;
+        String pushDate = null;
+
+        final JsonStreamReader reader = new JsonStreamReader(new StringReader(line));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextNameIndex(RECORD_FIELDS)) {
+                case RECORD_FIELD_OP:
+                    op = ModelDeserialization.optString(reader, null);
+                    break;
+                case RECORD_FIELD_PAGE:
+                    pageKey = ModelDeserialization.optString(reader, null);
+                    break;
+                case RECORD_FIELD_INDEX:
+                    index = (int) ModelDeserialization.optLong(reader);
+                    break;
+                case RECORD_FIELD_ID:
+                    id = ModelDeserialization.optString(reader, null);
+                    break;
+                case RECORD_FIELD_ITEM:
+                    item = ModelDeserialization.readItem(reader);
+                    break;
+                case RECORD_FIELD_EXPIRE_LOCKS:
+                    expireLocks = ModelDeserialization.optBoolean(reader);
+                    break;
+                case RECORD_FIELD_DELETE_COMPLETED:
+                    deleteCompleted = ModelDeserialization.optBoolean(reader);
+                    break;
+                case RECORD_FIELD_LAST_PUSH_DATE:
+                    pushDate = ModelDeserialization.optString(reader, "");
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (OP_INSERT.equals(op)) {
+            final PageKind pageKind = pageKindFromKey(pageKey);
+            if (isTodayPageOnly && pageKind.isTomorrow()) {
+                return true;
+            }
+            if (item == null || index < 0 || index > model.getPageItemCount(pageKind)) {
+                throw new JSONException("Invalid insert record");
+            }
+            model.insertItem(pageKind, index, item);
+        } else if (OP_REMOVE.equals(op)) {
+            final PageKind pageKind = pageKindFromKey(pageKey);
+            if (isTodayPageOnly && pageKind.isTomorrow()) {
+                return true;
+            }
+            final int itemIndex = (id == null) ? -1 : model.findPageItemIndex(pageKind, id);
+            if (itemIndex < 0) {
+                throw new JSONException("Item to remove not found: " + id);
+            }
+            model.removeItem(pageKind, itemIndex);
+        } else if (OP_UPDATE.equals(op)) {
+            if (item == null) {
+                throw new JSONException("Invalid update record");
+            }
+            @Nullable
+            final ItemReference itemRef = model.findItemById(item.getId());
+            if (itemRef == null) {
+                if (isTodayPageOnly) {
+                    // An item of the Tomorrow page.
+                    return true;
+                }
+                // Updates are recorded before the removal of their item so the model and the
+                // journal are out of sync.
+                throw new JSONException("Item to update not found: " + item.getId());
+            }
+            model.getItemForMutation(itemRef.getPageKind(), itemRef.getItemIndex()).copyFrom(item);
+        } else if (OP_PUSH.equals(op)) {
+            if (isTodayPageOnly) {
+                return false;
+            }
+            model.pushToToday(expireLocks, deleteCompleted);
+        } else if (OP_ORGANIZE.equals(op)) {
+            final PageKind pageKind = pageKindFromKey(pageKey);
+            if (isTodayPageOnly && pageKind.isTomorrow()) {
+                return true;
+            }
+            model.organizePageWithUndo(pageKind, deleteCompleted, -1, new OrganizePageSummary());
+        } else if (OP_PUSH_DATE.equals(op)) {
+            if (pushDate == null) {
+                throw new JSONException("Invalid date record");
+            }
+            model.setLastPushDateStamp(pushDate);
+        } else {
+            throw new JSONException("Unknown journal op: " + op);
+        }
+        return true;
+    }
+}
@@ -14,38 +14,175 @@
 
 package com.zapta.apps.maniana.persistence;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import javax.annotation.Nullable;
+
 import org.json.JSONException;
 
 import android.content.Context;
+import android.content.pm.PackageInfo;
 
 import com.zapta.apps.maniana.annotations.MainActivityScope;
 import com.zapta.apps.maniana.main.MainActivityState;
+import com.zapta.apps.maniana.main.MyApp;
 import com.zapta.apps.maniana.model.AppModel;
+import com.zapta.apps.maniana.model.AppModelReadOnly;
+import com.zapta.apps.maniana.model.AppModelSnapshot;
+import com.zapta.apps.maniana.model.ModelMutationLog;
 import com.zapta.apps.maniana.persistence.ModelReadingResult.ModelLoadingOutcome;
 import com.zapta.apps.maniana.util.FileUtil;
-import com.zapta.apps.maniana.util.FileUtil.FileReadResult;
-import com.zapta.apps.maniana.util.FileUtil.FileReadResult.FileReadOutcome;
 import com.zapta.apps.maniana.util.LogUtil;
+import com.zapta.apps.maniana.util.PackageUtil;
 
 /**
  * Manages model persistence.
  * 
+ * The model is persisted as a full snapshot in the data file plus a journal file with the
+ * mutations done since the snapshot was written. Small changes are appended to the journal and the
+ * journal is folded into a new snapshot once it grows large. Readers of the raw data file (e.g.
+ * backup) should call {@link #compactDataFile(Context)} first. The writes are performed on the
+ * {@link ModelWriter} thread.
+ * 
+ * The data file is written in the binary format. Data files in the older JSON format are still
+ * read and are upgraded on the next snapshot. Exported backups use the JSON format.
+ * 
+ * The last model read is kept in a {@link ModelCache} so repeated reads of unchanged files (e.g.
+ * by several widget providers) do not parse the files again. While the main activity has its
+ * model loaded, other readers use the last snapshot the model published instead of the files.
+ * 
  * @author Tal Dayan
  */
 // TODO: add syncrhonization and make it an app scope level.
 @MainActivityScope
 public class ModelPersistence {
 
-    /** Path to file where model is persisted. */
+    /**
+     * Path to file where model is persisted.
+     * 
+     * NOTE: the file name is preserved for compatibility though the content is now binary.
+     */
     public static final String DATA_FILE_NAME = "maniana_data.json";
 
-    /** Static lock protecting the access to the data file. */
+    /** Path to the JSON copy of the model that is attached to backup emails. */
+    public static final String EXPORT_FILE_NAME = "maniana_export.json";
+
+    /** Temp file used to replace the data file atomically. */
+    private static final String TEMP_DATA_FILE_NAME = "maniana_data.json.tmp";
+
+    /** Path to the journal file with the model changes since the data file was written. */
+    public static final String JOURNAL_FILE_NAME = "maniana_journal.json";
+
+    /** Journal size in bytes above which the journal is folded into the data file. */
+    private static final long JOURNAL_COMPACTION_SIZE = 32 * 1024;
+
+    /** Size of the buffer used when writing the export file. */
+    private static final int WRITE_BUFFER_SIZE = 8 * 1024;
+
+    /** Static lock protecting the access to the data and journal files. */
     public static final Object sDataFileLock = new Object();
 
-    /** Read the model file from the internal storage. */
+    /** Used to generate journal generation ids. Protected by sDataFileLock. */
+    private static final Random sRandom = new Random();
+
+    /**
+     * True if the journal file may be missing records. Cleared when a new snapshot is written.
+     * Protected by sDataFileLock.
+     */
+    private static boolean sJournalInvalid = false;
+
+    /**
+     * Incremented whenever the data or journal file is changed. Used to validate the
+     * {@link ModelCache}. Protected by sDataFileLock.
+     */
+    private static long sFileGeneration = 0;
+
+    /**
+     * Read the model for a reader other than the main activity. Uses the last snapshot published
+     * by the model of the main activity if loaded, otherwise reads the model file from the
+     * internal storage.
+     */
     public static final ModelReadingResult readModelFile(Context context, AppModel resultModel) {
-        ModelReadingResult result = readModelFileInternal(context, resultModel, DATA_FILE_NAME,
-                false);
+        @Nullable
+        final ModelReadingResult result = copyMainActivitySnapshot(context, resultModel);
+        if (result != null) {
+            return result;
+        }
+        return readModelFile(context, resultModel, null);
+    }
+
+    /**
+     * Return the last snapshot published by the model of the main activity, or null if the main
+     * activity does not have its model loaded. The snapshot is the same as or newer than the
+     * persisted model, since writes are asynchronous. Thread safe.
+     */
+    @Nullable
+    private static final AppModelSnapshot mainActivitySnapshot(Context context) {
+        // NOTE: the app may run with the default application class, e.g. for a backup restore.
+        final Context appContext = context.getApplicationContext();
+        if (!(appContext instanceof MyApp)) {
+            return null;
+        }
+        @Nullable
+        final AppModel model = ((MyApp) appContext).mainActivityModel();
+        return (model == null) ? null : model.getSnapshot();
+    }
+
+    /**
+     * Copy the last snapshot published by the model of the main activity, if any, into
+     * resultModel.
+     * 
+     * @return the reading result or null if there is no such snapshot (resultModel is not
+     *         changed).
+     */
+    @Nullable
+    private static final ModelReadingResult copyMainActivitySnapshot(Context context,
+            AppModel resultModel) {
+        @Nullable
+        final AppModelSnapshot snapshot = mainActivitySnapshot(context);
+        if (snapshot == null) {
+            return null;
+        }
+        LogUtil.info("Using the main activity model snapshot");
+        snapshot.copyTo(resultModel);
+        resultModel.setClean();
+        return new ModelReadingResult(ModelLoadingOutcome.FILE_READ_OK,
+                newSnapshotMetadata(context));
+    }
+
+    /** Return the metadata of a snapshot, which is written with the current app version. */
+    private static final PersistenceMetadata newSnapshotMetadata(Context context) {
+        final PackageInfo packageInfo = PackageUtil.getPackageInfo(context);
+        return new PersistenceMetadata(packageInfo.versionCode, packageInfo.versionName);
+    }
+
+    /**
+     * Read the model file from the internal storage.
+     * 
+     * @param journal optional journal that records the changes of resultModel. Synced with the
+     *        loaded model.
+     */
+    public static final ModelReadingResult readModelFile(Context context, AppModel resultModel,
+            @Nullable ModelJournal journal) {
+        // The mutations done while loading are already persisted so we don't log them.
+        @Nullable
+        final ModelMutationLog mutationLog = resultModel.getMutationLog();
+        resultModel.setMutationLog(null);
+        final ModelReadingResult result;
+        try {
+            result = readModelFileInternal(context, resultModel, DATA_FILE_NAME, false);
+        } finally {
+            resultModel.setMutationLog(mutationLog);
+        }
         if (result.outcome.isOk()) {
             // Model is same as persistence file and no version change.
             resultModel.setClean();
@@ -53,9 +190,92 @@ public class ModelPersistence {
             // Model need to be rewritten
             resultModel.setDirty();
         }
+        if (journal != null) {
+            journal.onModelLoaded(result.metadata);
+            // The journal refers to items by id so ids should be unique.
+            final int freshIdCount = resultModel.assignFreshIdsToDuplicates();
+            if (freshIdCount > 0) {
+                LogUtil.warning("Assigned fresh ids to %d items with duplicate ids", freshIdCount);
+                journal.onModelReset();
+            }
+        }
         return result;
     }
 
+    /**
+     * Read the metadata, the last push date stamp and the Today page of the model. The Tomorrow
+     * page of resultModel may be left empty so this is intended for read only views of the Today
+     * page such as the widgets. The journal records of the Today page are applied. Falls back to a
+     * full read if the data file is in the JSON format or if the journal has a record that
+     * requires the Tomorrow page, e.g. a push.
+     */
+    public static final ModelReadingResult readTodayPage(Context context, AppModel resultModel) {
+        @Nullable
+        final ModelReadingResult snapshotResult = copyMainActivitySnapshot(context, resultModel);
+        if (snapshotResult != null) {
+            return snapshotResult;
+        }
+        synchronized (sDataFileLock) {
+            @Nullable
+            final ModelReadingResult result = readTodayPageLocked(context, resultModel);
+            if (result != null) {
+                resultModel.setClean();
+                return result;
+            }
+        }
+        LogUtil.info("Reading the full model");
+        return readModelFile(context, resultModel);
+    }
+
+    /**
+     * Caller should hold the lock.
+     * 
+     * @return the reading result or null if a full read is required.
+     */
+    @Nullable
+    private static final ModelReadingResult readTodayPageLocked(Context context,
+            AppModel resultModel) {
+        // A cached full model is cheaper than a partial parse.
+        @Nullable
+        final PersistenceMetadata cachedMetadata = ModelCache.copyCachedModel(context,
+                sFileGeneration, resultModel);
+        if (cachedMetadata != null) {
+            return new ModelReadingResult(ModelLoadingOutcome.FILE_READ_OK, cachedMetadata);
+        }
+
+        resultModel.clear();
+        final InputStream in;
+        try {
+            in = FileUtil.openPrivateFileForRead(context, DATA_FILE_NAME);
+        } catch (IOException e) {
+            // Reported by the full read.
+            return null;
+        }
+
+        try {
+            final PersistenceMetadata resultMetadata = new PersistenceMetadata();
+            if (!ModelDeserialization.deserializeTodayPage(resultModel, resultMetadata, in)) {
+                LogUtil.info("Data file is not in the binary format");
+                return null;
+            }
+            if (replayJournalLocked(context, resultModel, resultMetadata.journalGeneration,
+                    true) < 0) {
+                LogUtil.info("Journal requires the Tomorrow page");
+                return null;
+            }
+            LogUtil.info("Read the Today page only");
+            return new ModelReadingResult(ModelLoadingOutcome.FILE_READ_OK, resultMetadata);
+        } catch (JSONException e) {
+            // Reported by the full read.
+            return null;
+        } catch (IOException e) {
+            // Reported by the full read.
+            return null;
+        } finally {
+            FileUtil.closeQuietly(in, DATA_FILE_NAME);
+        }
+    }
+
     /**
      * Caller is expected to manager the model's dirty bit. In case of an error, the returned model
      * is cleared.
@@ -67,38 +287,417 @@ public class ModelPersistence {
 
         resultModel.clear();
 
-        // Try to read the model file
-        final FileReadResult fileReadResult;
+        // NOTE: the file is opened while holding the lock so the data file and the journal file
+        // are read at the same generation.
         synchronized (sDataFileLock) {
-            fileReadResult = FileUtil.readFileToString(context, fileName, isAsset);
+            if (!isAsset) {
+                @Nullable
+                final PersistenceMetadata cachedMetadata = ModelCache.copyCachedModel(context,
+                        sFileGeneration, resultModel);
+                if (cachedMetadata != null) {
+                    return new ModelReadingResult(ModelLoadingOutcome.FILE_READ_OK,
+                            cachedMetadata);
+                }
+            }
+
+            // Try to open the model file
+            final InputStream in;
+            try {
+                in = isAsset ? FileUtil.openAssetForRead(context, fileName) : FileUtil
+                        .openPrivateFileForRead(context, fileName);
+            } catch (IOException e) {
+                // This is normal when opening the file after first installation since it
+                // does not exist.
+                LogUtil.warning(e, "Error opening a file");
+                return new ModelReadingResult(ModelLoadingOutcome.FILE_NOT_FOUND);
+            }
+
+            // Parse the file directly from the stream. The format is detected from the content.
+            try {
+                final PersistenceMetadata resultMetadata = new PersistenceMetadata();
+                ModelDeserialization.deserializeModel(resultModel, resultMetadata, in);
+                if (!isAsset) {
+                    replayJournalLocked(context, resultModel, resultMetadata.journalGeneration,
+                            false);
+                    ModelCache.put(context, sFileGeneration, resultModel, resultMetadata);
+                }
+                return new ModelReadingResult(ModelLoadingOutcome.FILE_READ_OK, resultMetadata);
+            } catch (JSONException e) {
+                LogUtil.error(e, "Error parsing model file");
+                resultModel.clear();
+                return new ModelReadingResult(ModelLoadingOutcome.FILE_HAS_ERRORS);
+            } catch (IOException e) {
+                LogUtil.error(e, "Error reading model file");
+                resultModel.clear();
+                return new ModelReadingResult(ModelLoadingOutcome.FILE_HAS_ERRORS);
+            } finally {
+                FileUtil.closeQuietly(in, fileName);
+            }
         }
+    }
 
-        if (fileReadResult.outcome == FileReadOutcome.NOT_FOUND) {
-            return new ModelReadingResult(ModelLoadingOutcome.FILE_NOT_FOUND);
+    /**
+     * Apply the records of the journal file to a model that was just read from the data file.
+     * Caller should hold the lock.
+     * 
+     * @param generation the journal generation of the data file.
+     * @param isTodayPageOnly true if the model has the Today page only. Records of the Tomorrow
+     *        page are skipped.
+     * @return the number of records applied, or -1 if isTodayPageOnly and a record requires the
+     *         Tomorrow page. The model is partly updated in that case.
+     */
+    private static final int replayJournalLocked(Context context, AppModel model,
+            long generation, boolean isTodayPageOnly) throws IOException {
+        if (generation == PersistenceMetadata.DEFAULT_JOURNAL_GENERATION) {
+            // Data file was written before journaling was introduced.
+            return 0;
         }
 
-        // Try to parse the json file
+        final InputStream in;
         try {
-            PersistenceMetadata resultMetadata = new PersistenceMetadata();
-            ModelDeserialization.deserializeModel(resultModel, resultMetadata,
-                    fileReadResult.content);
-            return new ModelReadingResult(ModelLoadingOutcome.FILE_READ_OK, resultMetadata);
+            in = FileUtil.openPrivateFileForRead(context, JOURNAL_FILE_NAME);
+        } catch (IOException e) {
+            LogUtil.warning("No journal file found");
+            return 0;
+        }
 
-        } catch (JSONException e) {
-            LogUtil.error(e, "Error parsing model JSON");
-            resultModel.clear();
-            return new ModelReadingResult(ModelLoadingOutcome.FILE_HAS_ERRORS);
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+                    FileUtil.UTF_8));
+            String line = reader.readLine();
+            try {
+                if (line == null || ModelJournal.readHeader(line) != generation) {
+                    // Data file was replaced after this journal was started.
+                    LogUtil.info("Ignoring a stale journal file");
+                    return 0;
+                }
+            } catch (JSONException e) {
+                LogUtil.error(e, "Error parsing journal header, ignoring journal");
+                return 0;
+            }
+
+            int records = 0;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0) {
+                    continue;
+                }
+                try {
+                    if (!isTodayPageOnly) {
+                        ModelJournal.applyRecord(model, line);
+                    } else if (!ModelJournal.applyTodayPageRecord(model, line)) {
+                        return -1;
+                    }
+                    records++;
+                } catch (JSONException e) {
+                    // Typically a partial record from an interrupted write. The records
+                    // that follow it were written on top of the model without it.
+                    LogUtil.error(e, "Skipping a bad journal record");
+                }
+            }
+            LogUtil.info("Applied %d journal records", records);
+            return records;
+        } finally {
+            FileUtil.closeQuietly(in, JOURNAL_FILE_NAME);
         }
     }
 
+    /**
+     * Persist the model changes asynchronously. Appends the journal records of the main activity
+     * state if possible, otherwise writes a full snapshot. Does not block on the disk. The model's
+     * dirty bit is not changed, it's the caller responsibility to clear it when the listener
+     * reports that the write is done.
+     */
     public static final void writeModelFile(MainActivityState mainActivityState, AppModel model,
-            PersistenceMetadata metadata) {
-        LogUtil.info("Saving model to file: " + DATA_FILE_NAME);
-        final String json = ModelSerialization.serializeModel(model, metadata);
+            PersistenceMetadata metadata, final ModelWriter.WriteListener listener) {
+        final ModelJournal journal = mainActivityState.modelJournal();
+        final ModelWriter.WriteListener journalListener = new ModelWriter.WriteListener() {
+            @Override
+            public void onWriteDone(boolean ok) {
+                if (!ok) {
+                    // The journal file may be missing records so we start over.
+                    journal.onModelReset();
+                }
+                listener.onWriteDone(ok);
+            }
+        };
+
+        // Immutable, so the model may change before it is written. Typically the one published
+        // by the last dispatch of the model changes.
+        final AppModelSnapshot snapshot = model.publishSnapshot();
+        // The model is persisted so it is again the current one, e.g. after a data file restore.
+        mainActivityState.app().setMainActivityModel(model);
+
+        if (journal.isSnapshotRequired(metadata)) {
+            LogUtil.info("Requesting a snapshot write");
+            journal.onSnapshotTaken(metadata);
+            ModelWriter.requestSnapshot(mainActivityState.context(), snapshot, metadata,
+                    journalListener);
+        } else {
+            ModelWriter.requestJournalAppend(mainActivityState.context(),
+                    journal.takePendingRecords(), journalListener);
+        }
+    }
+
+    /**
+     * Write a request of the model writer. Called on the writer thread.
+     * 
+     * @return true if ok, false if the records could not be appended to the journal.
+     */
+    static final boolean writePendingWrite(Context context, @Nullable AppModelSnapshot snapshot,
+            @Nullable PersistenceMetadata snapshotMetadata, String journalRecords) {
+        synchronized (sDataFileLock) {
+            if (snapshot != null) {
+                LogUtil.info("Saving model to file: " + DATA_FILE_NAME);
+                writeSnapshotLocked(context, snapshot, snapshotMetadata);
+            }
+
+            if (journalRecords.length() == 0) {
+                return true;
+            }
+
+            // We don't append to a journal that misses records, e.g. after a failed append or
+            // if it was deleted by a backup restore.
+            if (sJournalInvalid || !context.getFileStreamPath(JOURNAL_FILE_NAME).exists()) {
+                LogUtil.warning("Journal file is not valid, records not appended");
+                sJournalInvalid = true;
+                return false;
+            }
+
+            LogUtil.info("Appending %d chars to journal file", journalRecords.length());
+            try {
+                appendToJournalLocked(context, journalRecords);
+            } catch (RuntimeException e) {
+                sJournalInvalid = true;
+                throw e;
+            }
+
+            // We are already on a background thread so we compact here.
+            if (context.getFileStreamPath(JOURNAL_FILE_NAME).length() > JOURNAL_COMPACTION_SIZE) {
+                compactDataFileLocked(context);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Fold the journal into a new data file. Does nothing if the journal has no records. Should
+     * be called before accessing the raw data file, e.g. when backing it up. Waits for pending
+     * model writes. Thread safe but should not be called while holding the lock.
+     */
+    public static final void compactDataFile(Context context) {
+        ModelWriter.drain();
+        synchronized (sDataFileLock) {
+            compactDataFileLocked(context);
+        }
+    }
+
+    /** Caller should hold the lock. */
+    private static final void compactDataFileLocked(Context context) {
+        try {
+            final AppModel model = new AppModel();
+            final PersistenceMetadata metadata = new PersistenceMetadata();
+            if (readDataFilesLocked(context, model, metadata) > 0) {
+                LogUtil.info("Compacting journal into data file");
+                // NOTE: the writer version of the data file is preserved.
+                writeSnapshotLocked(context, model, metadata);
+            }
+        } catch (JSONException e) {
+            LogUtil.error(e, "Error parsing model file, compaction skipped");
+        } catch (IOException e) {
+            LogUtil.error(e, "Error reading model file, compaction skipped");
+        }
+    }
+
+    /**
+     * Write the persisted model, including the journal changes, as a JSON doc to the export file.
+     * Uses the last snapshot published by the model of the main activity if loaded, which does
+     * not wait for the pending writes. Can be called from any thread.
+     * 
+     * @return the export file or null if the model could not be read.
+     */
+    @Nullable
+    public static final File writeExportFile(Context context) {
+        @Nullable
+        final AppModelSnapshot snapshot = mainActivitySnapshot(context);
+        final AppModelReadOnly model;
+        final PersistenceMetadata metadata;
+        if (snapshot != null) {
+            model = snapshot;
+            metadata = newSnapshotMetadata(context);
+        } else {
+            final AppModel fileModel = new AppModel();
+            metadata = new PersistenceMetadata();
+            ModelWriter.drain();
+            synchronized (sDataFileLock) {
+                try {
+                    readDataFilesLocked(context, fileModel, metadata);
+                } catch (JSONException e) {
+                    LogUtil.error(e, "Error parsing model file, export failed");
+                    return null;
+                } catch (IOException e) {
+                    LogUtil.error(e, "Error reading model file, export failed");
+                    return null;
+                }
+            }
+            model = fileModel;
+            // The export file is self contained.
+            metadata.journalGeneration = PersistenceMetadata.DEFAULT_JOURNAL_GENERATION;
+        }
+
+        synchronized (sDataFileLock) {
+            Writer out = null;
+            try {
+                out = new BufferedWriter(new OutputStreamWriter(FileUtil.openPrivateFileForWrite(
+                        context, EXPORT_FILE_NAME, Context.MODE_PRIVATE, WRITE_BUFFER_SIZE, false),
+                        FileUtil.UTF_8), WRITE_BUFFER_SIZE);
+                ModelSerialization.serializeModel(model, metadata, out);
+                out.close();
+                out = null;
+            } catch (IOException e) {
+                LogUtil.error(e, "Error writing export file");
+                return null;
+            } finally {
+                if (out != null) {
+                    FileUtil.closeQuietly(out, EXPORT_FILE_NAME);
+                }
+            }
+            return context.getFileStreamPath(EXPORT_FILE_NAME);
+        }
+    }
+
+    /**
+     * Read the data file and apply the journal. Caller should hold the lock.
+     * 
+     * @return the number of journal records applied.
+     */
+    private static final int readDataFilesLocked(Context context, AppModel model,
+            PersistenceMetadata metadata) throws JSONException, IOException {
+        final InputStream in = FileUtil.openPrivateFileForRead(context, DATA_FILE_NAME);
+        try {
+            ModelDeserialization.deserializeModel(model, metadata, in);
+            return replayJournalLocked(context, model, metadata.journalGeneration, false);
+        } finally {
+            FileUtil.closeQuietly(in, DATA_FILE_NAME);
+        }
+    }
+
+    /**
+     * Called after the data file was replaced externally (e.g. by a backup restore). Discards the
+     * journal of the old data file.
+     */
+    public static final void onDataFileReplaced(Context context) {
+        // The model of the main activity no longer matches the persisted one.
+        final Context appContext = context.getApplicationContext();
+        if (appContext instanceof MyApp) {
+            ((MyApp) appContext).setMainActivityModel(null);
+        }
         synchronized (sDataFileLock) {
-            FileUtil.writeStringToFile(mainActivityState.context(), json, DATA_FILE_NAME, Context.MODE_PRIVATE);
+            context.deleteFile(JOURNAL_FILE_NAME);
+            onFilesChangedLocked();
+        }
+    }
+
+    /**
+     * Write a full snapshot of the model and start a new empty journal for it. Assigns a new
+     * journal generation to metadata. Caller should hold the lock.
+     */
+    private static final void writeSnapshotLocked(Context context, AppModelReadOnly model,
+            PersistenceMetadata metadata) {
+        metadata.journalGeneration = newJournalGeneration();
+        onFilesChangedLocked();
+
+        // Write to a temp file and rename so readers never see a partial data file.
+        writeModelFileInternal(context, model, metadata, TEMP_DATA_FILE_NAME);
+        final File tempFile = context.getFileStreamPath(TEMP_DATA_FILE_NAME);
+        if (!tempFile.renameTo(context.getFileStreamPath(DATA_FILE_NAME))) {
+            // TODO: more graceful error handling?
+            throw new RuntimeException("Failed to rename " + TEMP_DATA_FILE_NAME);
+        }
+
+        // NOTE: if we crash before this point, the old journal is ignored when loading since its
+        // generation does not match the new data file.
+        Writer out = null;
+        try {
+            out = new OutputStreamWriter(FileUtil.openPrivateFileForWrite(context,
+                    JOURNAL_FILE_NAME, Context.MODE_PRIVATE, 0, false), FileUtil.UTF_8);
+            ModelJournal.writeHeader(out, metadata.journalGeneration);
+            out.close();
+            out = null;
+            sJournalInvalid = false;
+        } catch (IOException e) {
+            // TODO: more graceful error handling?
+            throw new RuntimeException(e);
+        } finally {
+            if (out != null) {
+                FileUtil.closeQuietly(out, JOURNAL_FILE_NAME);
+            }
+        }
+    }
+
+    /** Append records to the journal file. Caller should hold the lock. */
+    private static final void appendToJournalLocked(Context context, String records) {
+        onFilesChangedLocked();
+        Writer out = null;
+        try {
+            // NOTE: not synced, a torn record is skipped when the journal is replayed.
+            out = new OutputStreamWriter(FileUtil.openPrivateFileForWrite(context,
+                    JOURNAL_FILE_NAME, Context.MODE_APPEND, records.length() + 1, false),
+                    FileUtil.UTF_8);
+            // Start on a new line in case the previous append was interrupted in mid record.
+            out.write('\n');
+            out.write(records);
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            // TODO: more graceful error handling?
+            throw new RuntimeException(e);
+        } finally {
+            if (out != null) {
+                FileUtil.closeQuietly(out, JOURNAL_FILE_NAME);
+            }
+        }
+    }
+
+    /** Called before the data or journal file is changed. Caller should hold the lock. */
+    private static final void onFilesChangedLocked() {
+        sFileGeneration++;
+        ModelCache.invalidate();
+    }
+
+    /** Return a new non zero journal generation id. Caller should hold the lock. */
+    private static final long newJournalGeneration() {
+        long generation;
+        do {
+            generation = sRandom.nextLong();
+        } while (generation == PersistenceMetadata.DEFAULT_JOURNAL_GENERATION);
+        return generation;
+    }
+
+    /**
+     * Stream the binary serialized model into the given private file. The file is synced since it
+     * is then renamed over the data file. Caller should hold the lock.
+     */
+    private static final void writeModelFileInternal(Context context, AppModelReadOnly model,
+            PersistenceMetadata metadata, String fileName) {
+        // The new file is typically about the size of the current one.
+        final int sizeHint = (int) context.getFileStreamPath(DATA_FILE_NAME).length();
+        OutputStream out = null;
+        try {
+            out = FileUtil.openPrivateFileForWrite(context, fileName, Context.MODE_PRIVATE,
+                    sizeHint, true);
+            ModelSerialization.serializeModelBinary(model, metadata, out);
+            // NOTE: closing flushes and syncs the file so its errors are not ignored.
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            // TODO: more graceful error handling?
+            throw new RuntimeException(e);
+        } finally {
+            if (out != null) {
+                FileUtil.closeQuietly(out, fileName);
+                // Failed. The partial file must not replace the data file.
+                context.deleteFile(fileName);
+            }
         }
-        // Model reflects persisted state.
-        model.setClean();
     }
 }
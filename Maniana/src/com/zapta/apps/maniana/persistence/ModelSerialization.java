@@ -14,18 +14,23 @@
 
 package com.zapta.apps.maniana.persistence;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 
 import com.zapta.apps.maniana.annotations.ApplicationScope;
-import com.zapta.apps.maniana.model.AppModel;
+import com.zapta.apps.maniana.model.AppModelReadOnly;
 import com.zapta.apps.maniana.model.ItemColor;
 import com.zapta.apps.maniana.model.ItemModelReadOnly;
 import com.zapta.apps.maniana.model.PageKind;
+import com.zapta.apps.maniana.util.IdUtil;
 
 /**
- * Serializes a model to a JSON doc.
+ * Serializes a model to a JSON doc or to the compact binary format.
+ * 
+ * The doc is streamed to the output as the model is traversed, with no intermediate JSON objects
+ * or strings. The binary format is used for the data file, the JSON format for exported backups.
  * 
  * @author Tal Dayan
  */
@@ -36,62 +41,189 @@ public class ModelSerialization implements FieldNames {
     // 1: initial. Model fields at top level, with format.
     // 2: added top level "metadata". Move model fields to "model". Format field stays at
     // top level.
+    // 3: binary encoding, see serializeModelBinary(). JSON docs are still written with step 2.
     private static final int FORMAT_STEP = 2;
+    static final int BINARY_FORMAT_STEP = 3;
+
+    /**
+     * Leading bytes of a binary model. The first byte is not valid at the beginning of a JSON doc
+     * so the format can be detected from the first bytes of the file.
+     */
+    static final byte[] BINARY_MAGIC = { (byte) 0x89, 'M', 'N', 'A' };
+
+    // Bits of the binary item flags byte.
+    static final int FLAG_DONE = 0x01;
+    static final int FLAG_LOCKED = 0x02;
+    static final int FLAG_SCHEDULED = 0x04;
+    static final int FLAG_COLOR = 0x08;
+    /** Id is encoded as a string prefix and a numeric suffix, see IdGenerator. */
+    static final int FLAG_SPLIT_ID = 0x10;
+
+    // NOTE: using indent of only 1 to reduce file size.
+    private static final int INDENT = 1;
 
-    public static final String serializeModel(AppModel model, PersistenceMetadata metadata) {
+    /** Serialize a model to a string. */
+    public static final String serializeModel(AppModelReadOnly model,
+            PersistenceMetadata metadata) {
+        final StringWriter out = new StringWriter();
         try {
-            final JSONObject root = new JSONObject();
-            root.put(FIELD_FORMAT, FORMAT_STEP);
-            root.put(FIELD_METADATA, metadata.toJason());
-            root.put(FIELD_MODEL, modelToJason(model));
-
-            // NOTE: using indent of only 1 to reduce file size.
-            return root.toString(1);
-        } catch (JSONException e) {
+            serializeModel(model, metadata, out);
+        } catch (IOException e) {
+            // Not expected when writing to a string.
             throw new RuntimeException("JSON serialization error", e);
         }
+        return out.toString();
     }
 
-    /** Serialize a model to a JSON object. */
-    private static final JSONObject modelToJason(AppModel model) throws JSONException {
-        final JSONObject root = new JSONObject();
-        root.put(FIELD_LAST_PUSH_DATE, model.getLastPushDateStamp());
-        root.put(FIELD_TODAY, pageItemsToJson(model, PageKind.TODAY));
-        root.put(FIELD_TOMOROW, pageItemsToJson(model, PageKind.TOMOROW));
-        return root;
+    /**
+     * Serialize a model to a character stream. The stream is flushed but not closed.
+     */
+    public static final void serializeModel(AppModelReadOnly model, PersistenceMetadata metadata,
+            Writer out) throws IOException {
+        final JsonStreamWriter writer = new JsonStreamWriter(out, INDENT);
+        writer.beginObject();
+        // NOTE: the format is written first so readers can tell the format before they parse
+        // the rest of the doc.
+        writer.name(FIELD_FORMAT).value(FORMAT_STEP);
+        writer.name(FIELD_METADATA);
+        writeMetadata(writer, metadata);
+        writer.name(FIELD_MODEL);
+        writeModel(writer, model);
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Serialize a model in the binary format. The stream is flushed but not closed.
+     * 
+     * Layout: magic, format step, metadata (writer version code and name, journal generation),
+     * last push datestamp, then the today and tomorrow pages, each as an item count followed by
+     * the items. Each item is a flags byte, the update time as a delta from the previous item,
+     * the id, the text and the optional scheduled time and color ordinal. Strings are written
+     * through the string table of {@link BinaryStreamWriter}.
+     */
+    public static final void serializeModelBinary(AppModelReadOnly model,
+            PersistenceMetadata metadata, OutputStream out) throws IOException {
+        final BinaryStreamWriter writer = new BinaryStreamWriter(out);
+        writer.writeBytes(BINARY_MAGIC);
+        writer.writeVarLong(BINARY_FORMAT_STEP);
+
+        writer.writeSignedVarLong(metadata.writerVersionCode);
+        writer.writeString(metadata.writerVersionName);
+        writer.writeSignedVarLong(metadata.journalGeneration);
+
+        // NOTE: the fields needed to compute the push scope and the Today page come first so the
+        // widgets can read them without decoding the Tomorrow page.
+        writer.writeString(model.getLastPushDateStamp());
+        long lastUpdateTime = 0;
+        for (PageKind pageKind : PageKind.values()) {
+            final int n = model.getPageItemCount(pageKind);
+            writer.writeVarLong(n);
+            for (int i = 0; i < n; i++) {
+                final ItemModelReadOnly item = model.getItemReadOnly(pageKind, i);
+                writeItemBinary(writer, item, lastUpdateTime);
+                lastUpdateTime = item.getUpdateTime();
+            }
+        }
+        writer.flush();
+    }
+
+    /** Serialize one item in the binary format. */
+    private static final void writeItemBinary(BinaryStreamWriter writer,
+            ItemModelReadOnly item, long lastUpdateTime) throws IOException {
+        final long idSuffix = item.getIdSuffix();
+
+        int flags = 0;
+        if (item.isCompleted()) {
+            flags |= FLAG_DONE;
+        }
+        if (item.isLocked()) {
+            flags |= FLAG_LOCKED;
+        }
+        if (item.getScheduledTime() != 0) {
+            flags |= FLAG_SCHEDULED;
+        }
+        if (item.getColor() != ItemColor.NONE) {
+            flags |= FLAG_COLOR;
+        }
+        if (idSuffix != IdUtil.NO_SUFFIX) {
+            flags |= FLAG_SPLIT_ID;
+        }
+        writer.writeByte(flags);
+
+        // Items are typically created in bursts so the deltas are small.
+        writer.writeSignedVarLong(item.getUpdateTime() - lastUpdateTime);
+
+        // Ids of items created in the same session share the prefix.
+        writer.writeString(item.getIdPrefix());
+        if (idSuffix != IdUtil.NO_SUFFIX) {
+            writer.writeVarLong(idSuffix);
+        }
+        writer.writeString(item.getText());
+        if (item.getScheduledTime() != 0) {
+            writer.writeSignedVarLong(item.getScheduledTime());
+        }
+        if (item.getColor() != ItemColor.NONE) {
+            // NOTE: changing the order of ItemColor values breaks existing data files.
+            writer.writeByte(item.getColor().ordinal());
+        }
     }
 
-    /** Serialize one page */
-    private static final JSONArray pageItemsToJson(AppModel appModel, PageKind pageKind)
-            throws JSONException {
 
-        final JSONArray result = new JSONArray();
+    /** Serialize the persistence metadata. */
+    private static final void writeMetadata(JsonStreamWriter writer, PersistenceMetadata metadata)
+            throws IOException {
+        writer.beginObject();
+        writer.name(FIELD_WRITER_VERSION_CODE).value(metadata.writerVersionCode);
+        writer.name(FIELD_WRITER_VERSION_NAME).value(metadata.writerVersionName);
+        if (metadata.journalGeneration != PersistenceMetadata.DEFAULT_JOURNAL_GENERATION) {
+            writer.name(FIELD_JOURNAL_GENERATION).value(metadata.journalGeneration);
+        }
+        writer.endObject();
+    }
+
+    /** Serialize the model fields. */
+    private static final void writeModel(JsonStreamWriter writer, AppModelReadOnly model)
+            throws IOException {
+        writer.beginObject();
+        writer.name(FIELD_LAST_PUSH_DATE).value(model.getLastPushDateStamp());
+        writer.name(FIELD_TODAY);
+        writePageItems(writer, model, PageKind.TODAY);
+        writer.name(FIELD_TOMOROW);
+        writePageItems(writer, model, PageKind.TOMOROW);
+        writer.endObject();
+    }
+
+    /** Serialize one page */
+    private static final void writePageItems(JsonStreamWriter writer, AppModelReadOnly appModel,
+            PageKind pageKind) throws IOException {
+        writer.beginArray();
         final int n = appModel.getPageItemCount(pageKind);
         for (int i = 0; i < n; i++) {
-            result.put(itemToJson(appModel.getItemReadOnly(pageKind, i)));
+            writeItem(writer, appModel.getItemReadOnly(pageKind, i));
         }
-        return result;
+        writer.endArray();
     }
 
     /** Serialzie one item */
-    private static final JSONObject itemToJson(ItemModelReadOnly itemModel) throws JSONException {
-        final JSONObject result = new JSONObject();
-        result.put(FIELD_UPDATE_TIME, itemModel.getUpdateTime());
-        result.put(FIELD_ID, itemModel.getId());
-        result.put(FIELD_TEXT, itemModel.getText());
+    static final void writeItem(JsonStreamWriter writer, ItemModelReadOnly itemModel)
+            throws IOException {
+        writer.beginObject();
+        writer.name(FIELD_UPDATE_TIME).value(itemModel.getUpdateTime());
+        writer.name(FIELD_ID).value(itemModel.getId());
+        writer.name(FIELD_TEXT).value(itemModel.getText());
         if (itemModel.isCompleted()) {
-            result.put(FIELD_DONE, itemModel.isCompleted());
+            writer.name(FIELD_DONE).value(true);
         }
         if (itemModel.isLocked()) {
-            result.put(FIELD_LOCKED, itemModel.isLocked());
+            writer.name(FIELD_LOCKED).value(true);
         }
         if (itemModel.getScheduledTime() != 0) {
-        	result.put(FIELD_SCHEDULED, itemModel.getScheduledTime());
+            writer.name(FIELD_SCHEDULED).value(itemModel.getScheduledTime());
         }
         if (itemModel.getColor() != ItemColor.NONE) {
-            result.put(FIELD_COLOR, itemModel.getColor().getKey());
+            writer.name(FIELD_COLOR).value(itemModel.getColor().getKey());
         }
-        return result;
+        writer.endObject();
     }
-
 }
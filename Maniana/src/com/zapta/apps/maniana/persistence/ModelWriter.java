@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+import com.zapta.apps.maniana.model.AppModelSnapshot;
+import com.zapta.apps.maniana.util.LogUtil;
+
+/**
+ * Performs the model file writes on a dedicated worker thread so the main thread never blocks on
+ * the disk.
+ * 
+ * Write requests that are queued while the worker is busy are collapsed into a single write. A
+ * newer snapshot replaces an older pending one and journal records are concatenated. Requesters
+ * are informed on the main thread once their request was written.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+public final class ModelWriter {
+
+    /** Informed on the main thread when a write request was completed. */
+    public interface WriteListener {
+        /**
+         * @param ok true if the request was written. Otherwise the file may not contain the
+         *        request changes.
+         */
+        void onWriteDone(boolean ok);
+    }
+
+    /** A set of collapsed write requests. */
+    private static class PendingWrite {
+        /** Optional full snapshot to write. */
+        @Nullable
+        AppModelSnapshot snapshot;
+
+        @Nullable
+        PersistenceMetadata snapshotMetadata;
+
+        /** Journal records to append after the snapshot, if any, was written. */
+        final StringBuilder journalRecords = new StringBuilder();
+
+        final List<WriteListener> listeners = new ArrayList<WriteListener>();
+    }
+
+    private static final ModelWriter singleton = new ModelWriter();
+
+    /** Used to post the completion notifications. */
+    private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
+
+    /** Protected by this. Null if no pending write. */
+    @Nullable
+    private PendingWrite mPendingWrite = null;
+
+    /** Protected by this. True while the worker writes a request it took from mPendingWrite. */
+    private boolean mWriteInProgress = false;
+
+    /** Protected by this. Lazily started on first request. */
+    @Nullable
+    private Thread mWorkerThread = null;
+
+    /** Protected by this. Set on first request. */
+    @Nullable
+    private Context mAppContext = null;
+
+    private ModelWriter() {
+    }
+
+    /**
+     * Request to write a full snapshot. Any pending request is superseded by it.
+     * 
+     * @param snapshot an immutable snapshot of the model to write.
+     */
+    public static void requestSnapshot(Context context, AppModelSnapshot snapshot,
+            PersistenceMetadata metadata, WriteListener listener) {
+        singleton.internalRequest(context, snapshot, metadata, null, listener);
+    }
+
+    /** Request to append records to the journal file. */
+    public static void requestJournalAppend(Context context, String journalRecords,
+            WriteListener listener) {
+        singleton.internalRequest(context, null, null, journalRecords, listener);
+    }
+
+    /**
+     * Block until all the pending requests are written. Should not be called while holding
+     * {@link ModelPersistence#sDataFileLock}.
+     */
+    public static void drain() {
+        singleton.internalDrain();
+    }
+
+    private synchronized void internalRequest(Context context, @Nullable AppModelSnapshot snapshot,
+            @Nullable PersistenceMetadata snapshotMetadata, @Nullable String journalRecords,
+            WriteListener listener) {
+        if (mPendingWrite == null) {
+            mPendingWrite = new PendingWrite();
+        } else {
+            LogUtil.info("Collapsing model write requests");
+        }
+        if (snapshot != null) {
+            // The new snapshot already includes the pending records.
+            mPendingWrite.snapshot = snapshot;
+            mPendingWrite.snapshotMetadata = snapshotMetadata;
+            mPendingWrite.journalRecords.setLength(0);
+        }
+        if (journalRecords != null) {
+            mPendingWrite.journalRecords.append(journalRecords);
+        }
+        mPendingWrite.listeners.add(listener);
+
+        if (mWorkerThread == null) {
+            mAppContext = context.getApplicationContext();
+            mWorkerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop();
+                }
+            }, "ModelWriter");
+            mWorkerThread.start();
+        }
+        notifyAll();
+    }
+
+    private synchronized void internalDrain() {
+        while (mPendingWrite != null || mWriteInProgress) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                LogUtil.warning("Model writer drain interrupted");
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /** Wait for the next pending write and take it. */
+    private synchronized PendingWrite takePendingWrite() throws InterruptedException {
+        while (mPendingWrite == null) {
+            wait();
+        }
+        final PendingWrite result = mPendingWrite;
+        mPendingWrite = null;
+        mWriteInProgress = true;
+        return result;
+    }
+
+    private synchronized void onWriteFinished() {
+        mWriteInProgress = false;
+        notifyAll();
+    }
+
+    private void workerLoop() {
+        for (;;) {
+            final PendingWrite pendingWrite;
+            try {
+                pendingWrite = takePendingWrite();
+            } catch (InterruptedException e) {
+                LogUtil.warning("Model writer interrupted");
+                return;
+            }
+
+            boolean ok = false;
+            try {
+                ok = ModelPersistence.writePendingWrite(mAppContext, pendingWrite.snapshot,
+                        pendingWrite.snapshotMetadata, pendingWrite.journalRecords.toString());
+            } catch (RuntimeException e) {
+                LogUtil.error(e, "Error writing model file");
+            } finally {
+                onWriteFinished();
+            }
+
+            notifyListeners(pendingWrite.listeners, ok);
+        }
+    }
+
+    private void notifyListeners(final List<WriteListener> listeners, final boolean ok) {
+        mMainThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (WriteListener listener : listeners) {
+                    listener.onWriteDone(ok);
+                }
+            }
+        });
+    }
+}
@@ -14,9 +14,6 @@
 
 package com.zapta.apps.maniana.persistence;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import com.zapta.apps.maniana.annotations.ApplicationScope;
 
 /** Represents additional data that is persisted with the model. */
@@ -25,6 +22,7 @@ public class PersistenceMetadata {
 
     public static final int DEFAULT_WRITER_VERSION_CODE = 0;
     public static final String DEFAULT_WRITER_VERSION_NAME = "";
+    public static final long DEFAULT_JOURNAL_GENERATION = 0;
 
     /** Build number of the app that wrote the model. Same as the field of same in the app manifest */
     public int writerVersionCode;
@@ -32,6 +30,12 @@ public class PersistenceMetadata {
     /** Build name of the app that wrote the model. Same as the field of same in the app manifest */
     public String writerVersionName;
 
+    /**
+     * Identifies the journal file that extends the data file. A journal file with a different
+     * generation is stale and is ignored. Zero if the data file has no journal.
+     */
+    public long journalGeneration;
+
     public PersistenceMetadata() {
         clear();
     }
@@ -39,26 +43,13 @@ public class PersistenceMetadata {
     public final void clear() {
         writerVersionCode = DEFAULT_WRITER_VERSION_CODE;
         writerVersionName = DEFAULT_WRITER_VERSION_NAME;
+        journalGeneration = DEFAULT_JOURNAL_GENERATION;
     }
 
     public PersistenceMetadata(int writerVersionCode, String writerVersionName) {
         super();
         this.writerVersionCode = writerVersionCode;
         this.writerVersionName = writerVersionName;
-    }
-
-    public JSONObject toJason() throws JSONException {
-        final JSONObject result = new JSONObject();
-        // TODO: define consts for the field names
-        result.put("writer_ver_code", writerVersionCode);
-        result.put("writer_ver_name", writerVersionName);
-        return result;
-    }
-
-    public void fromJson(JSONObject json) throws JSONException {
-        clear();
-        // These two fields are required but we provide default to avoid force close, just in case.
-        writerVersionCode = json.optInt("writer_ver_code", DEFAULT_WRITER_VERSION_CODE);
-        writerVersionName = json.optString("writer_ver_name", DEFAULT_WRITER_VERSION_NAME);
+        this.journalGeneration = DEFAULT_JOURNAL_GENERATION;
     }
 }
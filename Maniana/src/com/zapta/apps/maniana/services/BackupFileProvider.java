@@ -67,12 +67,15 @@ public class BackupFileProvider extends ContentProvider {
         LogUtil.info("Provider.openFile() incoming uri: %s", uri);
         final int matchStatus = uriMatcher.match(uri);
         if (matchStatus == MATCHED_OK) {
-            // We always return the data file, regardless of the file name in the uri.
-            String fileLocation = getContext().getFilesDir() + File.separator
-                   + ModelPersistence.DATA_FILE_NAME;
+            // We always return a JSON copy of the data file, regardless of the file name in the
+            // uri. The data file itself is binary.
+            final File exportFile = ModelPersistence.writeExportFile(getContext());
+            if (exportFile == null) {
+                throw new FileNotFoundException("Failed to export the data file");
+            }
           
             // Always returning in read only mode, regardless of the requested mode.
-            ParcelFileDescriptor pfd = ParcelFileDescriptor.open(new File(fileLocation),
+            ParcelFileDescriptor pfd = ParcelFileDescriptor.open(exportFile,
                     ParcelFileDescriptor.MODE_READ_ONLY);
             return pfd;
         }
@@ -119,8 +122,8 @@ public class BackupFileProvider extends ContentProvider {
 
         intent.setType("application/json");
 
-        // The data provider ignores the file name and always returns a copy of the maniaia data
-        // file.
+        // The data provider ignores the file name and always returns a JSON copy of the maniaia
+        // data file.
         intent.putExtra(Intent.EXTRA_STREAM,
                 Uri.parse("content://" + BackupFileProvider.AUTHORITY + "/" + fileName));
 
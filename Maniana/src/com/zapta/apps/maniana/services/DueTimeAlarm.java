@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.services;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.text.format.Time;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+import com.zapta.apps.maniana.main.MyApp;
+import com.zapta.apps.maniana.model.AppModel;
+import com.zapta.apps.maniana.model.PageKind;
+import com.zapta.apps.maniana.notifications.NotificationUtil;
+import com.zapta.apps.maniana.persistence.ModelPersistence;
+import com.zapta.apps.maniana.settings.PreferencesReader;
+import com.zapta.apps.maniana.util.LogUtil;
+import com.zapta.apps.maniana.widget.BaseWidgetProvider;
+
+/**
+ * Provides a trigger at the scheduled time of the next due item. A single alarm is armed at any
+ * time, for the earliest scheduled time of a pending item, and re-armed when triggered, when
+ * the model changes and when the device boots. This avoids polling for due items.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+public class DueTimeAlarm extends BroadcastReceiver {
+
+    /** Should match AndroidManifest.xml. */
+    private static final String DUE_TIME_TRIGGER_ACTION =
+            "com.zapta.apps.maniana.DUE_TIME_TRIGGER_ACTION";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        LogUtil.info("DueTimeAlarm onRecieve: " + intent);
+
+        // Scheduled items may be in either page so we load the entire model.
+        final AppModel model = new AppModel();
+        if (!ModelPersistence.readModelFile(context, model).outcome.isOk()) {
+            LogUtil.error("DueTimeAlarm: could not read the model");
+            return;
+        }
+
+        // Alarms do not survive a reboot so we re-arm it. Items that became due while the
+        // device was off are not notified.
+        if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+            scheduleNextAlarm(context, model);
+            return;
+        }
+
+        final long nowMillis = System.currentTimeMillis();
+        final int dueItemCount = model.getPageDueItemCount(PageKind.TODAY, nowMillis)
+                + model.getPageDueItemCount(PageKind.TOMOROW, nowMillis);
+        final PreferencesReader prefReader = ((MyApp) context.getApplicationContext())
+                .preferencesReader();
+        if (dueItemCount > 0 && prefReader.getDailyNotificationPreference()) {
+            NotificationUtil.sendDueItemsNotification(context, dueItemCount,
+                    prefReader.getNotificationLedPreference(),
+                    prefReader.getAllowSoundsPreference());
+        }
+
+        // The widgets mark the due items.
+        final Time timeNow = new Time();
+        timeNow.setToNow();
+        BaseWidgetProvider.updateAllWidgetsFromContext(context, timeNow);
+
+        scheduleNextAlarm(context, model);
+    }
+
+    /**
+     * Arm the alarm for the next scheduled time of given model, replacing the current alarm if
+     * any. Cancels the alarm if no item is scheduled after now. O(log n) in the number of
+     * scheduled items.
+     */
+    public static final void scheduleNextAlarm(Context context, AppModel model) {
+        final long nextTimeMillis = model.getNextScheduledTimeAfter(System.currentTimeMillis());
+
+        // Same intent so the pending intent, and thus the alarm, is replaced rather than added.
+        final Intent intent = new Intent(DUE_TIME_TRIGGER_ACTION);
+        final PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        final AlarmManager alarmManager = (AlarmManager) context
+                .getSystemService(Context.ALARM_SERVICE);
+        if (nextTimeMillis == 0) {
+            alarmManager.cancel(pendingIntent);
+            return;
+        }
+        LogUtil.debug("Scheduling due time alarm at %d", nextTimeMillis);
+        alarmManager.set(AlarmManager.RTC_WAKEUP, nextTimeMillis, pendingIntent);
+    }
+}
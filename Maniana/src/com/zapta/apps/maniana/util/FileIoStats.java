@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.util;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+
+/**
+ * Process wide counters of the file streams opened through {@link FileUtil}. Each stream reports
+ * its totals when it is closed. For debugging and performance tuning.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+public final class FileIoStats {
+
+    private static long sFilesRead = 0;
+    private static long sBytesRead = 0;
+    private static long sReadNanos = 0;
+
+    private static long sFilesWritten = 0;
+    private static long sBytesWritten = 0;
+    private static long sWriteNanos = 0;
+    private static long sSyncs = 0;
+
+    /** Do not instantiate */
+    private FileIoStats() {
+    }
+
+    /** Called when a read stream is closed. */
+    static synchronized void onFileRead(long bytes, long nanos) {
+        sFilesRead++;
+        sBytesRead += bytes;
+        sReadNanos += nanos;
+    }
+
+    /**
+     * Called when a write stream is closed.
+     * 
+     * @param nanos time spent in writing, including the sync, if any.
+     */
+    static synchronized void onFileWritten(long bytes, long nanos, boolean synced) {
+        sFilesWritten++;
+        sBytesWritten += bytes;
+        sWriteNanos += nanos;
+        if (synced) {
+            sSyncs++;
+        }
+    }
+
+    /** Get a multi line summary of the counters. */
+    public static synchronized String summary() {
+        return String.format("Files read: %d (%d bytes, %d ms)\n"
+                + "Files written: %d (%d bytes, %d ms, %d syncs)\n", sFilesRead, sBytesRead,
+                sReadNanos / 1000000, sFilesWritten, sBytesWritten, sWriteNanos / 1000000, sSyncs);
+    }
+}
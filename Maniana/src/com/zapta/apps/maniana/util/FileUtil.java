@@ -14,10 +14,16 @@
 
 package com.zapta.apps.maniana.util;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
 
 import javax.annotation.Nullable;
 
@@ -30,15 +36,160 @@ import com.zapta.apps.maniana.util.FileUtil.FileReadResult.FileReadOutcome;
 /**
  * File read/write utils.
  * 
+ * The data files of the app should be opened with the open methods of this class. They count the
+ * traffic in {@link FileIoStats} and let writers force the data to the storage device.
+ * 
  * @author Tal Dayan
  */
 @ApplicationScope
 public final class FileUtil {
 
+    /** The encoding of our text files. */
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Min and max size of the buffer of a write stream. The actual size is based on a hint. */
+    private static final int MIN_WRITE_BUFFER_SIZE = 512;
+    private static final int MAX_WRITE_BUFFER_SIZE = 8 * 1024;
+
+    /** Size of the buffer used to read a file into a string. */
+    private static final int READ_BUFFER_SIZE = 4 * 1024;
+
     /** Do not instantiate */
     private FileUtil() {
     }
 
+    /** A read stream that reports its traffic to FileIoStats when closed. */
+    private static class CountingInputStream extends FilterInputStream {
+        private long mBytes = 0;
+        private long mNanos = 0;
+        private boolean mIsClosed = false;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final long startNanos = System.nanoTime();
+            final int result = in.read();
+            mNanos += System.nanoTime() - startNanos;
+            if (result >= 0) {
+                mBytes++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            final long startNanos = System.nanoTime();
+            final int result = in.read(buffer, offset, count);
+            mNanos += System.nanoTime() - startNanos;
+            if (result > 0) {
+                mBytes += result;
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!mIsClosed) {
+                mIsClosed = true;
+                FileIoStats.onFileRead(mBytes, mNanos);
+            }
+            in.close();
+        }
+    }
+
+    /**
+     * A write stream that reports its traffic to FileIoStats and optionally syncs the file when
+     * closed. Should be wrapped with a buffer.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final FileOutputStream mFileOut;
+        private final boolean mSync;
+        private long mBytes = 0;
+        private long mNanos = 0;
+        private boolean mIsClosed = false;
+
+        private CountingOutputStream(FileOutputStream out, boolean sync) {
+            super(out);
+            mFileOut = out;
+            mSync = sync;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            final long startNanos = System.nanoTime();
+            out.write(b);
+            mNanos += System.nanoTime() - startNanos;
+            mBytes++;
+        }
+
+        // NOTE: the default implementation writes one byte at a time.
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            final long startNanos = System.nanoTime();
+            out.write(buffer, offset, count);
+            mNanos += System.nanoTime() - startNanos;
+            mBytes += count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mIsClosed) {
+                return;
+            }
+            mIsClosed = true;
+            final long startNanos = System.nanoTime();
+            try {
+                if (mSync) {
+                    mFileOut.getFD().sync();
+                }
+            } finally {
+                out.close();
+                mNanos += System.nanoTime() - startNanos;
+                FileIoStats.onFileWritten(mBytes, mNanos, mSync);
+            }
+        }
+    }
+
+    /**
+     * Open a private app file for reading. The stream is not buffered. Caller should close the
+     * returned stream.
+     * 
+     * @throws IOException if the file could not be opened, e.g. if it does not exist.
+     */
+    public static InputStream openPrivateFileForRead(Context context, String fileName)
+            throws IOException {
+        return new CountingInputStream(context.openFileInput(fileName));
+    }
+
+    /**
+     * Open an asset file for reading. The stream is not buffered. Caller should close the returned
+     * stream.
+     * 
+     * @param path the asset path, relative to .../assets/.
+     */
+    public static InputStream openAssetForRead(Context context, String path) throws IOException {
+        return new CountingInputStream(context.getAssets().open(path));
+    }
+
+    /**
+     * Open a private app file for buffered writing. Caller should close the returned stream.
+     * 
+     * @param contextMode the file creation mode, e.g. Context.MODE_PRIVATE or MODE_APPEND.
+     * @param sizeHint the expected number of bytes to write. Used to size the buffer.
+     * @param sync if true, the data is forced to the storage device when the stream is closed.
+     *        Should be used for files that replace other files, at the cost of a slower close.
+     */
+    public static OutputStream openPrivateFileForWrite(Context context, String fileName,
+            int contextMode, int sizeHint, boolean sync) throws IOException {
+        final int bufferSize = Math.max(MIN_WRITE_BUFFER_SIZE,
+                Math.min(MAX_WRITE_BUFFER_SIZE, sizeHint));
+        return new BufferedOutputStream(new CountingOutputStream(context.openFileOutput(fileName,
+                contextMode), sync), bufferSize);
+    }
+
     /** The result of a file read operation. */
     public static class FileReadResult {
         public static enum FileReadOutcome {
@@ -74,7 +225,8 @@ public final class FileUtil {
         // Open
         final InputStream in;
         try {
-            in = isAsset ? context.getAssets().open(fileName) : context.openFileInput(fileName);
+            in = isAsset ? openAssetForRead(context, fileName) : openPrivateFileForRead(context,
+                    fileName);
         } catch (IOException e) {
             // This is normal when opening the file after first installation since it
             // does not exist.
@@ -94,7 +246,7 @@ public final class FileUtil {
         // Read
         try {
             final ByteArrayOutputStream builder = new ByteArrayOutputStream();
-            final byte bfr[] = new byte[100];
+            final byte bfr[] = new byte[READ_BUFFER_SIZE];
             for (;;) {
                 final int n = in.read(bfr);
                 if (n < 1) {
@@ -102,7 +254,7 @@ public final class FileUtil {
                 }
                 builder.write(bfr, 0, n);
             }
-            return new FileReadResult(FileReadOutcome.READ_OK, builder.toString());
+            return new FileReadResult(FileReadOutcome.READ_OK, builder.toString(UTF_8.name()));
         } catch (IOException e) {
             LogUtil.error(e, "Error reading file %s", fileDescription);
             return new FileReadResult(FileReadOutcome.READ_ERROR, null);
@@ -117,13 +269,35 @@ public final class FileUtil {
         }
     }
 
+    /** Copy the remaining content of a stream to another stream. The streams are not closed. */
+    public static void copy(InputStream in, OutputStream out) throws IOException {
+        final byte bfr[] = new byte[READ_BUFFER_SIZE];
+        for (;;) {
+            final int n = in.read(bfr);
+            if (n < 1) {
+                return;
+            }
+            out.write(bfr, 0, n);
+        }
+    }
+
+    /** Close a stream, logging but otherwise ignoring errors. */
+    public static void closeQuietly(Closeable stream, String fileDescription) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            LogUtil.error(e, "Failed to close file: " + fileDescription);
+        }
+    }
+
     /** Write a string to a file */
     public static void writeStringToFile(Context context, String content, String fileName,
             int contextMode) {
-        FileOutputStream out = null;
+        OutputStream out = null;
         try {
-            out = context.openFileOutput(fileName, contextMode);
-            out.write(content.getBytes());
+            final byte[] bytes = content.getBytes(UTF_8.name());
+            out = openPrivateFileForWrite(context, fileName, contextMode, bytes.length, false);
+            out.write(bytes);
         } catch (Exception e) {
             // TODO: more graceful error handling?
             throw new RuntimeException(e);
@@ -170,7 +344,7 @@ public final class FileUtil {
     @Nullable
     public static InputStream openAssert(Context context, String path) {       
         try {
-            return context.getAssets().open(path);
+            return openAssetForRead(context, path);
         } catch (IOException e) {
             LogUtil.info("Asset %s did not open (%s)", path, e.getClass().getSimpleName());
             return null;
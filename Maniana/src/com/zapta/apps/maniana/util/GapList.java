@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+
+/**
+ * An array list with a gap buffer. The unused capacity is kept as a gap at the position of the
+ * last insertion or removal so a sequence of edits at or near the same position, such as
+ * repeated inserts at the front, costs O(1) per edit instead of shifting the entire array.
+ * Moving the gap costs the distance between the positions. Random access is O(1).
+ * 
+ * Not thread safe.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+public final class GapList<E> extends AbstractList<E> implements RandomAccess {
+
+    private static final int MIN_CAPACITY = 8;
+
+    /** The elements before the gap, the gap and then the elements after the gap. */
+    private Object[] mElements;
+
+    /** Index of the first slot of the gap. */
+    private int mGapStart;
+
+    /** Index of the first slot after the gap. */
+    private int mGapEnd;
+
+    public GapList() {
+        mElements = new Object[MIN_CAPACITY];
+        mGapStart = 0;
+        mGapEnd = MIN_CAPACITY;
+    }
+
+    @Override
+    public final int size() {
+        return mElements.length - (mGapEnd - mGapStart);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final E get(int index) {
+        checkIndex(index);
+        return (E) mElements[physicalIndex(index)];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final E set(int index, E element) {
+        checkIndex(index);
+        final int i = physicalIndex(index);
+        final E result = (E) mElements[i];
+        mElements[i] = element;
+        return result;
+    }
+
+    @Override
+    public final void add(int index, E element) {
+        checkPosition(index);
+        ensureGap(1);
+        moveGap(index);
+        mElements[mGapStart++] = element;
+        modCount++;
+    }
+
+    @Override
+    public final boolean addAll(Collection<? extends E> collection) {
+        return addAll(size(), collection);
+    }
+
+    /** Insert the elements with a single move of the gap. */
+    @Override
+    public final boolean addAll(int index, Collection<? extends E> collection) {
+        checkPosition(index);
+        final Object[] elements = collection.toArray();
+        final int n = elements.length;
+        if (n == 0) {
+            return false;
+        }
+        ensureGap(n);
+        moveGap(index);
+        System.arraycopy(elements, 0, mElements, mGapStart, n);
+        mGapStart += n;
+        modCount++;
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final E remove(int index) {
+        checkIndex(index);
+        moveGap(index);
+        final E result = (E) mElements[mGapEnd];
+        mElements[mGapEnd++] = null;
+        modCount++;
+        return result;
+    }
+
+    @Override
+    protected final void removeRange(int fromIndex, int toIndex) {
+        if (fromIndex >= toIndex) {
+            return;
+        }
+        moveGap(toIndex);
+        Arrays.fill(mElements, fromIndex, toIndex, null);
+        mGapStart = fromIndex;
+        modCount++;
+    }
+
+    @Override
+    public final void clear() {
+        Arrays.fill(mElements, null);
+        mGapStart = 0;
+        mGapEnd = mElements.length;
+        modCount++;
+    }
+
+    private final int physicalIndex(int index) {
+        return (index < mGapStart) ? index : index + (mGapEnd - mGapStart);
+    }
+
+    private final void checkIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+    }
+
+    private final void checkPosition(int index) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+    }
+
+    /** Move the gap so it starts at given index. Vacated slots are cleared. */
+    private final void moveGap(int index) {
+        if (index < mGapStart) {
+            // Shift the elements in [index, gapStart) to the end of the gap.
+            final int n = mGapStart - index;
+            final int newGapEnd = mGapEnd - n;
+            System.arraycopy(mElements, index, mElements, newGapEnd, n);
+            Arrays.fill(mElements, index, Math.min(mGapStart, newGapEnd), null);
+            mGapStart = index;
+            mGapEnd = newGapEnd;
+        } else if (index > mGapStart) {
+            // Shift the elements after the gap to its start.
+            final int n = index - mGapStart;
+            final int newGapEnd = mGapEnd + n;
+            System.arraycopy(mElements, mGapEnd, mElements, mGapStart, n);
+            Arrays.fill(mElements, Math.max(mGapEnd, index), newGapEnd, null);
+            mGapStart = index;
+            mGapEnd = newGapEnd;
+        }
+    }
+
+    /** Grow the array, if needed, so the gap has room for at least n elements. */
+    private final void ensureGap(int n) {
+        final int gapSize = mGapEnd - mGapStart;
+        if (gapSize >= n) {
+            return;
+        }
+        final int size = mElements.length - gapSize;
+        final int newCapacity = Math.max(size + n, mElements.length + (mElements.length >> 1));
+        final Object[] newElements = new Object[newCapacity];
+        final int tailLength = mElements.length - mGapEnd;
+        System.arraycopy(mElements, 0, newElements, 0, mGapStart);
+        System.arraycopy(mElements, mGapEnd, newElements, newCapacity - tailLength, tailLength);
+        mElements = newElements;
+        mGapEnd = newCapacity - tailLength;
+    }
+}
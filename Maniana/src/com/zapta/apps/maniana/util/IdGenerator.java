@@ -15,8 +15,7 @@
 package com.zapta.apps.maniana.util;
 
 import java.util.UUID;
-
-import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.zapta.apps.maniana.annotations.ApplicationScope;
 
@@ -30,24 +29,22 @@ public final class IdGenerator {
 
     private static final IdGenerator singleton = new IdGenerator();
 
-    /** Prefix common to all ids generated by this instance. */
-    @Nullable
-    private String mPrefix = null;
+    /**
+     * Holds the prefix common to all ids generated by this process. Initialized by the class
+     * loader on first use to speed up app start (saves 5-10ms).
+     */
+    private static final class PrefixHolder {
+        static final String PREFIX = IdUtil.sharedPrefix(UUID.randomUUID().toString() + "-");
+    }
 
     /** Suffix of next generated id. */
-    private int mCount = 0;
+    private final AtomicInteger mCount = new AtomicInteger();
 
     private IdGenerator() {
     }
 
     private String internalGetFreshId() {
-        synchronized (this) {
-            // Lazy initialization to speed up app start (saves 5-10ms).
-            if (mPrefix == null) {
-                mPrefix = UUID.randomUUID().toString() + "-";
-            }
-            return mPrefix + mCount++;
-        }
+        return PrefixHolder.PREFIX + mCount.getAndIncrement();
     }
 
     /** Return a fresh globally unique id. Thread safe. */
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.annotation.Nullable;
+
+import com.zapta.apps.maniana.annotations.ApplicationScope;
+
+/**
+ * Utilities for the compact representation of item ids.
+ * 
+ * Ids generated by {@link IdGenerator} have the form [prefix][number] where the prefix is shared
+ * by all the ids generated by the same app process. Items store the prefix, shared through a
+ * process wide table, and the number as a long. Ids of other forms are stored as a prefix with no
+ * suffix, and are not shared since they are typically distinct.
+ * 
+ * @author Tal Dayan
+ */
+@ApplicationScope
+public final class IdUtil {
+
+    /** Suffix value of ids that have no numeric suffix. */
+    public static final long NO_SUFFIX = -1;
+
+    /** Max digits of a numeric suffix. Longer suffixes may not fit in a long. */
+    private static final int MAX_SUFFIX_DIGITS = 18;
+
+    /**
+     * Maps id prefixes to their shared instance. Weak so prefixes that are no longer referenced,
+     * e.g. of items that were imported and then deleted, are dropped. Protected by the class lock.
+     */
+    private static final Map<String, WeakReference<String>> sPrefixes =
+            new WeakHashMap<String, WeakReference<String>>();
+
+    /** Do not instantiate */
+    private IdUtil() {
+    }
+
+    /**
+     * Return the index of the numeric suffix of the id, or -1 if the id has no suffix we can
+     * represent as a number, that is, a suffix that is restored to the same string.
+     */
+    public static int numericSuffixStart(String id) {
+        final int start = id.lastIndexOf('-') + 1;
+        final int digits = id.length() - start;
+        if (start == 0 || digits == 0 || digits > MAX_SUFFIX_DIGITS) {
+            return -1;
+        }
+        // Leading zeros would be lost.
+        if (digits > 1 && id.charAt(start) == '0') {
+            return -1;
+        }
+        for (int i = start; i < id.length(); i++) {
+            final char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        return start;
+    }
+
+    /** Return the suffix of the id or NO_SUFFIX. */
+    public static long suffixOf(String id) {
+        final int start = numericSuffixStart(id);
+        return (start < 0) ? NO_SUFFIX : Long.parseLong(id.substring(start));
+    }
+
+    /** Return the prefix of the id. Not shared. */
+    public static String prefixOf(String id) {
+        final int start = numericSuffixStart(id);
+        return (start < 0) ? id : id.substring(0, start);
+    }
+
+    /** Return the shared instance of the given id prefix. Thread safe. */
+    public static synchronized String sharedPrefix(String prefix) {
+        final WeakReference<String> ref = sPrefixes.get(prefix);
+        @Nullable
+        final String result = (ref == null) ? null : ref.get();
+        if (result != null) {
+            return result;
+        }
+        sPrefixes.put(prefix, new WeakReference<String>(prefix));
+        return prefix;
+    }
+
+    /**
+     * Return the hash code of the id with given prefix and suffix, without building the id
+     * string. Cheap since strings cache their hash code and prefixes are shared.
+     */
+    public static int hashOf(String prefix, long suffix) {
+        return prefix.hashCode() * 31 + (int) (suffix ^ (suffix >>> 32));
+    }
+
+    /** Rebuild an id from its prefix and suffix. */
+    public static String toId(String prefix, long suffix) {
+        return (suffix == NO_SUFFIX) ? prefix : prefix + suffix;
+    }
+}
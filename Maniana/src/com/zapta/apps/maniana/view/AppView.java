@@ -14,6 +14,8 @@
 
 package com.zapta.apps.maniana.view;
 
+import java.util.List;
+
 import javax.annotation.Nullable;
 
 import android.support.v4.view.ViewPager;
@@ -23,6 +25,8 @@ import android.view.View;
 import com.zapta.apps.maniana.annotations.MainActivityScope;
 import com.zapta.apps.maniana.main.MainActivityState;
 import com.zapta.apps.maniana.menus.ItemMenuEntry;
+import com.zapta.apps.maniana.model.ModelChange;
+import com.zapta.apps.maniana.model.ModelChangeListener;
 import com.zapta.apps.maniana.model.PageKind;
 
 /**
@@ -79,6 +83,35 @@ public class AppView {
                 mCurrentPageIndex = position;
             }
         });
+
+        mMainActivityState.model().addChangeListener(new ModelChangeListener() {
+            @Override
+            public void onModelChanges(List<ModelChange> changes) {
+                applyModelChanges(PageKind.TODAY, changes);
+                applyModelChanges(PageKind.TOMOROW, changes);
+            }
+        });
+    }
+
+    /**
+     * Update the item views of given page to reflect the model changes. If the items changed only
+     * their fields, only the visible views of the changed items are updated. A filtered page is
+     * fully updated since any change may change the set of matching items.
+     */
+    private final void applyModelChanges(PageKind pageKind, List<ModelChange> changes) {
+        final PageView pageView = getPageView(pageKind);
+        for (ModelChange change : changes) {
+            if (change.getPageKind() == pageKind
+                    && (change.isStructural() || pageView.isFiltered())) {
+                pageView.updateAllItemViews();
+                return;
+            }
+        }
+        for (ModelChange change : changes) {
+            if (change.getPageKind() == pageKind) {
+                pageView.updateItemViews(change.getItemIndex(), change.getItemCount());
+            }
+        }
     }
     
     /** Get the current page view */
@@ -117,6 +150,25 @@ public class AppView {
         getCurrentPageView().showMainMenu();
     }
 
+    /** Show the search box of the current page. */
+    public final void showSearch() {
+        getCurrentPageView().showSearch();
+    }
+
+    /**
+     * Hide the search box of the current page, if shown.
+     * 
+     * @return true if it was shown.
+     */
+    public final boolean hideSearch() {
+        final PageView pageView = getCurrentPageView();
+        if (!pageView.isSearchShown()) {
+            return false;
+        }
+        pageView.hideSearch();
+        return true;
+    }
+
     public final void updatePages() {
         updatePage(PageKind.TODAY);
         updatePage(PageKind.TOMOROW);
@@ -228,7 +228,13 @@ public class ItemListView extends ListView {
             super.handleMessage(msg);
             switch (msg.what) {
                 case MESSAGE_DOWN_STABLE_TIMEOUT:
-                    transitionDownStableToDrag();
+                    // Items are not reordered while filtered since the neighbors of an item in
+                    // the list are not its neighbors in the page.
+                    if (mAdapter.isFiltered()) {
+                        transitionDownStableToUnstable();
+                    } else {
+                        transitionDownStableToDrag();
+                    }
                     break;
                 case MESSAGE_DRAG_SCROLL_TICK:
                     handleDragTick();
@@ -455,18 +461,20 @@ public class ItemListView extends ListView {
                 transitionToUp();
 
                 if (cachedLastState == State.DOWN_STABLE && action == MotionEvent.ACTION_UP) {
+                    // The press down index is a list position. Map it to a model item index.
+                    final int itemIndex = mAdapter.itemIndexOfPosition(cachedPressDownItemIndex);
                     switch (cachedPressedItemArea) {
                         case COLOR:
                             mainActivityState.controller().onItemColorClick(mAdapter.pageKind(),
-                                    cachedPressDownItemIndex);
+                                    itemIndex);
                             break;
                         case TEXT:
                             mainActivityState.controller().onItemTextClick(mAdapter.pageKind(),
-                                    cachedPressDownItemIndex);
+                                    itemIndex);
                             break;
                         case BUTTON:
                             mainActivityState.controller().onItemArrowClick(mAdapter.pageKind(),
-                                    cachedPressDownItemIndex);
+                                    itemIndex);
                             break;
                         default:
                             throw new RuntimeException("Unexpected pressed zone: "
@@ -794,8 +802,13 @@ public class ItemListView extends ListView {
      */
     @Nullable
     private final ItemView getItemViewIfVisible(int itemIndex) {
+        final int position = mAdapter.positionOfItemIndex(itemIndex);
+        if (position < 0) {
+            LogUtil.error("Tried to access a view of a filtered out item: %s", itemIndex);
+            return null;
+        }
         final int firstVisibleItem = getFirstVisiblePosition();
-        final int visibleIndex = itemIndex - firstVisibleItem;
+        final int visibleIndex = position - firstVisibleItem;
         if (visibleIndex < 0) {
             LogUtil.error("Tried to access a view before the visible range: %s vs %s", itemIndex,
                     firstVisibleItem);
@@ -811,6 +824,31 @@ public class ItemListView extends ListView {
         return result;
     }
 
+    /** Update the visible item views of given item range from their model items. */
+    public final void updateItemViews(int itemIndex, int itemCount) {
+        final int firstVisibleItem = getFirstVisiblePosition();
+        if (mAdapter.isFiltered()) {
+            // The visible positions map to arbitrary item indexes. Check each visible view.
+            final int end = Math.min(mAdapter.getCount(), firstVisibleItem + getChildCount());
+            for (int i = firstVisibleItem; i < end; i++) {
+                final int viewItemIndex = mAdapter.itemIndexOfPosition(i);
+                if (viewItemIndex >= itemIndex && viewItemIndex < itemIndex + itemCount) {
+                    final ItemView itemView = (ItemView) getChildAt(i - firstVisibleItem);
+                    itemView.updateFromItemModel(mAdapter.getItem(i));
+                }
+            }
+            return;
+        }
+        final int start = Math.max(itemIndex, firstVisibleItem);
+        // NOTE: the views may not be laid out yet for the current item count.
+        final int end = Math.min(Math.min(itemIndex + itemCount, mAdapter.getCount()),
+                firstVisibleItem + getChildCount());
+        for (int i = start; i < end; i++) {
+            final ItemView itemView = (ItemView) getChildAt(i - firstVisibleItem);
+            itemView.updateFromItemModel(mAdapter.getItem(i));
+        }
+    }
+
     /** Scroll show given item index. Ok to have out of bound index. */
     public void scrollToItem(int itemIndex) {
         final int n = getChildCount();
@@ -820,7 +858,10 @@ public class ItemListView extends ListView {
         }
         // Clip to [0..n).
         final int actualItemIndex = Math.max(0, Math.min(n-1, itemIndex));
-        setSelection(actualItemIndex);
+        final int position = mAdapter.positionOfItemIndex(actualItemIndex);
+        if (position >= 0) {
+            setSelection(position);
+        }
     }
 
     /**
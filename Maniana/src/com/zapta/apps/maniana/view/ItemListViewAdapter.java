@@ -14,6 +14,10 @@
 
 package com.zapta.apps.maniana.view;
 
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
@@ -26,6 +30,10 @@ import com.zapta.apps.maniana.model.PageKind;
 /**
  * Adapter between a page model and a item list view.
  * 
+ * The adapter can filter the items by a search query. Positions in the list view are then
+ * positions in the list of matching items and are mapped to and from the model item indexes with
+ * itemIndexOfPosition() and positionOfItemIndex().
+ * 
  * @author Tal Dayan
  */
 @MainActivityScope
@@ -33,6 +41,17 @@ public class ItemListViewAdapter extends BaseAdapter {
     private final MainActivityState mMainActivityState;
     private final PageKind mPageKind;
 
+    /** The search query or null if not filtering. */
+    @Nullable
+    private String mFilterQuery = null;
+
+    /**
+     * The indexes of the matching items, in increasing order. Recomputed from the query on each
+     * data change. Null if not filtering.
+     */
+    @Nullable
+    private int[] mFilterItemIndexes = null;
+
     public ItemListViewAdapter(MainActivityState mainActivityState, PageKind pageKind) {
         this.mMainActivityState = mainActivityState;
         this.mPageKind = pageKind;
@@ -52,12 +71,57 @@ public class ItemListViewAdapter extends BaseAdapter {
 
     @Override
     public final int getCount() {
-        return mMainActivityState.model().getPageItemCount(mPageKind);
+        return (mFilterItemIndexes != null) ? mFilterItemIndexes.length : mMainActivityState
+                .model().getPageItemCount(mPageKind);
     }
 
     @Override
     public final ItemModelReadOnly getItem(int position) {
-        return mMainActivityState.model().getItemReadOnly(mPageKind, position);
+        return mMainActivityState.model().getItemReadOnly(mPageKind,
+                itemIndexOfPosition(position));
+    }
+
+    /** Recompute the filtered items before the list view reads the new data. */
+    @Override
+    public final void notifyDataSetChanged() {
+        updateFilter();
+        super.notifyDataSetChanged();
+    }
+
+    /** Set the search query. Null or empty query clears the filter. */
+    public final void setFilterQuery(@Nullable String query) {
+        mFilterQuery = (query == null || query.length() == 0) ? null : query;
+        notifyDataSetChanged();
+    }
+
+    public final boolean isFiltered() {
+        return mFilterQuery != null;
+    }
+
+    private final void updateFilter() {
+        if (mFilterQuery == null) {
+            mFilterItemIndexes = null;
+            return;
+        }
+        mFilterItemIndexes = mMainActivityState.model().searchPageItemIndexes(mPageKind,
+                mFilterQuery);
+    }
+
+    /** Return the model item index of the item at given list view position. */
+    public final int itemIndexOfPosition(int position) {
+        return (mFilterItemIndexes != null) ? mFilterItemIndexes[position] : position;
+    }
+
+    /**
+     * Return the list view position of the item with given model item index, or -1 if the item
+     * is filtered out.
+     */
+    public final int positionOfItemIndex(int itemIndex) {
+        if (mFilterItemIndexes == null) {
+            return itemIndex;
+        }
+        final int position = Arrays.binarySearch(mFilterItemIndexes, itemIndex);
+        return (position >= 0) ? position : -1;
     }
 
     @Override
@@ -67,8 +131,7 @@ public class ItemListViewAdapter extends BaseAdapter {
 
     @Override
     public final View getView(int position, View convertView, ViewGroup parent) {
-        final ItemModelReadOnly itemModel = mMainActivityState.model().getItemReadOnly(mPageKind,
-                position);
+        final ItemModelReadOnly itemModel = getItem(position);
 
         final ItemView itemView;
         if (convertView == null) {
@@ -20,9 +20,14 @@ import static com.zapta.apps.maniana.util.Assertions.checkNotNull;
 import javax.annotation.Nullable;
 
 import android.annotation.SuppressLint;
+import android.content.Context;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.GradientDrawable;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
+import android.view.inputmethod.InputMethodManager;
+import android.widget.EditText;
 import android.widget.FrameLayout;
 import android.widget.ImageButton;
 import android.widget.TextView;
@@ -100,6 +105,9 @@ public class PageView extends FrameLayout {
     /** The sub view with the item list. */
     private final ItemListView mItemListView;
 
+    /** The search box. Visible only while searching. */
+    private final EditText mSearchEditText;
+
     private final View mPageTitleSection;
     private final View mPageTitleDivider;
 
@@ -150,6 +158,7 @@ public class PageView extends FrameLayout {
         mDateTextView = (TextView) findViewById(R.id.page_date_text);
 
         mItemListView = (ItemListView) findViewById(R.id.page_item_list);
+        mSearchEditText = (EditText) findViewById(R.id.page_search_text);
         mPageTitleTextView = (ExtendedTextView) findViewById(R.id.page_title_text);
 
         mPageTitleTextView.setText(mPageKind.isToday() ? R.string.page_title_Today
@@ -171,6 +180,22 @@ public class PageView extends FrameLayout {
         final ItemListViewAdapter adapter = new ItemListViewAdapter(mMainActivityState, mPageKind);
         mItemListView.setApp(mMainActivityState, adapter);
 
+        mSearchEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void afterTextChanged(Editable text) {
+                // Filter live on each keystroke.
+                mItemListView.getAdapter().setFilterQuery(text.toString());
+            }
+
+            @Override
+            public void beforeTextChanged(CharSequence arg0, int arg1, int arg2, int arg3) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence arg0, int arg1, int arg2, int arg3) {
+            }
+        });
+
         mMainMenuButtonView.setOnClickListener(new OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -384,6 +409,46 @@ public class PageView extends FrameLayout {
         mItemListView.getAdapter().notifyDataSetChanged();
     }
 
+    /**
+     * Update the visible item views of given item range to reflect the current model state. Does
+     * not handle insertions or removals of items.
+     */
+    public final void updateItemViews(int itemIndex, int itemCount) {
+        mItemListView.updateItemViews(itemIndex, itemCount);
+    }
+
+    /** Show the search box and filter the items by its text. */
+    public final void showSearch() {
+        mSearchEditText.setVisibility(View.VISIBLE);
+        mSearchEditText.requestFocus();
+        inputMethodManager().showSoftInput(mSearchEditText, InputMethodManager.SHOW_IMPLICIT);
+    }
+
+    /** Hide the search box and show all the items. Does nothing if the search is not shown. */
+    public final void hideSearch() {
+        if (!isSearchShown()) {
+            return;
+        }
+        inputMethodManager().hideSoftInputFromWindow(mSearchEditText.getWindowToken(), 0);
+        // This also clears the filter.
+        mSearchEditText.setText("");
+        mSearchEditText.setVisibility(View.GONE);
+    }
+
+    public final boolean isSearchShown() {
+        return mSearchEditText.getVisibility() == View.VISIBLE;
+    }
+
+    /** True if the list shows only the items that match the search text. */
+    public final boolean isFiltered() {
+        return mItemListView.getAdapter().isFiltered();
+    }
+
+    private final InputMethodManager inputMethodManager() {
+        return (InputMethodManager) mMainActivityState.context().getSystemService(
+                Context.INPUT_METHOD_SERVICE);
+    }
+
     /** Update undo button bases on the current model state. */
     public final void updateUndoButton() {
         final boolean hasUndo = mMainActivityState.model().pageHasUndo(mPageKind);
@@ -60,10 +60,12 @@ public abstract class BaseWidgetProvider extends AppWidgetProvider {
     /** Load model. Return null if error. The model is pushed and sorted based on current settings */
     @Nullable
     protected static AppModel loadModelForWidgets(Context context, Time timeNow) {
-        // Load model
+        // Load model. Widget providers that are updated together share a single parse of the
+        // model file through the persistence model cache. We get our own copy so we can push it.
+        // The widgets show only the Today page so we try to avoid decoding the Tomorrow page.
         final AppModel model = new AppModel();
         final ModelReadingResult modelLoadingResult = ModelPersistence
-                .readModelFile(context, model);
+                .readTodayPage(context, model);
         if (!modelLoadingResult.outcome.isOk()) {
             return null;
         }
@@ -82,6 +84,10 @@ public abstract class BaseWidgetProvider extends AppWidgetProvider {
                 timeNow, lockExpirationPeriod);
 
         if (pushScope.isActive()) {
+            // Pushing needs the Tomorrow page.
+            if (!ModelPersistence.readModelFile(context, model).outcome.isOk()) {
+                return null;
+            }
             final boolean unlockAllLocks = (pushScope == PushScope.ALL);
             model.pushToToday(unlockAllLocks, removeCompletedOnPush);
 
@@ -14,8 +14,6 @@
 
 package com.zapta.apps.maniana.widget;
 
-import java.util.List;
-
 import javax.annotation.Nullable;
 
 import android.app.PendingIntent;
@@ -31,7 +29,6 @@ import com.zapta.apps.maniana.R;
 import com.zapta.apps.maniana.annotations.ApplicationScope;
 import com.zapta.apps.maniana.main.MainActivity;
 import com.zapta.apps.maniana.model.AppModel;
-import com.zapta.apps.maniana.model.ItemModelReadOnly;
 
 /**
  * Implemnets the Maniana icon widgets.
@@ -65,8 +62,7 @@ public class IconWidgetProvider extends BaseWidgetProvider {
             maybeLabel = "??";
         } else {
             // NOTE: we always exclude completed items from the count.
-            final List<ItemModelReadOnly> items = WidgetUtil.selectTodaysItems(model, false);
-            final int n = items.size();
+            final int n = WidgetUtil.todaysItemCount(model, false);
             maybeLabel = (n > 0) ? Integer.toString(n) : null;
         }
 
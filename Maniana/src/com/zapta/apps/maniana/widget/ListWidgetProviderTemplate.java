@@ -38,6 +38,7 @@ import com.zapta.apps.maniana.R;
 import com.zapta.apps.maniana.annotations.ApplicationScope;
 import com.zapta.apps.maniana.model.AppModel;
 import com.zapta.apps.maniana.model.ItemModelReadOnly;
+import com.zapta.apps.maniana.model.PageKind;
 import com.zapta.apps.maniana.services.MainActivityServices;
 import com.zapta.apps.maniana.settings.DateOrder;
 import com.zapta.apps.maniana.settings.ItemFontVariation;
@@ -336,11 +337,8 @@ public class ListWidgetProviderTemplate {
             return;
         }
 
-        final List<ItemModelReadOnly> items = WidgetUtil.selectTodaysItems(mModel,
-                mIncludeCompletedItemsPreference);
-
         // If no items, add a message and leave.
-        if (items.isEmpty()) {
+        if (WidgetUtil.todaysItemCount(mModel, mIncludeCompletedItemsPreference) == 0) {
             final String emptyMessage = "("
                     + mContext
                             .getString(mIncludeCompletedItemsPreference ? R.string.widget_no_tasks
@@ -349,8 +347,18 @@ public class ListWidgetProviderTemplate {
             return;
         }
 
+        // Due items are prefixed with their scheduled time. The count is from the model due time
+        // index so the items are not checked when none is due, the common case.
+        final long nowMillis = System.currentTimeMillis();
+        final boolean hasDueItems = mModel.getPageDueItemCount(PageKind.TODAY, nowMillis) > 0;
+
         // Add items.
-        for (ItemModelReadOnly item : items) {
+        final int n = mModel.getPageItemCount(PageKind.TODAY);
+        for (int i = 0; i < n; i++) {
+            final ItemModelReadOnly item = mModel.getItemReadOnly(PageKind.TODAY, i);
+            if (!mIncludeCompletedItemsPreference && item.isCompleted()) {
+                continue;
+            }
             final LinearLayout itemView = (LinearLayout) mLayoutInflater.inflate(
                     R.layout.widget_list_template_item_layout, null);
             final ExtendedTextView extendedTextView = (ExtendedTextView) itemView
@@ -358,17 +366,11 @@ public class ListWidgetProviderTemplate {
             final View itemColorView = itemView.findViewById(R.id.widget_item_color);
 
             String text = item.getText();
-            /* FIXME: do we need this? what's the above function for?
-            if (item.getScheduledTime() != 0) {
-            	text = DateUtils.formatDateTime(mContext,
-        				item.getScheduledTime(), DateUtils.FORMAT_SHOW_WEEKDAY
-    					| DateUtils.FORMAT_ABBREV_WEEKDAY
-    					| DateUtils.FORMAT_SHOW_DATE
-    					| DateUtils.FORMAT_ABBREV_MONTH
-    					| DateUtils.FORMAT_NO_YEAR
-    					| DateUtils.FORMAT_SHOW_TIME) + " " + text;
+            if (hasDueItems && !item.isCompleted() && item.getScheduledTime() != 0
+                    && item.getScheduledTime() <= nowMillis) {
+                text = DateUtils.formatDateTime(mContext, item.getScheduledTime(),
+                        DateUtils.FORMAT_SHOW_TIME) + " " + text;
             }
-            */
             extendedTextView.setText(text);
             TextUtil.ICS_HACK_TEXT_VIEW(extendedTextView);
             mFontVariationPreference.apply(extendedTextView, item.isCompleted(), true);
@@ -14,12 +14,8 @@
 
 package com.zapta.apps.maniana.widget;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import com.zapta.apps.maniana.annotations.ApplicationScope;
 import com.zapta.apps.maniana.model.AppModel;
-import com.zapta.apps.maniana.model.ItemModelReadOnly;
 import com.zapta.apps.maniana.model.PageKind;
 
 /**
@@ -34,18 +30,13 @@ public abstract class WidgetUtil {
     private WidgetUtil() {
     }
 
-    /** Return a list of TODAY's active items subject to time based push. */
-    public static final List<ItemModelReadOnly> selectTodaysItems(AppModel model,
-            boolean includeCompletedItems) {
-        final int n = model.getPageItemCount(PageKind.TODAY);
-        final List<ItemModelReadOnly> result = new ArrayList<ItemModelReadOnly>(
-              n);
-        for (int i = 0; i < n; i++) {
-            final ItemModelReadOnly item = model.getItemReadOnly(PageKind.TODAY, i);
-            if (includeCompletedItems || !item.isCompleted()) {
-                result.add(item);
-            }
-        }
-        return result;
+    /**
+     * Return the number of TODAY's items shown by the widgets. O(1).
+     * 
+     * @param includeCompletedItems if false, only the pending items are counted.
+     */
+    public static final int todaysItemCount(AppModel model, boolean includeCompletedItems) {
+        return includeCompletedItems ? model.getPageItemCount(PageKind.TODAY) : model
+                .getPagePendingItemCount(PageKind.TODAY);
     }
 }
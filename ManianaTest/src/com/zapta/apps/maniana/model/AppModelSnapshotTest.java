@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the model snapshots.
+ * 
+ * @author Tal Dayan
+ */
+public class AppModelSnapshotTest extends TestCase {
+
+    private AppModel mModel;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mModel = new AppModel();
+        for (int i = 0; i < 100; i++) {
+            mModel.appendItem(PageKind.TODAY, newItem("t" + i, "0"));
+            mModel.appendItem(PageKind.TOMOROW, newItem("m" + i, "0"));
+        }
+        mModel.setLastPushDateStamp("0");
+        mModel.publishSnapshot();
+    }
+
+    private static ItemModel newItem(String id, String text) {
+        return new ItemModel(1234567, id, text, false, false, 0, ItemColor.NONE);
+    }
+
+    public void testNotAffectedByLaterMutations() {
+        final AppModelSnapshot snapshot = mModel.getSnapshot();
+        mModel.getItemForMutation(PageKind.TODAY, 5).setText("x");
+        mModel.removeItem(PageKind.TOMOROW, 0);
+        assertEquals("0", snapshot.getItemReadOnly(PageKind.TODAY, 5).getText());
+        assertEquals(100, snapshot.getPageItemCount(PageKind.TOMOROW));
+
+        // Visible only after publishing.
+        assertSame(snapshot, mModel.getSnapshot());
+        final AppModelSnapshot newSnapshot = mModel.publishSnapshot();
+        assertSame(newSnapshot, mModel.getSnapshot());
+        assertEquals(snapshot.getVersion() + 1, newSnapshot.getVersion());
+        assertEquals("x", newSnapshot.getItemReadOnly(PageKind.TODAY, 5).getText());
+        assertEquals(99, newSnapshot.getPageItemCount(PageKind.TOMOROW));
+    }
+
+    public void testSharesUnchangedData() {
+        final AppModelSnapshot snapshot = mModel.getSnapshot();
+
+        // Nothing changed.
+        assertSame(snapshot, mModel.publishSnapshot());
+
+        mModel.getItemForMutation(PageKind.TODAY, 50).setText("x");
+        final AppModelSnapshot newSnapshot = mModel.publishSnapshot();
+        assertSame(snapshot.getPageVersion(PageKind.TOMOROW),
+                newSnapshot.getPageVersion(PageKind.TOMOROW));
+        assertNotSame(snapshot.getPageVersion(PageKind.TODAY),
+                newSnapshot.getPageVersion(PageKind.TODAY));
+        assertSame(snapshot.getItemReadOnly(PageKind.TODAY, 49), newSnapshot.getItemReadOnly(
+                PageKind.TODAY, 49));
+    }
+
+    public void testPublishedOnDispatch() {
+        mModel.setLastPushDateStamp("1");
+        mModel.getItemForMutation(PageKind.TODAY, 50).setText("x");
+        assertEquals("0", mModel.getSnapshot().getLastPushDateStamp());
+        mModel.dispatchChanges();
+        final AppModelSnapshot snapshot = mModel.getSnapshot();
+        assertEquals("1", snapshot.getLastPushDateStamp());
+        assertEquals("x", snapshot.getItemReadOnly(PageKind.TODAY, 50).getText());
+        assertSame(mModel.getPageModel(PageKind.TODAY).currentHistoryVersion(),
+                snapshot.getPageVersion(PageKind.TODAY));
+    }
+
+    public void testSharesHistoryVersion() {
+        mModel.getItemForMutation(PageKind.TODAY, 50).setText("x");
+        mModel.checkpointPage(PageKind.TODAY);
+        final AppModelSnapshot snapshot = mModel.publishSnapshot();
+        assertSame(mModel.getPageModel(PageKind.TODAY).currentHistoryVersion(),
+                snapshot.getPageVersion(PageKind.TODAY));
+
+        // Changed since the checkpoint.
+        mModel.getItemForMutation(PageKind.TODAY, 50).setText("y");
+        assertEquals(null, mModel.getPageModel(PageKind.TODAY).currentHistoryVersion());
+        assertEquals("y", mModel.publishSnapshot().getItemReadOnly(PageKind.TODAY, 50).getText());
+    }
+
+    public void testCopyTo() {
+        mModel.setLastPushDateStamp("1");
+        final AppModel model = new AppModel();
+        model.appendItem(PageKind.TODAY, newItem("old", "old"));
+        mModel.publishSnapshot().copyTo(model);
+        assertEquals(100, model.getPageItemCount(PageKind.TODAY));
+        assertEquals("t7", model.getItemReadOnly(PageKind.TODAY, 7).getId());
+        assertEquals("m7", model.getItemReadOnly(PageKind.TOMOROW, 7).getId());
+        assertEquals("1", model.getLastPushDateStamp());
+
+        // The model is independent of the snapshot.
+        model.getItemForMutation(PageKind.TODAY, 7).setText("x");
+        assertEquals("0", mModel.getSnapshot().getItemReadOnly(PageKind.TODAY, 7).getText());
+    }
+
+    /**
+     * A writer mutates the model and publishes while readers check that each snapshot they see
+     * is consistent. Each batch sets all the texts and the push date stamp to the batch number
+     * and the today page to a batch dependent size.
+     */
+    public void testConcurrentReaders() throws Exception {
+        final int batches = 2000;
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<String> error = new AtomicReference<String>(null);
+
+        final Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long lastVersion = -1;
+                    while (!done.get() && error.get() == null) {
+                        final AppModelSnapshot snapshot = mModel.getSnapshot();
+                        if (snapshot.getVersion() < lastVersion) {
+                            error.set("Version went back at " + snapshot.getVersion());
+                        }
+                        lastVersion = snapshot.getVersion();
+                        final String expected = checkSnapshot(snapshot);
+                        if (expected != null) {
+                            error.set(expected);
+                        }
+                    }
+                }
+            });
+            readers[r].start();
+        }
+
+        for (int batch = 1; batch <= batches && error.get() == null; batch++) {
+            final String text = String.valueOf(batch);
+            final int todayCount = 50 + (batch % 50);
+            while (mModel.getPageItemCount(PageKind.TODAY) > todayCount) {
+                mModel.removeItem(PageKind.TODAY, 0);
+            }
+            while (mModel.getPageItemCount(PageKind.TODAY) < todayCount) {
+                mModel.insertItem(PageKind.TODAY, 0, newItem("b" + batch + "-"
+                        + mModel.getPageItemCount(PageKind.TODAY), text));
+            }
+            for (PageKind pageKind : PageKind.values()) {
+                for (int i = 0; i < mModel.getPageItemCount(pageKind); i++) {
+                    mModel.getItemForMutation(pageKind, i).setText(text);
+                }
+            }
+            mModel.setLastPushDateStamp(text);
+            mModel.dispatchChanges();
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertEquals(null, error.get());
+        assertEquals(String.valueOf(batches), mModel.getSnapshot().getLastPushDateStamp());
+    }
+
+    /** Return null if the snapshot is consistent, otherwise an error message. */
+    private static String checkSnapshot(AppModelSnapshot snapshot) {
+        final String stamp = snapshot.getLastPushDateStamp();
+        final int batch = Integer.parseInt(stamp);
+        final int expectedTodayCount = (batch == 0) ? 100 : 50 + (batch % 50);
+        if (snapshot.getPageItemCount(PageKind.TODAY) != expectedTodayCount) {
+            return "Batch " + batch + " has " + snapshot.getPageItemCount(PageKind.TODAY)
+                    + " items";
+        }
+        for (PageKind pageKind : PageKind.values()) {
+            for (int i = 0; i < snapshot.getPageItemCount(pageKind); i++) {
+                final String text = snapshot.getItemReadOnly(pageKind, i).getText();
+                if (!stamp.equals(text)) {
+                    return "Batch " + batch + " has item text " + text;
+                }
+            }
+        }
+        return null;
+    }
+}
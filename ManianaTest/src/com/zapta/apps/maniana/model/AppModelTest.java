@@ -16,10 +16,14 @@ package com.zapta.apps.maniana.model;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
+import com.zapta.apps.maniana.model.AppModel.ItemReference;
 import com.zapta.apps.maniana.model.AppModel.ProjectedImportStats;
 import com.zapta.apps.maniana.util.LogUtil;
 
@@ -87,6 +91,27 @@ public class AppModelTest extends TestCase {
         assertEquals("", mModel.getLastPushDateStamp());
     }
 
+    public void testPageDirty() {
+        mModel.setClean();
+        assertFalse(mModel.isDirty());
+
+        mModel.getItemForMutation(PageKind.TOMOROW, 0).setIsCompleted(true);
+        assertTrue(mModel.isDirty());
+        assertFalse(mModel.isPageDirty(PageKind.TODAY));
+        assertTrue(mModel.isPageDirty(PageKind.TOMOROW));
+
+        mModel.setClean();
+        mModel.removeItem(PageKind.TODAY, 0);
+        assertTrue(mModel.isPageDirty(PageKind.TODAY));
+        assertFalse(mModel.isPageDirty(PageKind.TOMOROW));
+
+        // Push affects both pages.
+        mModel.setClean();
+        mModel.pushToToday(false, false);
+        assertTrue(mModel.isPageDirty(PageKind.TODAY));
+        assertTrue(mModel.isPageDirty(PageKind.TOMOROW));
+    }
+
     public void testPush_expireAndClean() {
         setModelForPushTest();
         mModel.pushToToday(true, true);
@@ -135,6 +160,10 @@ public class AppModelTest extends TestCase {
         for (int i = 0; i < expectedItemIndexes.length; i++) {
             final int expectedItemIndex = expectedItemIndexes[i];
             assertEquals(mItems[expectedItemIndex], mModel.getItemReadOnly(pageKind, i));
+            // The id index should agree.
+            final ItemReference itemRef = mModel.findItemById(mItems[expectedItemIndex].getId());
+            assertEquals(pageKind, itemRef.getPageKind());
+            assertEquals(i, itemRef.getItemIndex());
         }
     }
 
@@ -215,16 +244,138 @@ public class AppModelTest extends TestCase {
         assertEquals(4, model1.getPageItemCount(PageKind.TODAY));
         assertEquals(1, model1.getPageItemCount(PageKind.TOMOROW));
 
-        // NOTE: this may fail because the merge order currently is not deterministic and depends
-        // on hash table order.
-        assertItem(model1.getItemReadOnly(PageKind.TODAY, 0), "yyy", false, false, ItemColor.NONE);
-        assertItem(model1.getItemReadOnly(PageKind.TODAY, 1), "xxx", false, false, ItemColor.RED);
+        // New items are inserted in their order in the other model.
+        assertItem(model1.getItemReadOnly(PageKind.TODAY, 0), "xxx", false, false, ItemColor.RED);
+        assertItem(model1.getItemReadOnly(PageKind.TODAY, 1), "yyy", false, false, ItemColor.NONE);
         assertItem(model1.getItemReadOnly(PageKind.TODAY, 2), "aaa", false, false, ItemColor.GREEN);
         assertItem(model1.getItemReadOnly(PageKind.TODAY, 3), "bbb", true, false, ItemColor.RED);
 
         assertItem(model1.getItemReadOnly(PageKind.TOMOROW, 0), "ccc", false, false, ItemColor.BLUE);
     }
 
+    public void testMergeFrom_matchesReference() {
+        for (int seed = 0; seed < 20; seed++) {
+            final AppModel model = newRandomModel(seed, 100);
+            final AppModel otherModel = newRandomModel(seed + 1000, 200);
+            final AppModel referenceModel = newRandomModel(seed, 100);
+            final int todayItemCount = model.getPageItemCount(PageKind.TODAY);
+
+            model.mergeFrom(otherModel);
+            referenceMerge(referenceModel, otherModel);
+
+            // Same items, except that the reference inserts the new items in reverse order.
+            assertEquals(referenceModel.getPageItemCount(PageKind.TODAY), model
+                    .getPageItemCount(PageKind.TODAY));
+            final int newItemCount = model.getPageItemCount(PageKind.TODAY) - todayItemCount;
+            for (int i = 0; i < model.getPageItemCount(PageKind.TODAY); i++) {
+                final int referenceIndex = (i < newItemCount) ? newItemCount - 1 - i : i;
+                // New items get fresh ids.
+                assertSameStateExceptId(referenceModel.getItemReadOnly(PageKind.TODAY,
+                        referenceIndex), model.getItemReadOnly(PageKind.TODAY, i));
+                assertEquals(i >= newItemCount, model.getPageModel(PageKind.TODAY).getItem(i)
+                        .hasSameId(referenceModel.getItemReadOnly(PageKind.TODAY,
+                                referenceIndex)));
+            }
+            assertEquals(referenceModel.getPageItemCount(PageKind.TOMOROW), model
+                    .getPageItemCount(PageKind.TOMOROW));
+            for (int i = 0; i < model.getPageItemCount(PageKind.TOMOROW); i++) {
+                assertTrue(model.getPageModel(PageKind.TOMOROW).getItem(i).hasSameState(
+                        referenceModel.getItemReadOnly(PageKind.TOMOROW, i)));
+            }
+
+            // Deterministic.
+            final AppModel model2 = newRandomModel(seed, 100);
+            model2.mergeFrom(otherModel);
+            for (int i = 0; i < model.getPageItemCount(PageKind.TODAY); i++) {
+                assertSameStateExceptId(model.getItemReadOnly(PageKind.TODAY, i),
+                        model2.getItemReadOnly(PageKind.TODAY, i));
+            }
+        }
+    }
+
+    /** A model with random items, some with the same text. */
+    private static AppModel newRandomModel(long seed, int itemCount) {
+        final Random random = new Random(seed);
+        final ItemColor[] colors = ItemColor.values();
+        final AppModel model = new AppModel();
+        for (int i = 0; i < itemCount; i++) {
+            final PageKind pageKind = random.nextBoolean() ? PageKind.TODAY : PageKind.TOMOROW;
+            model.appendItem(pageKind, new ItemModel(1234567, "id-" + random.nextInt(1000),
+                    "Item" + random.nextInt(150), random.nextBoolean(), random.nextBoolean(), 0,
+                    colors[random.nextInt(colors.length)]));
+        }
+        return model;
+    }
+
+    /**
+     * The merge semantics before mergeFrom() inserted the new items as a block, with an insertion
+     * ordered map. New items are inserted one at a time at the top of Today page.
+     */
+    private static void referenceMerge(AppModel model, AppModel otherModel) {
+        final Map<String, ItemModel> otherItems = new LinkedHashMap<String, ItemModel>();
+        for (PageKind pageKind : PageKind.values()) {
+            for (int i = 0; i < otherModel.getPageItemCount(pageKind); i++) {
+                final ItemModelReadOnly otherItem = otherModel.getItemReadOnly(pageKind, i);
+                final ItemModel existingOtherItem = otherItems.get(otherItem.getText());
+                if (existingOtherItem != null) {
+                    existingOtherItem.mergePropertiesFrom(otherItem);
+                } else {
+                    otherItems.put(otherItem.getText(), new ItemModel(otherItem));
+                }
+            }
+        }
+        for (PageKind pageKind : PageKind.values()) {
+            for (int i = 0; i < model.getPageItemCount(pageKind); i++) {
+                final ItemModel item = model.getPageModel(pageKind).getItem(i);
+                final ItemModel otherItem = otherItems.remove(item.getText());
+                if (otherItem != null) {
+                    item.mergePropertiesFrom(otherItem);
+                }
+            }
+        }
+        for (ItemModel otherItem : otherItems.values()) {
+            otherItem.setIsLocked(false);
+            model.insertItem(PageKind.TODAY, 0, otherItem);
+        }
+    }
+
+    private void assertSameStateExceptId(ItemModelReadOnly expected, ItemModelReadOnly actual) {
+        assertEquals(expected.getUpdateTime(), actual.getUpdateTime());
+        assertEquals(expected.getText(), actual.getText());
+        assertEquals(expected.isCompleted(), actual.isCompleted());
+        assertEquals(expected.isLocked(), actual.isLocked());
+        assertEquals(expected.getScheduledTime(), actual.getScheduledTime());
+        assertEquals(expected.getColor(), actual.getColor());
+    }
+
+    public void testMergeFrom_freshIds() {
+        final AppModel otherModel = new AppModel();
+        otherModel.appendItem(PageKind.TODAY, new ItemModel(1234567, "id-1", "Other", false,
+                false, 0, ItemColor.NONE));
+        mModel.mergeFrom(otherModel);
+        assertEquals("Other", mModel.getItemReadOnly(PageKind.TODAY, 0).getText());
+        assertFalse(mModel.getItemReadOnly(PageKind.TODAY, 0).hasSameId(mItems[1]));
+        assertEquals(2, mModel.findPageItemIndex(PageKind.TODAY, "id-1"));
+    }
+
+    public void testAssignFreshIdsToDuplicates() {
+        final ItemModel duplicate1 = new ItemModel(1234567, "id-2", "Dup1", false, false, 0,
+                ItemColor.NONE);
+        final ItemModel duplicate2 = new ItemModel(1234567, "id-2", "Dup2", false, false, 0,
+                ItemColor.NONE);
+        mModel.appendItem(PageKind.TODAY, duplicate1);
+        mModel.appendItem(PageKind.TOMOROW, duplicate2);
+        assertEquals(2, mModel.assignFreshIdsToDuplicates());
+
+        // The first item with the id keeps it.
+        assertEquals(2, mModel.findPageItemIndex(PageKind.TODAY, "id-2"));
+        assertEquals(-1, mModel.findPageItemIndex(PageKind.TOMOROW, "id-2"));
+        assertEquals(5, mModel.findPageItemIndex(PageKind.TODAY, duplicate1.getId()));
+        assertEquals(5, mModel.findPageItemIndex(PageKind.TOMOROW, duplicate2.getId()));
+        assertFalse(duplicate1.hasSameId(duplicate2));
+        assertEquals(0, mModel.assignFreshIdsToDuplicates());
+    }
+
     private void assertItem(ItemModelReadOnly item, String text, boolean isCompleted,
             boolean isLocked, ItemColor color) {
         assertEquals(text, item.getText());
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the due time queries of the model.
+ * 
+ * @author Tal Dayan
+ */
+public class DueTimeTest extends TestCase {
+
+    private AppModel mModel;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mModel = new AppModel();
+        mModel.appendItem(PageKind.TODAY, newItem("a", 3000, false));
+        mModel.appendItem(PageKind.TODAY, newItem("b", 0, false));
+        mModel.appendItem(PageKind.TODAY, newItem("c", 1000, true));
+        mModel.appendItem(PageKind.TOMOROW, newItem("d", 2000, false));
+        mModel.appendItem(PageKind.TOMOROW, newItem("e", 2000, false));
+    }
+
+    private static ItemModel newItem(String id, long scheduledTime, boolean isCompleted) {
+        return new ItemModel(1234567, id, "Item " + id, isCompleted, false, scheduledTime,
+                ItemColor.NONE);
+    }
+
+    private int dueItemCount(long time) {
+        return mModel.getPageDueItemCount(PageKind.TODAY, time)
+                + mModel.getPageDueItemCount(PageKind.TOMOROW, time);
+    }
+
+    public void testQueries() {
+        // Completed items are not due.
+        assertEquals(2000, mModel.getNextScheduledTimeAfter(0));
+        assertEquals(2000, mModel.getNextScheduledTimeAfter(1999));
+        assertEquals(3000, mModel.getNextScheduledTimeAfter(2000));
+        assertEquals(0, mModel.getNextScheduledTimeAfter(3000));
+        assertEquals(0, mModel.getNextScheduledTimeAfter(Long.MAX_VALUE));
+
+        assertEquals(0, dueItemCount(1999));
+        assertEquals(2, dueItemCount(2000));
+        assertEquals(3, dueItemCount(Long.MAX_VALUE));
+        assertEquals(1, mModel.getPageDueItemCount(PageKind.TODAY, 3000));
+    }
+
+    public void testMaintainedWithItems() {
+        mModel.getItemForMutation(PageKind.TODAY, 1).setScheduledTime(500);
+        mModel.getItemForMutation(PageKind.TODAY, 2).setIsCompleted(false);
+        assertEquals(500, mModel.getNextScheduledTimeAfter(0));
+        assertEquals(1000, mModel.getNextScheduledTimeAfter(500));
+        assertEquals(5, dueItemCount(3000));
+
+        // Clearing a scheduled time, completing and removing items unindex them.
+        mModel.getItemForMutation(PageKind.TODAY, 1).setScheduledTime(0);
+        mModel.getItemForMutation(PageKind.TODAY, 2).setIsCompleted(true);
+        mModel.removeItem(PageKind.TOMOROW, 0);
+        assertEquals(2000, mModel.getNextScheduledTimeAfter(0));
+        assertEquals(2, dueItemCount(3000));
+
+        // Pushed items are indexed in their new page.
+        mModel.pushToToday(true, false);
+        assertEquals(2, mModel.getPageDueItemCount(PageKind.TODAY, 3000));
+        assertEquals(0, mModel.getPageDueItemCount(PageKind.TOMOROW, 3000));
+    }
+
+    public void testReplacedItems() {
+        final List<ItemModel> items = new ArrayList<ItemModel>();
+        items.add(newItem("x", 7000, false));
+        mModel.getPageModel(PageKind.TODAY).replaceItems(items);
+        mModel.getPageModel(PageKind.TOMOROW).clear();
+        assertEquals(7000, mModel.getNextScheduledTimeAfter(0));
+        assertEquals(1, dueItemCount(Long.MAX_VALUE));
+    }
+}
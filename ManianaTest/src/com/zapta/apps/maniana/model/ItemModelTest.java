@@ -67,6 +67,54 @@ public class ItemModelTest extends TestCase {
         }
     }
 
+    public void testCompactId() {
+        final ItemModel item = new ItemModel(ts, "abc-def-123", "a", false, false, 0,
+                ItemColor.NONE);
+        assertEquals("abc-def-", item.getIdPrefix());
+        assertEquals(123, item.getIdSuffix());
+        assertEquals("abc-def-123", item.getId());
+
+        // Same id constructed from its parts.
+        final ItemModel sameId = new ItemModel(ts, "abc-def-", 123, "b", false, false, 0,
+                ItemColor.NONE);
+        assertTrue(item.hasSameId(sameId));
+        assertSame(item.getIdPrefix(), sameId.getIdPrefix());
+
+        // Ids that can't be restored from a number are kept as is.
+        for (String id : new String[] { "id1", "abc-0123", "abc-", "abc-12x" }) {
+            final ItemModel other = new ItemModel(ts, id, "a", false, false, 0, ItemColor.NONE);
+            assertEquals(id, other.getId());
+            assertFalse(item.hasSameId(other));
+        }
+    }
+
+    public void testPackedFlags() {
+        final ItemModel item = new ItemModel(1234, "id", "a", false, false, 0, ItemColor.NONE);
+        for (ItemColor color : ItemColor.values()) {
+            for (int i = 0; i < 4; i++) {
+                final boolean isCompleted = (i & 1) != 0;
+                final boolean isLocked = (i & 2) != 0;
+                item.setColor(color);
+                item.setIsCompleted(isCompleted);
+                item.setIsLocked(isLocked);
+                assertEquals(color, item.getColor());
+                assertEquals(isCompleted, item.isCompleted());
+                assertEquals(isLocked, item.isLocked());
+
+                final int expectedGroupIndex = isCompleted ? (isLocked ? 2 : 1)
+                        : (isLocked ? 3 : 0);
+                assertEquals(expectedGroupIndex, item.sortingGroupIndex());
+
+                final ItemModel copy = new ItemModel(item);
+                assertTrue(copy.hasSameState(item));
+                copy.setColor(color == ItemColor.NONE ? ItemColor.RED : ItemColor.NONE);
+                assertFalse(copy.hasSameState(item));
+                assertEquals(isCompleted, copy.isCompleted());
+                assertEquals(isLocked, copy.isLocked());
+            }
+        }
+    }
+
     private void assertItemsEqual(ItemModelReadOnly item1, ItemModelReadOnly item2) {
         assertEquals(item1.getText(), item2.getText());
         assertEquals(item1.isCompleted(), item2.isCompleted());
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.zapta.apps.maniana.model.ModelChange.Kind;
+
+/**
+ * Unit test for the model change events.
+ * 
+ * @author Tal Dayan
+ */
+public class ModelChangeTest extends TestCase {
+
+    private AppModel mModel;
+
+    /** The changes of the last dispatch, as strings. */
+    private final List<String> mChanges = new ArrayList<String>();
+
+    /** Number of times the scheduler was run. */
+    private int mScheduleCount;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mModel = new AppModel();
+        for (int i = 0; i < 10; i++) {
+            mModel.appendItem(PageKind.TODAY, newItem(i, false, false));
+            mModel.appendItem(PageKind.TOMOROW, newItem(10 + i, false, (i % 2) == 0));
+        }
+        mModel.addChangeListener(new ModelChangeListener() {
+            @Override
+            public void onModelChanges(List<ModelChange> changes) {
+                mChanges.clear();
+                for (ModelChange change : changes) {
+                    mChanges.add(describe(change));
+                }
+            }
+        });
+        mModel.setChangeScheduler(new Runnable() {
+            @Override
+            public void run() {
+                mScheduleCount++;
+            }
+        });
+        mScheduleCount = 0;
+    }
+
+    private static ItemModel newItem(int i, boolean isCompleted, boolean isLocked) {
+        return new ItemModel(1234567, "id-" + i, "Item" + i, isCompleted, isLocked, 0,
+                ItemColor.NONE);
+    }
+
+    private static String describe(ModelChange change) {
+        final String prefix = change.getKind() + " " + change.getPageKind();
+        switch (change.getKind()) {
+            case INSERTED:
+            case REMOVED:
+                return prefix + " " + change.getItemIndex() + "+" + change.getItemCount();
+            case MOVED:
+                return prefix + " " + change.getItemIndex() + ">" + change.getToIndex();
+            case CHANGED:
+                return prefix + " " + change.getItemIndex() + " " + change.getFields();
+            default:
+                return prefix;
+        }
+    }
+
+    private void assertDispatched(String... expected) {
+        mChanges.clear();
+        mModel.dispatchChanges();
+        assertEquals(expected.length, mChanges.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], mChanges.get(i));
+        }
+    }
+
+    public void testFieldChangesCoalesced() {
+        final ItemModel item = mModel.getItemForMutation(PageKind.TODAY, 3);
+        item.setIsCompleted(true);
+        item.setColor(ItemColor.RED);
+        mModel.getItemForMutation(PageKind.TODAY, 4).setText("Edited");
+        assertEquals(1, mScheduleCount);
+
+        assertDispatched("CHANGED TODAY 3 "
+                + (ModelChange.FIELD_COMPLETED | ModelChange.FIELD_COLOR), "CHANGED TODAY 4 "
+                + ModelChange.FIELD_TEXT);
+
+        // Nothing pending.
+        assertDispatched();
+        mModel.getItemForMutation(PageKind.TOMOROW, 0).setScheduledTime(1000);
+        assertEquals(2, mScheduleCount);
+        assertDispatched("CHANGED TOMOROW 0 " + ModelChange.FIELD_SCHEDULED_TIME);
+    }
+
+    public void testInsertionsAndRemovalsCoalesced() {
+        mModel.insertItem(PageKind.TODAY, 2, newItem(100, false, false));
+        mModel.insertItem(PageKind.TODAY, 2, newItem(101, false, false));
+        mModel.insertItem(PageKind.TODAY, 4, newItem(102, false, false));
+        mModel.removeItem(PageKind.TODAY, 8);
+        mModel.removeItem(PageKind.TODAY, 8);
+        mModel.removeItem(PageKind.TODAY, 7);
+        mModel.moveItem(PageKind.TODAY, 0, 5);
+        assertDispatched("INSERTED TODAY 2+3", "REMOVED TODAY 7+3", "MOVED TODAY 0>5");
+        assertEquals("Item0", mModel.getItemReadOnly(PageKind.TODAY, 5).getText());
+        assertEquals(5, mModel.findItemById("id-0").getItemIndex());
+    }
+
+    public void testPushToToday() {
+        // Moves the 5 unlocked items of Tomorrow.
+        mModel.pushToToday(false, false);
+        assertDispatched("REMOVED TOMOROW 1+1", "REMOVED TOMOROW 2+1", "REMOVED TOMOROW 3+1",
+                "REMOVED TOMOROW 4+1", "REMOVED TOMOROW 5+1", "INSERTED TODAY 0+5");
+    }
+
+    public void testOrganize() {
+        mModel.getItemForMutation(PageKind.TODAY, 0).setIsCompleted(true);
+        mModel.organizePageWithUndo(PageKind.TODAY, false, -1, new OrganizePageSummary());
+        assertDispatched("CHANGED TODAY 0 " + ModelChange.FIELD_COMPLETED, "REORDERED TODAY");
+    }
+
+    public void testResetSupersedesPageChanges() {
+        mModel.getItemForMutation(PageKind.TOMOROW, 0).setText("Edited");
+        mModel.removeItem(PageKind.TODAY, 0);
+        mModel.getPageModel(PageKind.TODAY).clear();
+        mModel.appendItem(PageKind.TODAY, newItem(100, false, false));
+        assertDispatched("CHANGED TOMOROW 0 " + ModelChange.FIELD_TEXT, "RESET TODAY");
+    }
+
+    public void testTooManyChangesCollapsed() {
+        for (int i = 0; i <= ModelChangeTracker.MAX_PENDING_CHANGES; i++) {
+            mModel.getItemForMutation(PageKind.TOMOROW, i % 2).setText("Edit" + i);
+        }
+        assertDispatched("RESET TOMOROW");
+    }
+
+    public void testNotCollectedWithoutListeners() {
+        final AppModel model = new AppModel();
+        model.appendItem(PageKind.TODAY, newItem(0, false, false));
+        final List<Kind> kinds = new ArrayList<Kind>();
+        final ModelChangeListener listener = new ModelChangeListener() {
+            @Override
+            public void onModelChanges(List<ModelChange> changes) {
+                for (ModelChange change : changes) {
+                    kinds.add(change.getKind());
+                }
+            }
+        };
+        model.addChangeListener(listener);
+        model.getItemForMutation(PageKind.TODAY, 0).setText("Edited");
+        model.removeChangeListener(listener);
+        model.getItemForMutation(PageKind.TODAY, 0).setText("Edited again");
+        model.addChangeListener(listener);
+        model.dispatchChanges();
+        assertTrue(kinds.isEmpty());
+    }
+}
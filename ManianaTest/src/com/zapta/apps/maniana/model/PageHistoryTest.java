@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the page undo/redo history.
+ * 
+ * @author Tal Dayan
+ */
+public class PageHistoryTest extends TestCase {
+
+    private AppModel mModel;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mModel = new AppModel();
+        for (int i = 0; i < 100; i++) {
+            mModel.appendItem(PageKind.TODAY, new ItemModel(1234567, "id-" + i, "Item" + i,
+                    false, false, 0, ItemColor.NONE));
+        }
+        mModel.checkpointPage(PageKind.TODAY);
+    }
+
+    public void testUndoRedo() {
+        assertFalse(mModel.canUndoPageChange(PageKind.TODAY));
+
+        mModel.getItemForMutation(PageKind.TODAY, 5).setText("Edited");
+        mModel.checkpointPage(PageKind.TODAY);
+        mModel.removeItem(PageKind.TODAY, 0);
+        // Not checkpointed, undo should checkpoint it first.
+
+        assertTrue(mModel.undoPageChange(PageKind.TODAY));
+        assertEquals(100, mModel.getPageItemCount(PageKind.TODAY));
+        assertEquals("Edited", mModel.getItemReadOnly(PageKind.TODAY, 5).getText());
+
+        assertTrue(mModel.undoPageChange(PageKind.TODAY));
+        assertEquals("Item5", mModel.getItemReadOnly(PageKind.TODAY, 5).getText());
+        assertFalse(mModel.canUndoPageChange(PageKind.TODAY));
+        assertFalse(mModel.undoPageChange(PageKind.TODAY));
+
+        assertTrue(mModel.redoPageChange(PageKind.TODAY));
+        assertEquals("Edited", mModel.getItemReadOnly(PageKind.TODAY, 5).getText());
+        assertTrue(mModel.canRedoPageChange(PageKind.TODAY));
+
+        // A new change discards the redo versions.
+        mModel.getItemForMutation(PageKind.TODAY, 1).setIsCompleted(true);
+        assertFalse(mModel.redoPageChange(PageKind.TODAY));
+        assertFalse(mModel.canRedoPageChange(PageKind.TODAY));
+        assertTrue(mModel.getItemReadOnly(PageKind.TODAY, 1).isCompleted());
+
+        // Restored items are live page items.
+        assertEquals(99, mModel.getPagePendingItemCount(PageKind.TODAY));
+        assertEquals(7, mModel.findItemById("id-7").getItemIndex());
+    }
+
+    public void testCheckpointedOnDispatch() {
+        mModel.getItemForMutation(PageKind.TODAY, 5).setText("Edited");
+        mModel.dispatchChanges();
+        assertTrue(mModel.canUndoPageChange(PageKind.TODAY));
+        assertFalse(mModel.canUndoPageChange(PageKind.TOMOROW));
+
+        // No change since the last checkpoint.
+        mModel.dispatchChanges();
+        assertTrue(mModel.undoPageChange(PageKind.TODAY));
+        assertFalse(mModel.canUndoPageChange(PageKind.TODAY));
+        assertEquals("Item5", mModel.getItemReadOnly(PageKind.TODAY, 5).getText());
+    }
+
+    public void testRestoreBackupCanBeUndone() {
+        final AppModel backup = new AppModel();
+        backup.appendItem(PageKind.TODAY, new ItemModel(1234567, "b-1", "Backup", false, false,
+                0, ItemColor.NONE));
+        mModel.restoreBackup(backup);
+        mModel.dispatchChanges();
+        assertEquals(1, mModel.getPageItemCount(PageKind.TODAY));
+        assertTrue(mModel.undoPageChange(PageKind.TODAY));
+        assertEquals(100, mModel.getPageItemCount(PageKind.TODAY));
+    }
+
+    public void testLargePagesHaveNoHistory() {
+        // Too many items.
+        final int itemCount = (int) (PageHistory.MAX_BYTES / 64) + 1;
+        for (int i = 0; i < itemCount; i++) {
+            mModel.appendItem(PageKind.TOMOROW, new ItemModel(1234567, "t-" + i, "", false,
+                    false, 0, ItemColor.NONE));
+        }
+        mModel.checkpointPage(PageKind.TOMOROW);
+        mModel.removeItem(PageKind.TOMOROW, 0);
+        mModel.checkpointPage(PageKind.TOMOROW);
+        assertFalse(mModel.canUndoPageChange(PageKind.TOMOROW));
+
+        // Too much text, the current version does not fit the memory limit by itself.
+        final StringBuilder text = new StringBuilder();
+        while (text.length() < PageHistory.MAX_BYTES / 100) {
+            text.append("Long text ");
+        }
+        for (int i = 0; i < 100; i++) {
+            mModel.getItemForMutation(PageKind.TODAY, i).setText(text.toString() + i);
+        }
+        mModel.checkpointPage(PageKind.TODAY);
+        assertFalse(mModel.canUndoPageChange(PageKind.TODAY));
+        mModel.removeItem(PageKind.TODAY, 0);
+        mModel.checkpointPage(PageKind.TODAY);
+        assertFalse(mModel.canUndoPageChange(PageKind.TODAY));
+    }
+
+    public void testVersionsShareUnchangedItems() {
+        final PageModel page = mModel.getPageModel(PageKind.TODAY);
+        final PageVersion version1 = PageVersion.capture(page, null);
+        page.getItem(50).setText("Edited");
+        final PageVersion version2 = PageVersion.capture(page, version1);
+
+        assertFalse(version2.isSameAs(version1));
+        for (int i = 0; i < 100; i++) {
+            if (i == 50) {
+                assertNotSame(version1.getItem(i), version2.getItem(i));
+            } else {
+                assertSame(version1.getItem(i), version2.getItem(i));
+            }
+        }
+        // One new item and one new chunk.
+        assertTrue(version2.ownBytes() < version1.ownBytes() / 10);
+
+        assertTrue(PageVersion.capture(page, version2).isSameAs(version2));
+    }
+
+    public void testOldestVersionsEvicted() {
+        for (int i = 0; i < PageHistory.MAX_LEVELS + 10; i++) {
+            mModel.getItemForMutation(PageKind.TODAY, 0).setText("Edit" + i);
+            mModel.checkpointPage(PageKind.TODAY);
+        }
+        int undoCount = 0;
+        while (mModel.undoPageChange(PageKind.TODAY)) {
+            undoCount++;
+        }
+        assertEquals(PageHistory.MAX_LEVELS, undoCount);
+        assertEquals("Edit9", mModel.getItemReadOnly(PageKind.TODAY, 0).getText());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.zapta.apps.maniana.util.LogUtil;
+
+/**
+ * Benchmarks of the page model operations that insert at the top of a page. Each case is run with
+ * pages of 5k, 10k and 20k items and reports the time per item in the log. With linear time
+ * operations the time per item stays about the same as the page grows.
+ * 
+ * @author Tal Dayan
+ */
+@LargeTest
+public class PageModelBenchmark extends TestCase {
+
+    private static final int[] PAGE_SIZES = { 5 * 1000, 10 * 1000, 20 * 1000 };
+
+    /** A benchmarked operation over a page of the given size. */
+    private interface Operation {
+        /** Return the number of items processed. */
+        int run(int pageSize);
+    }
+
+    public void testInsertAtTop() {
+        measure("Insert at top", new Operation() {
+            @Override
+            public int run(int pageSize) {
+                final PageModel page = new PageModel();
+                for (int i = 0; i < pageSize; i++) {
+                    page.insertItem(0, newItem(i, false, false));
+                }
+                return pageSize;
+            }
+        });
+    }
+
+    public void testPushToToday() {
+        measure("Push to today", new Operation() {
+            @Override
+            public int run(int pageSize) {
+                final AppModel model = new AppModel();
+                for (int i = 0; i < pageSize; i++) {
+                    model.appendItem(PageKind.TODAY, newItem(i, false, false));
+                    model.appendItem(PageKind.TOMOROW, newItem(pageSize + i, false, false));
+                }
+                model.pushToToday(false, false);
+                assertEquals(2 * pageSize, model.getPageItemCount(PageKind.TODAY));
+                return pageSize;
+            }
+        });
+    }
+
+    public void testMerge() {
+        measure("Merge", new Operation() {
+            @Override
+            public int run(int pageSize) {
+                final AppModel model = new AppModel();
+                final AppModel otherModel = new AppModel();
+                for (int i = 0; i < pageSize; i++) {
+                    model.appendItem(PageKind.TODAY, newItem(i, false, false));
+                    otherModel.appendItem(PageKind.TODAY, newItem(pageSize + i, false, false));
+                }
+                model.mergeFrom(otherModel);
+                assertEquals(2 * pageSize, model.getPageItemCount(PageKind.TODAY));
+                return pageSize;
+            }
+        });
+    }
+
+    public void testOrganizeAndUndo() {
+        measure("Organize and undo", new Operation() {
+            @Override
+            public int run(int pageSize) {
+                final PageModel page = new PageModel();
+                for (int i = 0; i < pageSize; i++) {
+                    page.appendItem(newItem(i, (i & 1) != 0, false));
+                }
+                page.organizePageWithUndo(true, -1, new OrganizePageSummary());
+                page.performUndo();
+                assertEquals(pageSize, page.itemCount());
+                return pageSize;
+            }
+        });
+    }
+
+    private static ItemModel newItem(int i, boolean isCompleted, boolean isLocked) {
+        return new ItemModel(1234567, "id-" + i, "Item" + i, isCompleted, isLocked, 0,
+                ItemColor.NONE);
+    }
+
+    private static void measure(String name, Operation operation) {
+        // Warm up.
+        operation.run(PAGE_SIZES[0]);
+
+        for (int pageSize : PAGE_SIZES) {
+            final long startNanos = System.nanoTime();
+            final int items = operation.run(pageSize);
+            final long elapsedNanos = System.nanoTime() - startNanos;
+            LogUtil.info("BENCHMARK %s, %d items: %d ns/item", name, pageSize, elapsedNanos
+                    / items);
+        }
+    }
+}
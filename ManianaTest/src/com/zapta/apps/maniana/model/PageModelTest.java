@@ -17,6 +17,8 @@ package com.zapta.apps.maniana.model;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
@@ -114,6 +116,167 @@ public class PageModelTest extends TestCase {
         assertEquals(-1, summary.itemOfInterestNewIndex);
     }
 
+    public void testFindItemIndex() {
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, pageModel.findItemIndex("id-" + i));
+        }
+        // Undo items are not in the page.
+        assertEquals(-1, pageModel.findItemIndex("id-extra"));
+
+        pageModel.removeItem(1);
+        assertEquals(-1, pageModel.findItemIndex("id-1"));
+        assertEquals(2, pageModel.findItemIndex("id-3"));
+
+        pageModel.insertItem(0, items[1]);
+        assertEquals(0, pageModel.findItemIndex("id-1"));
+        assertEquals(4, pageModel.findItemIndex("id-4"));
+
+        // Items moved by sorting.
+        items[0].setIsCompleted(true);
+        pageModel.organizePageWithUndo(true, -1, new OrganizePageSummary());
+        assertPageItems(1, 2, 3, 4);
+        assertEquals(-1, pageModel.findItemIndex("id-0"));
+        assertEquals(3, pageModel.findItemIndex("id-4"));
+
+        pageModel.performUndo();
+        assertEquals(0, pageModel.findItemIndex("id-0"));
+        assertEquals(4, pageModel.findItemIndex("id-4"));
+
+        // Removal via the iterator.
+        final ListIterator<ItemModel> iterator = pageModel.listIterator();
+        iterator.next();
+        iterator.next();
+        iterator.remove();
+        assertEquals(-1, pageModel.findItemIndex("id-1"));
+        assertEquals(1, pageModel.findItemIndex("id-2"));
+    }
+
+    public void testFindItemIndex_duplicateIds() {
+        final ItemModel duplicate1 = new ItemModel(1234567, "id-3", "Dup1", false, false, 0,
+                ItemColor.NONE);
+        final ItemModel duplicate2 = new ItemModel(1234567, "id-3", "Dup2", false, false, 0,
+                ItemColor.NONE);
+        pageModel.appendItem(duplicate1);
+        pageModel.insertItem(0, duplicate2);
+        // The first of the items with that id.
+        assertEquals(0, pageModel.findItemIndex("id-3"));
+
+        // Each of the duplicates is still tracked.
+        pageModel.removeItem(0);
+        assertEquals(3, pageModel.findItemIndex("id-3"));
+        pageModel.removeItem(3);
+        assertEquals(4, pageModel.findItemIndex("id-3"));
+        assertSame(duplicate1, pageModel.getItem(4));
+        duplicate1.setText("Changed");
+        assertEquals(4, pageModel.findItemIndex("id-3"));
+    }
+
+    public void testFindItemIndex_idChangedInPage() {
+        // Not expected, the index recovers by rebuilding.
+        items[2].copyFrom(new ItemModel(1234567, "other", "Other", true, false, 0,
+                ItemColor.NONE));
+        assertEquals(2, pageModel.findItemIndex("other"));
+        assertEquals(-1, pageModel.findItemIndex("id-2"));
+        assertEquals(3, pageModel.findItemIndex("id-3"));
+    }
+
+    public void testFindItemIndex_manyItems() {
+        final PageModel page = new PageModel();
+        for (int i = 0; i < 1000; i++) {
+            page.insertItem(0, new ItemModel(1234567, "abc-" + i, "Item" + i, false, false, 0,
+                    ItemColor.NONE));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(999 - i, page.findItemIndex("abc-" + i));
+        }
+        assertEquals(-1, page.findItemIndex("abc-1000"));
+    }
+
+    public void testItemCounters() {
+        assertCounters(5, 0, 0);
+
+        // Mutations of items in the page are counted.
+        items[0].setIsCompleted(true);
+        items[1].setIsLocked(true);
+        items[2].setIsCompleted(true);
+        items[2].setIsLocked(true);
+        assertCounters(3, 2, 2);
+        assertEquals(1, pageModel.groupItemCount(items[2].sortingGroupIndex()));
+
+        // Removed items are not.
+        pageModel.removeItem(2);
+        assertCounters(3, 1, 1);
+        items[2].setIsCompleted(false);
+        assertCounters(3, 1, 1);
+
+        pageModel.organizePageWithUndo(true, -1, new OrganizePageSummary());
+        assertCounters(3, 0, 1);
+        pageModel.performUndo();
+        assertCounters(3, 1, 1);
+
+        final PageModel otherPage = new PageModel();
+        otherPage.copyItemsFrom(pageModel);
+        pageModel.clear();
+        assertCounters(0, 0, 0);
+        items[3].setIsCompleted(true);
+        assertCounters(0, 0, 0);
+        assertEquals(3, otherPage.pendingItemCount());
+        assertEquals(1, otherPage.completedItemCount());
+    }
+
+    private void assertCounters(int expectedPending, int expectedCompleted, int expectedLocked) {
+        assertEquals(expectedPending, pageModel.pendingItemCount());
+        assertEquals(expectedCompleted, pageModel.completedItemCount());
+        assertEquals(expectedLocked, pageModel.lockedItemCount());
+        assertEquals(pageModel.itemCount(), expectedPending + expectedCompleted);
+    }
+
+    /** Compare the incremental sortedness with a full scan over random edits. */
+    public void testIsPageSorted_randomEdits() {
+        final Random random = new Random(1234);
+        for (int i = 0; i < 2000; i++) {
+            final int n = pageModel.itemCount();
+            final int op = random.nextInt(6);
+            if (op == 0 || n == 0) {
+                final ItemModel item = new ItemModel(1234567, "r-" + i, "R" + i,
+                        random.nextBoolean(), random.nextBoolean(), 0, ItemColor.NONE);
+                pageModel.insertItem(random.nextInt(n + 1), item);
+            } else if (op == 1) {
+                pageModel.removeItem(random.nextInt(n));
+            } else if (op == 2) {
+                pageModel.getItem(random.nextInt(n)).setIsCompleted(random.nextBoolean());
+            } else if (op == 3) {
+                pageModel.getItem(random.nextInt(n)).setIsLocked(random.nextBoolean());
+            } else if (op == 4) {
+                final ListIterator<ItemModel> iterator = pageModel.listIterator();
+                while (iterator.hasNext()) {
+                    iterator.next();
+                    if (random.nextInt(8) == 0) {
+                        iterator.remove();
+                    }
+                }
+            } else {
+                final int itemOfInterestIndex = random.nextInt(n);
+                final ItemModel itemOfInterest = pageModel.getItem(itemOfInterestIndex);
+                final OrganizePageSummary summary = new OrganizePageSummary();
+                pageModel.organizePageWithUndo(false, itemOfInterestIndex, summary);
+                assertTrue(pageModel.isPageSorted());
+                assertSame(itemOfInterest, pageModel.getItem(summary.itemOfInterestNewIndex));
+            }
+            assertEquals(isPageSortedByScan(), pageModel.isPageSorted());
+        }
+    }
+
+    private boolean isPageSortedByScan() {
+        for (int i = 1; i < pageModel.itemCount(); i++) {
+            if (pageModel.getItem(i - 1).sortingGroupIndex() > pageModel.getItem(i)
+                    .sortingGroupIndex()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Assert that the page model contains given items in given order.
      * 
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the page item search.
+ * 
+ * @author Tal Dayan
+ */
+public class PageSearchTest extends TestCase {
+
+    private PageModel mPage;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPage = new PageModel();
+        mPage.appendItem(newItem("a", "Buy milk and bread"));
+        mPage.appendItem(newItem("b", "Call Bob"));
+        mPage.appendItem(newItem("c", "bread-maker repair, call shop"));
+        mPage.appendItem(newItem("d", "Pay bills"));
+    }
+
+    private static ItemModel newItem(String id, String text) {
+        return new ItemModel(1234567, id, text, false, false, 0, ItemColor.NONE);
+    }
+
+    private void assertSearch(String query, String... expectedIds) {
+        assertEquals(Arrays.asList(expectedIds), mPage.searchItems(query));
+    }
+
+    public void testTokenize() {
+        assertEquals(Arrays.asList("bread", "maker", "repair", "call"),
+                Arrays.asList(PageSearchIndex.tokenize("  Bread-maker repair, CALL bread!")));
+        assertEquals(0, PageSearchIndex.tokenize(" ,. ").length);
+    }
+
+    public void testPrefixQueries() {
+        // Built lazily by the first search.
+        assertFalse(mPage.hasSearchIndexForTesting());
+        assertSearch("bread", "a", "c");
+        assertTrue(mPage.hasSearchIndexForTesting());
+        assertSearch("BR", "a", "c");
+        assertSearch("ca", "b", "c");
+        assertSearch("call br", "c");
+        assertSearch("  Bi  ", "d");
+        assertSearch("xyz");
+        // Matches word prefixes only.
+        assertSearch("ilk");
+    }
+
+    public void testEmptyQueryMatchesAll() {
+        assertSearch("", "a", "b", "c", "d");
+        assertSearch(" - ", "a", "b", "c", "d");
+    }
+
+    public void testMaintainedWithItems() {
+        assertSearch("call", "b", "c");
+
+        mPage.getItem(0).setText("Call mom");
+        mPage.removeItem(2);
+        mPage.insertItem(1, newItem("e", "Recall the order"));
+        mPage.appendItem(newItem("f", "call again"));
+        mPage.moveItem(4, 0);
+        assertSearch("call", "f", "a", "b");
+        assertSearch("recall", "e");
+        assertSearch("bread");
+    }
+
+    public void testItemIndexes() {
+        mPage.appendItem(newItem("a", "Bread again"));
+        assertTrue(Arrays.equals(new int[] { 0, 2, 4 }, mPage.searchItemIndexes("bread")));
+        assertTrue(Arrays.equals(new int[] { 0, 1, 2, 3, 4 }, mPage.searchItemIndexes("")));
+        assertEquals(0, mPage.searchItemIndexes("xyz").length);
+    }
+
+    public void testDroppedOnReset() {
+        assertSearch("pay", "d");
+        final List<ItemModel> items = new ArrayList<ItemModel>();
+        items.add(newItem("x", "Pay rent"));
+        items.add(newItem("y", "Pay taxes"));
+        mPage.replaceItems(items);
+        // Rebuilt by the next search.
+        assertFalse(mPage.hasSearchIndexForTesting());
+        assertSearch("pay", "x", "y");
+        assertSearch("bob");
+    }
+
+    public void testLargePage() {
+        final PageModel page = new PageModel();
+        for (int i = 0; i < 20000; i++) {
+            page.appendItem(newItem("id-" + i, String.format(Locale.US, "Task %d word%d",
+                    i, i % 100)));
+        }
+        // Build the index.
+        assertEquals(20000, page.searchItems("task").size());
+
+        final List<String> result = page.searchItems("word42");
+        assertEquals(200, result.size());
+        assertEquals("id-42", result.get(0));
+        assertEquals("id-19942", result.get(199));
+        assertEquals(Arrays.asList("id-1234"), page.searchItems("1234 word3"));
+    }
+}
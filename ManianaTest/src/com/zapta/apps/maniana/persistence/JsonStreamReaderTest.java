@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.persistence;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for JsonStreamReader.
+ * 
+ * @author Tal Dayan
+ */
+public class JsonStreamReaderTest extends TestCase {
+
+    private static final String[] NAMES = { "id", "text", "done" };
+
+    public void testNextNameIndex() throws Exception {
+        final JsonStreamReader reader = new JsonStreamReader(new StringReader(
+                "{\"text\":\"a\", \"other\":1, \"id\":\"b\", \"\\u0064one\":true}"));
+        reader.beginObject();
+        assertEquals(1, reader.nextNameIndex(NAMES));
+        assertEquals("a", reader.nextString());
+        assertEquals(-1, reader.nextNameIndex(NAMES));
+        reader.skipValue();
+        assertEquals(0, reader.nextNameIndex(NAMES));
+        assertEquals("b", reader.nextString());
+        // Escaped name.
+        assertEquals(2, reader.nextNameIndex(NAMES));
+        assertTrue(reader.nextBoolean());
+        reader.endObject();
+    }
+
+    public void testNextNameIndex_acrossBufferBoundary() throws Exception {
+        final StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            sb.append(i == 0 ? "" : ",").append("{\"done\":false,\"id\":\"x\"}");
+        }
+        sb.append("]");
+        final JsonStreamReader reader = new JsonStreamReader(new StringReader(sb.toString()));
+        reader.beginArray();
+        int count = 0;
+        while (reader.hasNext()) {
+            reader.beginObject();
+            assertEquals(2, reader.nextNameIndex(NAMES));
+            assertFalse(reader.nextBoolean());
+            assertEquals(0, reader.nextNameIndex(NAMES));
+            assertEquals(0, reader.nextStringIndex(new String[] { "x" }));
+            reader.endObject();
+            count++;
+        }
+        reader.endArray();
+        assertEquals(1000, count);
+    }
+
+    public void testNextStringIndex() throws Exception {
+        final JsonStreamReader reader = new JsonStreamReader(new StringReader(
+                "[\"done\", \"\\\"q\", \"zzz\"]"));
+        reader.beginArray();
+        assertEquals(2, reader.nextStringIndex(NAMES));
+        assertEquals(0, reader.nextStringIndex(new String[] { "\"q" }));
+        assertEquals(-1, reader.nextStringIndex(NAMES));
+        reader.endArray();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.persistence;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+
+import com.zapta.apps.maniana.model.AppModel;
+import com.zapta.apps.maniana.model.ItemColor;
+import com.zapta.apps.maniana.model.ItemModel;
+import com.zapta.apps.maniana.model.ItemModelReadOnly;
+import com.zapta.apps.maniana.model.OrganizePageSummary;
+import com.zapta.apps.maniana.model.PageKind;
+
+/**
+ * Unit test for ModelJournal.
+ * 
+ * @author Tal Dayan
+ */
+public class ModelJournalTest extends TestCase {
+
+    private static final PersistenceMetadata METADATA = new PersistenceMetadata(123, "v123");
+
+    private AppModel mModel;
+    private ModelJournal mJournal;
+
+    /** The serialized model at the time the journal was started. */
+    private String mSnapshot;
+
+    @Override
+    protected void setUp() {
+        mModel = new AppModel();
+        for (int i = 0; i < 8; i++) {
+            final PageKind pageKind = (i < 4) ? PageKind.TODAY : PageKind.TOMOROW;
+            final boolean isCompleted = (i % 3) == 0;
+            final boolean isLocked = pageKind.isTomorrow() && ((i & 0x1) != 0);
+            mModel.appendItem(pageKind, new ItemModel(1000 + i, "id" + i, "Item" + i,
+                    isCompleted, isLocked, 0, ItemColor.NONE));
+        }
+        mModel.setLastPushDateStamp("20120315");
+        mSnapshot = ModelSerialization.serializeModel(mModel, METADATA);
+
+        mJournal = new ModelJournal();
+        mModel.setMutationLog(mJournal);
+        mJournal.onModelLoaded(METADATA);
+    }
+
+    /** Replay the pending journal records over the snapshot and compare with the live model. */
+    private void assertReplayMatches() throws JSONException, IOException {
+        final AppModel replayedModel = new AppModel();
+        ModelDeserialization.deserializeModel(replayedModel, new PersistenceMetadata(), mSnapshot);
+        for (String line : mJournal.takePendingRecords().split("\n")) {
+            if (line.length() > 0) {
+                ModelJournal.applyRecord(replayedModel, line);
+            }
+        }
+        assertEquals(ModelSerialization.serializeModel(mModel, METADATA),
+                ModelSerialization.serializeModel(replayedModel, METADATA));
+    }
+
+    public void testItemEdits() throws Exception {
+        final ItemModel item = mModel.getItemForMutation(PageKind.TODAY, 1);
+        item.setColor(ItemColor.RED);
+        item.setText("Edited");
+        mModel.insertItem(PageKind.TOMOROW, 1, new ItemModel(5, "new1", "New", false, true, 0,
+                ItemColor.BLUE));
+        mModel.removeItem(PageKind.TODAY, 2);
+        mModel.removeItemWithUndo(PageKind.TOMOROW, 0);
+        mModel.applyUndo(PageKind.TOMOROW);
+        // Mutated after the structural changes above.
+        item.setIsCompleted(true);
+        assertReplayMatches();
+    }
+
+    public void testPushAndOrganize() throws Exception {
+        // Affects the push below so must be recorded before it.
+        mModel.getItemForMutation(PageKind.TOMOROW, 0).setIsCompleted(false);
+        mModel.pushToToday(true, true);
+        mModel.setLastPushDateStamp("20120316");
+        mModel.getItemForMutation(PageKind.TODAY, 0).setIsCompleted(true);
+        mModel.organizePageWithUndo(PageKind.TODAY, false, -1, new OrganizePageSummary());
+        assertReplayMatches();
+    }
+
+    public void testOrganizeDeletesPendingItem() throws Exception {
+        // Deleted by the organize below so its state must be recorded before it.
+        mModel.getItemForMutation(PageKind.TODAY, 1).setIsCompleted(true);
+        final OrganizePageSummary summary = new OrganizePageSummary();
+        mModel.organizePageWithUndo(PageKind.TODAY, true, -1, summary);
+        assertEquals(3, summary.completedItemsDeleted);
+        assertReplayMatches();
+    }
+
+    public void testMerge() throws Exception {
+        final AppModel otherModel = new AppModel();
+        otherModel.appendItem(PageKind.TODAY, new ItemModel(1, "x1", "Item1", false, false, 0,
+                ItemColor.GREEN));
+        otherModel.appendItem(PageKind.TOMOROW, new ItemModel(2, "x2", "Other", false, true, 0,
+                ItemColor.NONE));
+        mModel.mergeFrom(otherModel);
+        assertReplayMatches();
+    }
+
+    public void testMergeWithSameIds() throws Exception {
+        final AppModel otherModel = new AppModel();
+        otherModel.appendItem(PageKind.TODAY, new ItemModel(1, "id1", "Other1", false, false, 0,
+                ItemColor.NONE));
+        otherModel.appendItem(PageKind.TODAY, new ItemModel(2, "id5", "Other5", false, false, 0,
+                ItemColor.NONE));
+        mModel.mergeFrom(otherModel);
+
+        // Records must address the merged items and not the original items with the same ids.
+        mModel.getItemForMutation(PageKind.TODAY, 0).setText("Edited merged");
+        mModel.getItemForMutation(PageKind.TODAY, mModel.findPageItemIndex(PageKind.TODAY, "id1"))
+                .setText("Edited original");
+        mModel.removeItem(PageKind.TOMOROW, mModel.findPageItemIndex(PageKind.TOMOROW, "id5"));
+        mModel.removeItem(PageKind.TODAY, 1);
+        assertReplayMatches();
+    }
+
+    public void testHeldItemRecordedAfterTake() throws Exception {
+        final ItemModel item = mModel.getItemForMutation(PageKind.TODAY, 2);
+        item.setText("Changed");
+        mJournal.takePendingRecords();
+        mSnapshot = ModelSerialization.serializeModel(mModel, METADATA);
+
+        // Mutated through a held reference, e.g. by an item editor dialog.
+        item.setText("Changed later");
+        assertReplayMatches();
+    }
+
+    /** Replay the pending records over the Today page of the snapshot. */
+    private AppModel replayTodayPage(boolean expectedOk) throws JSONException, IOException {
+        final AppModel replayedModel = new AppModel();
+        ModelDeserialization.deserializeModel(replayedModel, new PersistenceMetadata(), mSnapshot);
+        while (replayedModel.getPageItemCount(PageKind.TOMOROW) > 0) {
+            replayedModel.removeItem(PageKind.TOMOROW, 0);
+        }
+        boolean ok = true;
+        for (String line : mJournal.takePendingRecords().split("\n")) {
+            if (line.length() > 0 && !ModelJournal.applyTodayPageRecord(replayedModel, line)) {
+                ok = false;
+                break;
+            }
+        }
+        assertEquals(expectedOk, ok);
+        return replayedModel;
+    }
+
+    public void testTodayPageReplay() throws Exception {
+        mModel.getItemForMutation(PageKind.TODAY, 1).setText("Edited today");
+        mModel.getItemForMutation(PageKind.TOMOROW, 1).setText("Edited tomorrow");
+        mModel.insertItem(PageKind.TODAY, 0, new ItemModel(5, "new1", "New1", false, false, 0,
+                ItemColor.BLUE));
+        mModel.insertItem(PageKind.TOMOROW, 0, new ItemModel(6, "new2", "New2", false, false, 0,
+                ItemColor.NONE));
+        mModel.removeItem(PageKind.TODAY, 3);
+        mModel.removeItem(PageKind.TOMOROW, 2);
+        mModel.organizePageWithUndo(PageKind.TOMOROW, true, -1, new OrganizePageSummary());
+        mModel.organizePageWithUndo(PageKind.TODAY, false, -1, new OrganizePageSummary());
+        mModel.setLastPushDateStamp("20120316");
+
+        final AppModel replayedModel = replayTodayPage(true);
+        assertEquals("20120316", replayedModel.getLastPushDateStamp());
+        assertEquals(mModel.getPageItemCount(PageKind.TODAY),
+                replayedModel.getPageItemCount(PageKind.TODAY));
+        for (int i = 0; i < mModel.getPageItemCount(PageKind.TODAY); i++) {
+            final ItemModelReadOnly item = mModel.getItemReadOnly(PageKind.TODAY, i);
+            final ItemModelReadOnly replayedItem = replayedModel.getItemReadOnly(PageKind.TODAY, i);
+            assertEquals(item.getId(), replayedItem.getId());
+            assertEquals(item.getText(), replayedItem.getText());
+            assertEquals(item.isCompleted(), replayedItem.isCompleted());
+            assertEquals(item.getColor(), replayedItem.getColor());
+        }
+    }
+
+    public void testTodayPageReplayWithPush() throws Exception {
+        mModel.getItemForMutation(PageKind.TODAY, 1).setText("Edited today");
+        mModel.pushToToday(false, false);
+        replayTodayPage(false);
+    }
+
+    public void testItemRecordedOncePerChange() {
+        final ItemModel item = mModel.getItemForMutation(PageKind.TODAY, 0);
+        item.setText("Changed");
+        assertEquals(1, countLines(mJournal.takePendingRecords()));
+
+        // No change since last recorded.
+        assertEquals("", mJournal.takePendingRecords());
+
+        item.setText("Changed again");
+        assertEquals(1, countLines(mJournal.takePendingRecords()));
+    }
+
+    public void testResetRequiresSnapshot() {
+        assertFalse(mJournal.isSnapshotRequired(METADATA));
+        assertTrue(mJournal.isSnapshotRequired(new PersistenceMetadata(124, "v124")));
+
+        mModel.clear();
+        assertTrue(mJournal.isSnapshotRequired(METADATA));
+        assertEquals("", mJournal.takePendingRecords());
+
+        mJournal.onSnapshotTaken(METADATA);
+        assertFalse(mJournal.isSnapshotRequired(METADATA));
+    }
+
+    public void testHeader() throws Exception {
+        final StringWriter out = new StringWriter();
+        ModelJournal.writeHeader(out, -1234567890123L);
+        assertTrue(out.toString().endsWith("\n"));
+        assertEquals(-1234567890123L, ModelJournal.readHeader(out.toString().trim()));
+    }
+
+    private static int countLines(String records) {
+        int count = 0;
+        for (int i = 0; i < records.length(); i++) {
+            if (records.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+import java.util.UUID;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.zapta.apps.maniana.model.AppModel;
+import com.zapta.apps.maniana.model.AppModelSnapshot;
+import com.zapta.apps.maniana.model.ItemColor;
+import com.zapta.apps.maniana.model.ItemModel;
+import com.zapta.apps.maniana.model.PageKind;
+import com.zapta.apps.maniana.util.FileUtil;
+import com.zapta.apps.maniana.util.LogUtil;
+
+/**
+ * Benchmarks of the persistence code with models of 10 to 100k items. Each case reports its
+ * throughput, the bytes allocated per operation and the size of the serialized model, in the log.
+ * Run selectively, e.g. with 'adb shell am instrument -w -e size large ...'. The 100k items case
+ * requires a device with a large heap.
+ * 
+ * @author Tal Dayan
+ */
+@LargeTest
+public class PersistenceBenchmark extends AndroidTestCase {
+
+    /** Min time to repeat each measured operation. */
+    private static final long MIN_MEASURE_NANOS = 1000L * 1000 * 1000;
+
+    private static final PersistenceMetadata METADATA = new PersistenceMetadata(123, "1.23");
+
+    private static final String[] WORDS = { "buy", "milk", "call", "mom", "pay", "the", "bills",
+        "email", "John", "about", "meeting", "on", "Tuesday", "pick", "up", "kids", "at", "5pm",
+        "renew", "passport", "book", "flight", "to", "Berlin", "fix", "bike", "caf\u00e9", "\u65e5\u672c" };
+
+    /** A benchmarked operation. */
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    /**
+     * A context whose private files are kept in a scratch directory so the benchmark does not
+     * touch the app data files.
+     */
+    private static class ScratchContext extends ContextWrapper {
+        private final File mDir;
+
+        private ScratchContext(Context base, File dir) {
+            super(base);
+            mDir = dir;
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public File getFileStreamPath(String name) {
+            return new File(mDir, name);
+        }
+
+        @Override
+        public FileInputStream openFileInput(String name) throws FileNotFoundException {
+            return new FileInputStream(getFileStreamPath(name));
+        }
+
+        @Override
+        public FileOutputStream openFileOutput(String name, int mode) throws FileNotFoundException {
+            return new FileOutputStream(getFileStreamPath(name), (mode & MODE_APPEND) != 0);
+        }
+
+        @Override
+        public boolean deleteFile(String name) {
+            return getFileStreamPath(name).delete();
+        }
+    }
+
+    private ScratchContext mScratchContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final File dir = new File(getContext().getCacheDir(), "persistence_benchmark");
+        dir.mkdirs();
+        mScratchContext = new ScratchContext(getContext(), dir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        // Also drops the benchmark model from the model cache.
+        ModelPersistence.onDataFileReplaced(mScratchContext);
+        for (File file : mScratchContext.mDir.listFiles()) {
+            file.delete();
+        }
+        mScratchContext.mDir.delete();
+        super.tearDown();
+    }
+
+    public void testBenchmark_10Items() throws Exception {
+        runBenchmarks(10);
+    }
+
+    public void testBenchmark_1kItems() throws Exception {
+        runBenchmarks(1000);
+    }
+
+    public void testBenchmark_10kItems() throws Exception {
+        runBenchmarks(10 * 1000);
+    }
+
+    public void testBenchmark_100kItems() throws Exception {
+        runBenchmarks(100 * 1000);
+    }
+
+    /** Run all the benchmarks with a model of the given size. */
+    private void runBenchmarks(final int itemCount) throws Exception {
+        final AppModel model = createModel(itemCount);
+
+        final String json = ModelSerialization.serializeModel(model, METADATA);
+        final byte[] jsonBytes = json.getBytes("UTF-8");
+        final ByteArrayOutputStream binaryOut = new ByteArrayOutputStream();
+        ModelSerialization.serializeModelBinary(model, METADATA, binaryOut);
+        final byte[] binaryBytes = binaryOut.toByteArray();
+
+        // Sanity check that we measure the real thing.
+        final AppModel checkModel = new AppModel();
+        ModelDeserialization.deserializeModel(checkModel, new PersistenceMetadata(),
+                new ByteArrayInputStream(binaryBytes));
+        assertEquals(json, ModelSerialization.serializeModel(checkModel, METADATA));
+
+        measure("Serialize JSON", itemCount, jsonBytes.length, new Operation() {
+            @Override
+            public void run() throws Exception {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(jsonBytes.length);
+                final Writer writer = new OutputStreamWriter(out, FileUtil.UTF_8);
+                ModelSerialization.serializeModel(model, METADATA, writer);
+                writer.flush();
+            }
+        });
+
+        measure("Serialize binary", itemCount, binaryBytes.length, new Operation() {
+            @Override
+            public void run() throws Exception {
+                ModelSerialization.serializeModelBinary(model, METADATA,
+                        new ByteArrayOutputStream(binaryBytes.length));
+            }
+        });
+
+        measure("Deserialize JSON", itemCount, jsonBytes.length, new Operation() {
+            @Override
+            public void run() throws Exception {
+                ModelDeserialization.deserializeModel(new AppModel(), new PersistenceMetadata(),
+                        new ByteArrayInputStream(jsonBytes));
+            }
+        });
+
+        measure("Deserialize binary", itemCount, binaryBytes.length, new Operation() {
+            @Override
+            public void run() throws Exception {
+                ModelDeserialization.deserializeModel(new AppModel(), new PersistenceMetadata(),
+                        new ByteArrayInputStream(binaryBytes));
+            }
+        });
+
+        // NOTE: the write is done on the calling thread, bypassing the ModelWriter thread, so the
+        // allocations are counted. Writing a snapshot also invalidates the model cache so the
+        // read parses the file.
+        final ScratchContext context = mScratchContext;
+        final AppModelSnapshot snapshot = model.publishSnapshot();
+        measure("File round trip", itemCount, binaryBytes.length, new Operation() {
+            @Override
+            public void run() throws Exception {
+                // NOTE: the write assigns a journal generation to the metadata.
+                assertTrue(ModelPersistence.writePendingWrite(context, snapshot,
+                        new PersistenceMetadata(METADATA.writerVersionCode,
+                                METADATA.writerVersionName), ""));
+                final ModelReadingResult result = ModelPersistence.readModelFile(context,
+                        new AppModel());
+                assertTrue(result.outcome.isOk());
+            }
+        });
+    }
+
+    /**
+     * Repeat an operation for at least MIN_MEASURE_NANOS and log its throughput and allocations.
+     */
+    private static void measure(String name, int itemCount, int fileSize, Operation operation)
+            throws Exception {
+        // Warm up.
+        operation.run();
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocSize();
+        final long startNanos = System.nanoTime();
+        long elapsedNanos;
+        int iterations = 0;
+        do {
+            operation.run();
+            iterations++;
+            elapsedNanos = System.nanoTime() - startNanos;
+        } while (elapsedNanos < MIN_MEASURE_NANOS);
+        final long allocatedBytes = Debug.getThreadAllocSize();
+        Debug.stopAllocCounting();
+
+        final double opsPerSec = iterations * 1e9 / elapsedNanos;
+        LogUtil.info("BENCHMARK %s, %d items: %.2f ops/s, %.0f items/s, %d bytes allocated/op,"
+                + " file size %d bytes", name, itemCount, opsPerSec, opsPerSec * itemCount,
+                allocatedBytes / iterations, fileSize);
+    }
+
+    /**
+     * Create a model with the given number of items. The mix of text lengths, colors and item
+     * states is based on typical user data. Ids are generated like IdGenerator does, with a new
+     * prefix per few hundred items to simulate app sessions.
+     */
+    private static AppModel createModel(int itemCount) {
+        // Fixed seed so results are comparable between runs.
+        final Random random = new Random(1234);
+        final AppModel model = new AppModel();
+        final ItemColor[] colors = ItemColor.values();
+        long updateTime = 1330000000000L;
+        String idPrefix = null;
+        int idCount = 0;
+        for (int i = 0; i < itemCount; i++) {
+            if (idPrefix == null || random.nextInt(300) == 0) {
+                idPrefix = new UUID(random.nextLong(), random.nextLong()).toString() + "-";
+                idCount = 0;
+            }
+            final PageKind pageKind = random.nextInt(3) == 0 ? PageKind.TOMOROW : PageKind.TODAY;
+            final boolean isCompleted = random.nextInt(10) < 3;
+            final boolean isLocked = pageKind.isTomorrow() && random.nextInt(6) == 0;
+            final ItemColor color = random.nextInt(5) == 0 ? colors[random.nextInt(colors.length)]
+                    : ItemColor.NONE;
+            updateTime += random.nextInt(1000 * 60 * 60);
+            model.appendItem(pageKind, new ItemModel(updateTime, idPrefix + idCount++,
+                    createText(random), isCompleted, isLocked, 0, color));
+        }
+        model.setLastPushDateStamp("20120315");
+        return model;
+    }
+
+    /** Create an item text of 1 to 12 words. */
+    private static String createText(Random random) {
+        final StringBuilder sb = new StringBuilder();
+        final int words = 1 + random.nextInt(12);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+}
@@ -14,11 +14,17 @@
 
 package com.zapta.apps.maniana.persistence;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
 import junit.framework.TestCase;
 
 import org.json.JSONException;
 
 import com.zapta.apps.maniana.model.AppModel;
+import com.zapta.apps.maniana.model.AppModel.ProjectedImportStats;
+import com.zapta.apps.maniana.model.ImportStatsCounter;
 import com.zapta.apps.maniana.model.ItemColor;
 import com.zapta.apps.maniana.model.ItemModel;
 import com.zapta.apps.maniana.model.ItemModelReadOnly;
@@ -41,97 +47,98 @@ public class SerializationTest extends TestCase {
     // @formatter:off
     private static final String SERIALIZED_MODEL =
         "{\n" + 
+        " \"format\": 2,\n" + 
+        " \"metadata\": {\n" + 
+        "  \"writer_ver_code\": 123,\n" + 
+        "  \"writer_ver_name\": \"version-x.y.z\"\n" + 
+        " },\n" + 
         " \"model\": {\n" + 
-        "  \"tomorow\": [\n" + 
+        "  \"last_push_date\": \"20120315\",\n" + 
+        "  \"today\": [\n" + 
         "   {\n" + 
-        "    \"id\": \"id1\",\n" + 
         "    \"utime\": 1234567,\n" + 
-        "    \"text\": \"Item5\",\n" + 
-        "    \"color\": \"red\",\n" + 
-        "    \"done\": true\n" + 
+        "    \"id\": \"id1\",\n" + 
+        "    \"text\": \"Item0\"\n" + 
         "   },\n" + 
         "   {\n" + 
-        "    \"id\": \"id1\",\n" + 
         "    \"utime\": 1234567,\n" + 
-        "    \"text\": \"Item6\",\n" + 
-        "    \"locked\": true,\n" + 
-        "    \"color\": \"blue\"\n" + 
+        "    \"id\": \"id1\",\n" + 
+        "    \"text\": \"Item1\",\n" + 
+        "    \"done\": true,\n" + 
+        "    \"color\": \"red\"\n" + 
         "   },\n" + 
         "   {\n" + 
-        "    \"id\": \"id1\",\n" + 
         "    \"utime\": 1234567,\n" + 
-        "    \"text\": \"Item7\",\n" + 
-        "    \"locked\": true,\n" + 
-        "    \"color\": \"green\",\n" + 
-        "    \"done\": true\n" + 
+        "    \"id\": \"id1\",\n" + 
+        "    \"text\": \"Item2\",\n" + 
+        "    \"color\": \"blue\"\n" + 
         "   },\n" + 
         "   {\n" + 
-        "    \"id\": \"id1\",\n" + 
         "    \"utime\": 1234567,\n" + 
-        "    \"text\": \"Item8\"\n" + 
+        "    \"id\": \"id1\",\n" + 
+        "    \"text\": \"Item3\",\n" + 
+        "    \"done\": true,\n" + 
+        "    \"color\": \"green\"\n" + 
         "   },\n" + 
         "   {\n" + 
+        "    \"utime\": 1234567,\n" + 
         "    \"id\": \"id1\",\n" + 
+        "    \"text\": \"Item4\",\n" + 
+        "    \"color\": \"gold\"\n" + 
+        "   }\n" + 
+        "  ],\n" + 
+        "  \"tomorow\": [\n" + 
+        "   {\n" + 
         "    \"utime\": 1234567,\n" + 
-        "    \"text\": \"Item9\",\n" + 
-        "    \"color\": \"red\",\n" + 
-        "    \"done\": true\n" + 
+        "    \"id\": \"id1\",\n" + 
+        "    \"text\": \"Item5\",\n" + 
+        "    \"done\": true,\n" + 
+        "    \"color\": \"purple\"\n" + 
         "   },\n" + 
         "   {\n" + 
-        "    \"id\": \"id1\",\n" + 
         "    \"utime\": 1234567,\n" + 
-        "    \"text\": \"Item10\",\n" + 
+        "    \"id\": \"id1\",\n" + 
+        "    \"text\": \"Item6\",\n" + 
         "    \"locked\": true,\n" + 
-        "    \"color\": \"blue\"\n" + 
+        "    \"color\": \"yellow\"\n" + 
         "   },\n" + 
         "   {\n" + 
-        "    \"id\": \"id1\",\n" + 
         "    \"utime\": 1234567,\n" + 
-        "    \"text\": \"Item11\",\n" + 
-        "    \"locked\": true,\n" + 
-        "    \"color\": \"green\",\n" + 
-        "    \"done\": true\n" + 
-        "   }\n" + 
-        "  ],\n" + 
-        "  \"today\": [\n" + 
-        "   {\n" + 
         "    \"id\": \"id1\",\n" + 
-        "    \"utime\": 1234567,\n" + 
-        "    \"text\": \"Item0\"\n" + 
+        "    \"text\": \"Item7\",\n" + 
+        "    \"done\": true,\n" + 
+        "    \"locked\": true,\n" + 
+        "    \"color\": \"an\"\n" + 
         "   },\n" + 
         "   {\n" + 
-        "    \"id\": \"id1\",\n" + 
         "    \"utime\": 1234567,\n" + 
-        "    \"text\": \"Item1\",\n" + 
-        "    \"color\": \"red\",\n" + 
-        "    \"done\": true\n" + 
+        "    \"id\": \"id1\",\n" + 
+        "    \"text\": \"Item8\",\n" + 
+        "    \"color\": \"white\"\n" + 
         "   },\n" + 
         "   {\n" + 
-        "    \"id\": \"id1\",\n" + 
-        "    \"color\": \"blue\",\n" + 
         "    \"utime\": 1234567,\n" + 
-        "    \"text\": \"Item2\"\n" + 
+        "    \"id\": \"id1\",\n" + 
+        "    \"text\": \"Item9\",\n" + 
+        "    \"done\": true,\n" + 
+        "    \"color\": \"black\"\n" + 
         "   },\n" + 
         "   {\n" + 
-        "    \"id\": \"id1\",\n" + 
         "    \"utime\": 1234567,\n" + 
-        "    \"text\": \"Item3\",\n" + 
-        "    \"color\": \"green\",\n" + 
-        "    \"done\": true\n" + 
+        "    \"id\": \"id1\",\n" + 
+        "    \"text\": \"Item10\",\n" + 
+        "    \"locked\": true\n" + 
         "   },\n" + 
         "   {\n" + 
-        "    \"id\": \"id1\",\n" + 
         "    \"utime\": 1234567,\n" + 
-        "    \"text\": \"Item4\"\n" + 
+        "    \"id\": \"id1\",\n" + 
+        "    \"text\": \"Item11\",\n" + 
+        "    \"done\": true,\n" + 
+        "    \"locked\": true,\n" + 
+        "    \"color\": \"red\"\n" + 
         "   }\n" + 
-        "  ],\n" + 
-        "  \"last_push_date\": \"20120315\"\n" + 
-        " },\n" + 
-        " \"metadata\": {\n" + 
-        "  \"writer_ver_name\": \"version-x.y.z\",\n" + 
-        "  \"writer_ver_code\": 123\n" + 
-        " },\n" + 
-        " \"format\": 2\n" + 
+        "  ]\n" + 
+        " }\n" + 
         "}";
     // @formatter:on
 
@@ -192,4 +199,203 @@ public class SerializationTest extends TestCase {
         assertEquals(123, actualMetadata.writerVersionCode);
         assertEquals("version-x.y.z", actualMetadata.writerVersionName);
     }
+
+    public void testRoundTrip_specialCharacters() {
+        final AppModel model = new AppModel();
+        final String text = "a\"b\\c/d\te\nf\u0001g\u00e9h\u4e2d";
+        model.appendItem(PageKind.TOMOROW, new ItemModel(-5, "id/1", text, false, true,
+                Long.MAX_VALUE, ItemColor.GREEN));
+        model.setLastPushDateStamp("20120315");
+
+        final String json = ModelSerialization.serializeModel(model, new PersistenceMetadata(7,
+                "v\"7"));
+
+        final AppModel actualModel = new AppModel();
+        final PersistenceMetadata actualMetadata = new PersistenceMetadata();
+        try {
+            ModelDeserialization.deserializeModel(actualModel, actualMetadata, json);
+        } catch (JSONException e) {
+            e.printStackTrace();
+            fail(e.getLocalizedMessage());
+        }
+
+        assertEquals(1, actualModel.getPageItemCount(PageKind.TOMOROW));
+        final ItemModelReadOnly item = actualModel.getItemReadOnly(PageKind.TOMOROW, 0);
+        assertEquals(text, item.getText());
+        assertEquals("id/1", item.getId());
+        assertEquals(-5, item.getUpdateTime());
+        assertEquals(Long.MAX_VALUE, item.getScheduledTime());
+        assertTrue(item.isLocked());
+        assertEquals(ItemColor.GREEN, item.getColor());
+        assertEquals(7, actualMetadata.writerVersionCode);
+        assertEquals("v\"7", actualMetadata.writerVersionName);
+    }
+
+    public void testDeserialization_format1() {
+        // Format 1 had the model fields at top level and no metadata.
+        // @formatter:off
+        final String format1Doc =
+            "{\"today\": [{\"text\": \"a\\\"b\\u00e9\", \"done\": true, \"color\": \"red\"}],\n" +
+            " \"last_push_date\": \"20120315\",\n" +
+            " \"tomorow\": [{\"text\": \"c\", \"locked\": true, \"unknown\": {\"x\": [1, 2]}}],\n" +
+            " \"format\": 1}";
+        // @formatter:on
+        final AppModel actualModel = new AppModel();
+        final PersistenceMetadata actualMetadata = new PersistenceMetadata();
+        try {
+            ModelDeserialization.deserializeModel(actualModel, actualMetadata, format1Doc);
+        } catch (JSONException e) {
+            e.printStackTrace();
+            fail(e.getLocalizedMessage());
+        }
+
+        assertEquals("20120315", actualModel.getLastPushDateStamp());
+        assertEquals(1, actualModel.getPageItemCount(PageKind.TODAY));
+        assertEquals(1, actualModel.getPageItemCount(PageKind.TOMOROW));
+
+        final ItemModelReadOnly todayItem = actualModel.getItemReadOnly(PageKind.TODAY, 0);
+        assertEquals("a\"b\u00e9", todayItem.getText());
+        assertTrue(todayItem.isCompleted());
+        assertEquals(ItemColor.RED, todayItem.getColor());
+
+        final ItemModelReadOnly tomorrowItem = actualModel.getItemReadOnly(PageKind.TOMOROW, 0);
+        assertEquals("c", tomorrowItem.getText());
+        assertTrue(tomorrowItem.isLocked());
+        assertEquals(ItemColor.NONE, tomorrowItem.getColor());
+
+        assertEquals(PersistenceMetadata.DEFAULT_WRITER_VERSION_CODE,
+                actualMetadata.writerVersionCode);
+    }
+
+    public void testDeserialization_missingPage() {
+        final String doc = "{\"format\": 2, \"metadata\": {}, \"model\": {\"today\": []}}";
+        try {
+            ModelDeserialization.deserializeModel(new AppModel(), new PersistenceMetadata(), doc);
+            fail("Expected an exception");
+        } catch (JSONException e) {
+            // Expected.
+        }
+    }
+
+    public void testBinaryRoundTrip() throws Exception {
+        final AppModel model = createFakeModel();
+        model.appendItem(PageKind.TOMOROW, new ItemModel(1234000, "0f8fad5b-d9cb-469f-a165-"
+                + "70867728950e-17", "a\"b\u00e9\u4e2d", false, true, 5000, ItemColor.BLACK));
+        model.appendItem(PageKind.TOMOROW, new ItemModel(-3, "x-007", "", true, false, -1,
+                ItemColor.NONE));
+        final PersistenceMetadata metadata = new PersistenceMetadata(123, "version-x.y.z");
+        metadata.journalGeneration = -987654321987L;
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ModelSerialization.serializeModelBinary(model, metadata, out);
+
+        final AppModel actualModel = new AppModel();
+        final PersistenceMetadata actualMetadata = new PersistenceMetadata();
+        ModelDeserialization.deserializeModel(actualModel, actualMetadata,
+                new ByteArrayInputStream(out.toByteArray()));
+
+        // Compare using the JSON serialization which covers all the persisted fields.
+        assertEquals(ModelSerialization.serializeModel(model, metadata),
+                ModelSerialization.serializeModel(actualModel, actualMetadata));
+        assertEquals(-987654321987L, actualMetadata.journalGeneration);
+
+        final String json = ModelSerialization.serializeModel(model, metadata);
+        assertTrue(out.size() * 3 < json.getBytes("UTF-8").length);
+    }
+
+    public void testDeserialization_detectsJson() throws Exception {
+        final AppModel actualModel = new AppModel();
+        final PersistenceMetadata actualMetadata = new PersistenceMetadata();
+        ModelDeserialization.deserializeModel(actualModel, actualMetadata,
+                new ByteArrayInputStream(SERIALIZED_MODEL.getBytes("UTF-8")));
+
+        final PersistenceMetadata metadata = new PersistenceMetadata(123, "version-x.y.z");
+        assertEquals(SERIALIZED_MODEL, ModelSerialization.serializeModel(actualModel, metadata));
+        assertEquals(123, actualMetadata.writerVersionCode);
+    }
+
+    public void testBinaryDeserialization_truncated() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ModelSerialization.serializeModelBinary(createFakeModel(), new PersistenceMetadata(1, "1"),
+                out);
+        final byte[] truncated = new byte[out.size() - 3];
+        System.arraycopy(out.toByteArray(), 0, truncated, 0, truncated.length);
+        try {
+            ModelDeserialization.deserializeModel(new AppModel(), new PersistenceMetadata(),
+                    new ByteArrayInputStream(truncated));
+            fail("Expected an exception");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    public void testDeserializeTodayPage() throws Exception {
+        final AppModel model = createFakeModel();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ModelSerialization.serializeModelBinary(model, new PersistenceMetadata(123, "v123"), out);
+        // The Tomorrow page is not decoded so a truncated Tomorrow page is not an error.
+        final byte[] truncated = new byte[out.size() - 3];
+        System.arraycopy(out.toByteArray(), 0, truncated, 0, truncated.length);
+
+        final AppModel actualModel = new AppModel();
+        final PersistenceMetadata actualMetadata = new PersistenceMetadata();
+        assertTrue(ModelDeserialization.deserializeTodayPage(actualModel, actualMetadata,
+                new ByteArrayInputStream(truncated)));
+
+        assertEquals(123, actualMetadata.writerVersionCode);
+        assertEquals("20120315", actualModel.getLastPushDateStamp());
+        assertEquals(0, actualModel.getPageItemCount(PageKind.TOMOROW));
+        while (model.getPageItemCount(PageKind.TOMOROW) > 0) {
+            model.removeItem(PageKind.TOMOROW, 0);
+        }
+        assertEquals(ModelSerialization.serializeModel(model, actualMetadata),
+                ModelSerialization.serializeModel(actualModel, actualMetadata));
+    }
+
+    public void testDeserializeTodayPage_json() throws Exception {
+        final AppModel actualModel = new AppModel();
+        assertFalse(ModelDeserialization.deserializeTodayPage(actualModel,
+                new PersistenceMetadata(), new ByteArrayInputStream(SERIALIZED_MODEL
+                        .getBytes("UTF-8"))));
+        assertEquals(0, actualModel.getItemCount());
+    }
+
+    public void testScanItems() throws Exception {
+        final AppModel model = createFakeModel();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ModelSerialization.serializeModelBinary(model, new PersistenceMetadata(123, "v123"), out);
+        final byte[] json = ModelSerialization.serializeModel(model, new PersistenceMetadata())
+                .getBytes("UTF-8");
+
+        // Same import stats as from the loaded model, from both formats.
+        final AppModel currentModel = new AppModel();
+        currentModel.appendItem(PageKind.TODAY, new ItemModel(1, "id-a", "Item3", false, false,
+                0, ItemColor.NONE));
+        currentModel.appendItem(PageKind.TODAY, new ItemModel(1, "id-b", "Other", false, false,
+                0, ItemColor.NONE));
+        final ProjectedImportStats expected = currentModel.projectedImportStats(model);
+        for (byte[] bytes : new byte[][] { out.toByteArray(), json }) {
+            final ImportStatsCounter statsCounter = new ImportStatsCounter(currentModel);
+            final StringBuilder texts = new StringBuilder();
+            ModelDeserialization.scanItems(new ByteArrayInputStream(bytes),
+                    new ModelDeserialization.ItemListener() {
+                        @Override
+                        public void onItem(PageKind pageKind, ItemModel item) {
+                            texts.append(pageKind.isToday() ? "T:" : "M:").append(item.getText())
+                                    .append(' ');
+                            statsCounter.addBackupItem(item.getText());
+                        }
+                    });
+            assertEquals("T:Item0 T:Item1 T:Item2 T:Item3 T:Item4 M:Item5 M:Item6 M:Item7 "
+                    + "M:Item8 M:Item9 M:Item10 M:Item11 ", texts.toString());
+
+            final ProjectedImportStats actual = statsCounter.getStats();
+            assertEquals(expected.mergeKeep, actual.mergeKeep);
+            assertEquals(11, actual.mergeAdd);
+            assertEquals(expected.mergeAdd, actual.mergeAdd);
+            assertEquals(1, actual.replaceKeep);
+            assertEquals(1, actual.replaceDelete);
+            assertEquals(11, actual.replaceAdd);
+        }
+    }
 }
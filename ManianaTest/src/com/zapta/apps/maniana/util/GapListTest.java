@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2011 The original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.zapta.apps.maniana.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for GapList.
+ * 
+ * @author Tal Dayan
+ */
+public class GapListTest extends TestCase {
+
+    public void testFrontInserts() {
+        final List<Integer> list = new GapList<Integer>();
+        for (int i = 0; i < 100; i++) {
+            list.add(0, i);
+        }
+        assertEquals(100, list.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(99 - i, list.get(i).intValue());
+        }
+    }
+
+    public void testAddAllAndRemoveRange() {
+        final List<Integer> list = new GapList<Integer>();
+        list.addAll(Arrays.asList(1, 2, 3, 4));
+        list.addAll(2, Arrays.asList(10, 11));
+        assertEquals(Arrays.asList(1, 2, 10, 11, 3, 4), list);
+        list.subList(1, 4).clear();
+        assertEquals(Arrays.asList(1, 3, 4), list);
+        list.clear();
+        assertTrue(list.isEmpty());
+    }
+
+    /** Compare random edits with an ArrayList. */
+    public void testRandomEdits() {
+        final Random random = new Random(1234);
+        final List<Integer> expected = new ArrayList<Integer>();
+        final List<Integer> list = new GapList<Integer>();
+        for (int i = 0; i < 5000; i++) {
+            final int size = expected.size();
+            final int op = random.nextInt(10);
+            if (op < 4) {
+                final int index = random.nextInt(size + 1);
+                expected.add(index, i);
+                list.add(index, i);
+            } else if (op < 7 && size > 0) {
+                final int index = random.nextInt(size);
+                assertEquals(expected.remove(index), list.remove(index));
+            } else if (op < 8 && size > 0) {
+                final int index = random.nextInt(size);
+                assertEquals(expected.set(index, -i), list.set(index, -i));
+            } else if (op < 9) {
+                final int index = random.nextInt(size + 1);
+                final List<Integer> added = Arrays.asList(i, i + 1, i + 2);
+                expected.addAll(index, added);
+                list.addAll(index, added);
+            } else {
+                // Remove every other item via the iterator.
+                final Iterator<Integer> expectedIterator = expected.iterator();
+                final Iterator<Integer> iterator = list.iterator();
+                boolean remove = false;
+                while (expectedIterator.hasNext()) {
+                    assertEquals(expectedIterator.next(), iterator.next());
+                    if (remove) {
+                        expectedIterator.remove();
+                        iterator.remove();
+                    }
+                    remove = !remove;
+                }
+                assertFalse(iterator.hasNext());
+            }
+            assertEquals(expected, list);
+        }
+    }
+
+    public void testIndexOutOfBounds() {
+        final List<Integer> list = new GapList<Integer>();
+        list.add(1);
+        try {
+            list.get(1);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // Expected.
+        }
+        try {
+            list.add(2, 2);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // Expected.
+        }
+    }
+}